@@ -0,0 +1,89 @@
+#!/usr/bin/env bash
+# 端到端压测: 生成数据后, 分别以 追踪关闭 / 采样 / 全量追踪 启动 sql-tree 并压测, 结果汇总到同一个 CSV
+#
+# 用法(在仓库根目录下):
+#   sql-tree-loadtest/scripts/run-modes.sh
+# 可用环境变量调整:
+#   USERS=1000000       生成的用户数(默认 100000), 已有数据库时不会重复生成, REGENERATE=true 强制重建
+#   CONCURRENCY=32 DURATION=60 WARMUP=15 MIX=detail:95,list:5 ID_SKEW=2
+#   SAMPLE_RATE=0.1     采样模式的采样率
+#   MODES="off sampled full"
+#   LOG_LEVEL=WARN      sql-tree 与 MyBatis 的日志级别, 默认压低以免日志本身主导开销
+#   DB_URL=...          默认 H2 文件库, 也可指向本地 MySQL(需同时设置 DB_USER/DB_PASSWORD/DB_DRIVER)
+# 注意: 用户量很大时 /api/users 会返回全部用户, list 的权重应保持很小.
+set -euo pipefail
+
+ROOT=$(cd "$(dirname "$0")/../.." && pwd)
+WORK="$ROOT/sql-tree-loadtest/target/loadtest"
+USERS=${USERS:-100000}
+CONCURRENCY=${CONCURRENCY:-16}
+DURATION=${DURATION:-30}
+WARMUP=${WARMUP:-10}
+MIX=${MIX:-detail:95,list:5}
+ID_SKEW=${ID_SKEW:-2}
+SAMPLE_RATE=${SAMPLE_RATE:-0.1}
+MODES=${MODES:-off sampled full}
+LOG_LEVEL=${LOG_LEVEL:-WARN}
+PORT=${PORT:-18090}
+DB_URL=${DB_URL:-jdbc:h2:file:$WORK/db;MODE=MySQL;DATABASE_TO_LOWER=TRUE}
+DB_USER=${DB_USER:-sa}
+DB_PASSWORD=${DB_PASSWORD:-}
+DB_DRIVER=${DB_DRIVER:-org.h2.Driver}
+REPORT="$WORK/report-$(date +%Y%m%d-%H%M%S).csv"
+
+mkdir -p "$WORK"
+cd "$ROOT"
+mvn -B -q compile -pl sql-tree,sql-tree-loadtest
+mvn -B -q dependency:build-classpath -pl sql-tree -Dmdep.outputFile="$WORK/app.classpath" > /dev/null
+mvn -B -q dependency:build-classpath -pl sql-tree-loadtest -Dmdep.outputFile="$WORK/loadtest.classpath" > /dev/null
+APP_CP="$ROOT/sql-tree/target/classes:$(cat "$WORK/app.classpath")"
+TOOL_CP="$ROOT/sql-tree-loadtest/target/classes:$(cat "$WORK/loadtest.classpath")"
+
+if [[ "${REGENERATE:-false}" == true ]]; then
+  rm -f "$WORK"/db.*.db
+fi
+if [[ "$DB_URL" != jdbc:h2:file:* || ! -f "$WORK/db.mv.db" ]]; then
+  java -cp "$TOOL_CP" me.cowra.demo.sql_tree.loadtest.DataGenerator --url="$DB_URL" --username="$DB_USER" \
+      --password="$DB_PASSWORD" --schema="$ROOT/sql-tree/src/main/resources/schema.sql" --users="$USERS"
+fi
+
+APP_PID=
+stop_app() {
+  if [[ -n "$APP_PID" ]]; then
+    kill "$APP_PID" 2>/dev/null || true
+    wait "$APP_PID" 2>/dev/null || true
+    APP_PID=
+  fi
+}
+trap stop_app EXIT
+
+for mode in $MODES; do
+  case $mode in
+    off)     trace=(--sql-tree.trace-enabled=false) ;;
+    sampled) trace=(--sql-tree.trace-enabled=true --sql-tree.trace-sample-rate="$SAMPLE_RATE") ;;
+    full)    trace=(--sql-tree.trace-enabled=true --sql-tree.trace-sample-rate=1.0) ;;
+    *) echo "Unknown mode: $mode" >&2; exit 1 ;;
+  esac
+
+  # 数据已由生成器写入, 不再执行 schema.sql/data.sql
+  java -cp "$APP_CP" me.cowra.demo.sql_tree.SqlTreeApp --server.port="$PORT" \
+      --spring.datasource.url="$DB_URL" --spring.datasource.username="$DB_USER" \
+      --spring.datasource.password="$DB_PASSWORD" --spring.datasource.driver-class-name="$DB_DRIVER" \
+      --spring.sql.init.mode=never --sql-tree.baselines.snapshot-file= \
+      --logging.level.me.cowra.demo.sql_tree="$LOG_LEVEL" --logging.level.org.apache.ibatis="$LOG_LEVEL" \
+      --logging.file.name="$WORK/app-$mode.log" "${trace[@]}" > "$WORK/app-$mode.out" 2>&1 &
+  APP_PID=$!
+  for _ in $(seq 1 120); do
+    curl -sf "http://localhost:$PORT/actuator/health" > /dev/null && break
+    sleep 1
+  done
+
+  java -cp "$TOOL_CP" me.cowra.demo.sql_tree.loadtest.LoadDriver --base-url="http://localhost:$PORT" \
+      --concurrency="$CONCURRENCY" --duration="$DURATION" --warmup="$WARMUP" --mix="$MIX" \
+      --id-max="$USERS" --id-skew="$ID_SKEW" --label="$mode" --report="$REPORT"
+  stop_app
+done
+
+echo
+echo "Report: $REPORT"
+cat "$REPORT"
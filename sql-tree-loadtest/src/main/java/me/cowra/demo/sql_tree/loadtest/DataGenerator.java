@@ -0,0 +1,270 @@
+package me.cowra.demo.sql_tree.loadtest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Random;
+
+/**
+ * 按规模生成 users / orders / order_items 数据
+ * 每个用户的订单数服从幂律分布: P(订单数 >= n) = (n + 1)^-alpha, 大部分用户只有几单甚至没有, 少数热点用户有上百单;
+ * 每单商品数为 1 + 几何分布. 相同 seed 生成相同的数据. 主键显式指定, 从表中现有最大ID之后开始追加.
+ *
+ * 示例:
+ *   java -cp ... me.cowra.demo.sql_tree.loadtest.DataGenerator --users=1000000
+ *   java -cp ... me.cowra.demo.sql_tree.loadtest.DataGenerator \
+ *       --url='jdbc:mysql://localhost:3306/foo?rewriteBatchedStatements=true' --username=bar --password=123
+ */
+public class DataGenerator {
+
+    private static final String[] STATUSES = {"PENDING", "PAID", "SHIPPED", "COMPLETED", "COMPLETED", "COMPLETED", "CANCELLED"};
+    private static final String[] CATEGORIES = {"Book", "Phone", "Laptop", "Headset", "Keyboard", "Monitor", "Camera", "Watch"};
+    private static final int PRODUCTS = 200;
+    private static final long TWO_YEARS_MILLIS = 2L * 365 * 24 * 3600 * 1000;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final Path schema;
+    private final int users;
+    private final double ordersAlpha;
+    private final int maxOrders;
+    private final double meanItems;
+    private final int maxItems;
+    private final int batchSize;
+    private final boolean indexes;
+    private final Random random;
+
+    private final String[] productNames = new String[PRODUCTS];
+    private final BigDecimal[] productPrices = new BigDecimal[PRODUCTS];
+
+    private long userCount;
+    private long orderCount;
+    private long itemCount;
+    private int maxOrdersSeen;
+    private long usersWithoutOrders;
+
+    DataGenerator(Args args) {
+        this.url = args.get("url", "jdbc:h2:file:./target/loadtest/db;MODE=MySQL;DATABASE_TO_LOWER=TRUE");
+        this.username = args.get("username", "sa");
+        this.password = args.get("password", "");
+        this.schema = Paths.get(args.get("schema", "../sql-tree/src/main/resources/schema.sql"));
+        this.users = args.getInt("users", 100_000);
+        this.ordersAlpha = args.getDouble("orders-alpha", 1.2);
+        this.maxOrders = args.getInt("max-orders", 500);
+        this.meanItems = args.getDouble("mean-items", 3.0);
+        this.maxItems = args.getInt("max-items", 20);
+        this.batchSize = args.getInt("batch", 1000);
+        this.indexes = args.getBoolean("indexes", true);
+        this.random = new Random(args.getLong("seed", 42));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new DataGenerator(new Args(args)).run();
+    }
+
+    void run() throws SQLException, IOException {
+        for (int i = 0; i < PRODUCTS; i++) {
+            productNames[i] = CATEGORIES[i % CATEGORIES.length] + " #" + (i + 1);
+            productPrices[i] = BigDecimal.valueOf(5 + random.nextInt(2000) + random.nextInt(100) / 100.0)
+                    .setScale(2, RoundingMode.HALF_UP);
+        }
+
+        try (Connection connection = DriverManager.getConnection(url, username, password)) {
+            if (Files.isRegularFile(schema)) {
+                runScript(connection, schema);
+            }
+            if (indexes) {
+                createIndex(connection, "CREATE INDEX idx_orders_user_id ON orders (user_id)");
+                createIndex(connection, "CREATE INDEX idx_order_items_order_id ON order_items (order_id)");
+            }
+            connection.setAutoCommit(false);
+            generate(connection);
+            if (url.startsWith("jdbc:h2:")) {
+                restartIdentities(connection);
+            }
+        }
+    }
+
+    /**
+     * H2 显式插入主键不会推进自增序列(MySQL 会), 应用之后的插入会与生成的数据冲突
+     */
+    private static void restartIdentities(Connection connection) throws SQLException {
+        for (String table : new String[]{"users", "orders", "order_items"}) {
+            long next = maxId(connection, table) + 1;
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE " + table + " ALTER COLUMN id RESTART WITH " + next);
+            }
+        }
+        connection.commit();
+    }
+
+    private void generate(Connection connection) throws SQLException {
+        long userId = maxId(connection, "users");
+        long orderId = maxId(connection, "orders");
+        long itemId = maxId(connection, "order_items");
+        long now = System.currentTimeMillis();
+        long started = System.nanoTime();
+        long lastReport = started;
+
+        try (PreparedStatement userInsert = connection.prepareStatement(
+                "INSERT INTO users (id, username, email, password, status, created_time, updated_time) VALUES (?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement orderInsert = connection.prepareStatement(
+                     "INSERT INTO orders (id, user_id, order_no, total_amount, status, created_time, updated_time) VALUES (?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement itemInsert = connection.prepareStatement(
+                     "INSERT INTO order_items (id, order_id, product_name, quantity, price, created_time) VALUES (?, ?, ?, ?, ?, ?)")) {
+
+            int pending = 0;
+            for (int u = 0; u < users; u++) {
+                userId++;
+                Timestamp userCreated = new Timestamp(now - (long) (random.nextDouble() * TWO_YEARS_MILLIS));
+                userInsert.setLong(1, userId);
+                userInsert.setString(2, "load_user_" + userId);
+                userInsert.setString(3, "load_user_" + userId + "@example.com");
+                userInsert.setString(4, "password" + (userId % 1000));
+                userInsert.setString(5, random.nextInt(20) == 0 ? "INACTIVE" : "ACTIVE");
+                userInsert.setTimestamp(6, userCreated);
+                userInsert.setTimestamp(7, userCreated);
+                userInsert.addBatch();
+                pending++;
+
+                int orders = orderCount();
+                maxOrdersSeen = Math.max(maxOrdersSeen, orders);
+                if (orders == 0) {
+                    usersWithoutOrders++;
+                }
+                for (int o = 0; o < orders; o++) {
+                    orderId++;
+                    long created = userCreated.getTime() + (long) (random.nextDouble() * (now - userCreated.getTime()));
+                    Timestamp orderCreated = new Timestamp(created);
+                    BigDecimal total = BigDecimal.ZERO;
+
+                    int items = itemCount();
+                    for (int i = 0; i < items; i++) {
+                        itemId++;
+                        int product = random.nextInt(PRODUCTS);
+                        int quantity = 1 + random.nextInt(3);
+                        total = total.add(productPrices[product].multiply(BigDecimal.valueOf(quantity)));
+                        itemInsert.setLong(1, itemId);
+                        itemInsert.setLong(2, orderId);
+                        itemInsert.setString(3, productNames[product]);
+                        itemInsert.setInt(4, quantity);
+                        itemInsert.setBigDecimal(5, productPrices[product]);
+                        itemInsert.setTimestamp(6, orderCreated);
+                        itemInsert.addBatch();
+                        pending++;
+                    }
+                    itemCount += items;
+
+                    orderInsert.setLong(1, orderId);
+                    orderInsert.setLong(2, userId);
+                    orderInsert.setString(3, "LT" + orderId);
+                    orderInsert.setBigDecimal(4, total);
+                    orderInsert.setString(5, STATUSES[random.nextInt(STATUSES.length)]);
+                    orderInsert.setTimestamp(6, orderCreated);
+                    orderInsert.setTimestamp(7, new Timestamp(created + (long) (random.nextDouble() * (now - created))));
+                    orderInsert.addBatch();
+                    pending++;
+                }
+                orderCount += orders;
+                userCount++;
+
+                if (pending >= batchSize) {
+                    flush(connection, userInsert, orderInsert, itemInsert);
+                    pending = 0;
+                    if (System.nanoTime() - lastReport > 5_000_000_000L) {
+                        lastReport = System.nanoTime();
+                        report("progress", started);
+                    }
+                }
+            }
+            flush(connection, userInsert, orderInsert, itemInsert);
+        }
+        report("done", started);
+        System.out.printf("orders per user: mean=%.2f, max=%d, users without orders=%d (%.1f%%)%n",
+                userCount > 0 ? (double) orderCount / userCount : 0, maxOrdersSeen, usersWithoutOrders,
+                userCount > 0 ? 100.0 * usersWithoutOrders / userCount : 0);
+    }
+
+    /**
+     * P(k >= n) = (n + 1)^-alpha
+     */
+    private int orderCount() {
+        double u = 1 - random.nextDouble();
+        return (int) Math.min(maxOrders, Math.floor(Math.pow(u, -1 / ordersAlpha)) - 1);
+    }
+
+    /**
+     * 1 + 几何分布, 均值为 mean-items
+     */
+    private int itemCount() {
+        if (meanItems <= 1) {
+            return 1;
+        }
+        double p = 1 / meanItems;
+        double u = 1 - random.nextDouble();
+        return (int) Math.min(maxItems, 1 + Math.floor(Math.log(u) / Math.log(1 - p)));
+    }
+
+    private void flush(Connection connection, PreparedStatement... statements) throws SQLException {
+        //* 先用户再订单再明细, 与外键方向一致
+        for (PreparedStatement statement : statements) {
+            statement.executeBatch();
+        }
+        connection.commit();
+    }
+
+    private void report(String stage, long started) {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long rows = userCount + orderCount + itemCount;
+        System.out.printf("%s: users=%d, orders=%d, items=%d, %.1fs, %.0f rows/s%n",
+                stage, userCount, orderCount, itemCount, seconds, rows / Math.max(seconds, 1e-9));
+    }
+
+    private static long maxId(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void runScript(Connection connection, Path script) throws IOException, SQLException {
+        StringBuilder sql = new StringBuilder();
+        for (String line : Files.readAllLines(script, StandardCharsets.UTF_8)) {
+            if (!line.trim().startsWith("--")) {
+                sql.append(line).append('\n');
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : sql.toString().split(";")) {
+                if (!ddl.isBlank()) {
+                    statement.execute(ddl);
+                }
+            }
+        }
+    }
+
+    /**
+     * MySQL 不支持 CREATE INDEX IF NOT EXISTS, 已存在时忽略错误
+     */
+    private static void createIndex(Connection connection, String ddl) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(ddl);
+            System.out.println("created: " + ddl);
+        } catch (SQLException e) {
+            System.out.println("skipped: " + ddl + " (" + e.getMessage().split("\n")[0] + ")");
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package me.cowra.demo.sql_tree.loadtest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 闭环压测驱动
+ * 固定并发数的工作线程循环请求 /api/users 和 /api/users/{id}, 预热后开始计时,
+ * 记录每个请求的延迟(每线程各自的数组, 结束时合并排序, 分位数是精确值), 输出吞吐和延迟分位数.
+ * 用户ID在 [id-min, id-max] 内按 id-min + range * U^id-skew 选取, id-skew > 1 时小ID是热点(数据生成器中越早的用户越老).
+ *
+ * 示例:
+ *   java -cp ... me.cowra.demo.sql_tree.loadtest.LoadDriver --base-url=http://localhost:8080 \
+ *       --concurrency=32 --duration=60 --mix=detail:95,list:5 --id-max=100000 --label=full --report=target/loadtest/report.csv
+ */
+public class LoadDriver {
+
+    private final String baseUrl;
+    private final int concurrency;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final long idMin;
+    private final long idMax;
+    private final double idSkew;
+    private final String label;
+    private final Path report;
+    private final Duration timeout;
+    private final String mix;
+    private final String[] endpoints;
+    private final int[] cumulativeWeights;
+
+    private final HttpClient client;
+
+    LoadDriver(Args args) {
+        this.baseUrl = args.get("base-url", "http://localhost:8080");
+        this.concurrency = args.getInt("concurrency", 16);
+        this.warmupNanos = Duration.ofSeconds(args.getLong("warmup", 10)).toNanos();
+        this.durationNanos = Duration.ofSeconds(args.getLong("duration", 60)).toNanos();
+        this.idMin = args.getLong("id-min", 1);
+        this.idMax = args.getLong("id-max", 100_000);
+        this.idSkew = args.getDouble("id-skew", 1.0);
+        this.label = args.get("label", "run");
+        String reportFile = args.get("report", "");
+        this.report = reportFile.isEmpty() ? null : Paths.get(reportFile);
+        this.timeout = Duration.ofSeconds(args.getLong("timeout", 30));
+
+        //* mix 格式: detail:95,list:5
+        this.mix = args.get("mix", "detail:95,list:5");
+        String[] parts = mix.split(",");
+        this.endpoints = new String[parts.length];
+        this.cumulativeWeights = new int[parts.length];
+        int total = 0;
+        for (int i = 0; i < parts.length; i++) {
+            String[] kv = parts[i].split(":");
+            if (!"detail".equals(kv[0]) && !"list".equals(kv[0])) {
+                throw new IllegalArgumentException("Unknown endpoint in mix: " + kv[0]);
+            }
+            endpoints[i] = kv[0];
+            total += kv.length > 1 ? Integer.parseInt(kv[1]) : 1;
+            cumulativeWeights[i] = total;
+        }
+
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadDriver(new Args(args)).run();
+    }
+
+    void run() throws InterruptedException, IOException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long deadline = measureFrom + durationNanos;
+        System.out.printf("[%s] %s, concurrency=%d, warmup=%ds, duration=%ds, mix=%s%n", label, baseUrl, concurrency,
+                warmupNanos / 1_000_000_000L, durationNanos / 1_000_000_000L, mix);
+
+        List<Worker> workers = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Worker worker = new Worker(measureFrom, deadline, done);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        double seconds = durationNanos / 1e9;
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String endpoint : new String[]{"all", "detail", "list"}) {
+            Result result = new Result(endpoint);
+            for (Worker worker : workers) {
+                result.add(worker, endpoint);
+            }
+            result.finish(seconds);
+            if (result.count > 0 || result.errors > 0) {
+                results.put(endpoint, result);
+            }
+        }
+        print(results);
+        if (report != null) {
+            append(results);
+        }
+    }
+
+    private String pickEndpoint(ThreadLocalRandom random) {
+        int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (r < cumulativeWeights[i]) {
+                return endpoints[i];
+            }
+        }
+        return endpoints[endpoints.length - 1];
+    }
+
+    private long pickUserId(ThreadLocalRandom random) {
+        double u = Math.pow(random.nextDouble(), idSkew);
+        return idMin + (long) (u * (idMax - idMin + 1));
+    }
+
+    private void print(Map<String, Result> results) {
+        System.out.printf("%-8s %9s %7s %10s %9s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Result r : results.values()) {
+            System.out.printf("%-8s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    r.endpoint, r.count, r.errors, r.throughput, r.mean, r.p50, r.p90, r.p99, r.p999, r.max);
+        }
+    }
+
+    private void append(Map<String, Result> results) throws IOException {
+        Path parent = report.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        boolean header = !Files.exists(report);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (header) {
+                out.println("label,endpoint,concurrency,requests,errors,throughput,mean_ms,p50_ms,p90_ms,p99_ms,p999_ms,max_ms");
+            }
+            for (Result r : results.values()) {
+                out.printf("%s,%s,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f%n", label, r.endpoint, concurrency,
+                        r.count, r.errors, r.throughput, r.mean, r.p50, r.p90, r.p99, r.p999, r.max);
+            }
+        }
+    }
+
+    /**
+     * 单个工作线程, 延迟(纳秒)按端点记录在各自的数组中, 不做任何同步
+     */
+    private final class Worker implements Runnable {
+        private final long measureFrom;
+        private final long deadline;
+        private final CountDownLatch done;
+        private final Map<String, LongArray> latencies = new LinkedHashMap<>();
+        private final Map<String, long[]> errors = new LinkedHashMap<>();
+
+        Worker(long measureFrom, long deadline, CountDownLatch done) {
+            this.measureFrom = measureFrom;
+            this.deadline = deadline;
+            this.done = done;
+            for (String endpoint : endpoints) {
+                latencies.put(endpoint, new LongArray());
+                errors.put(endpoint, new long[1]);
+            }
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                long now;
+                while ((now = System.nanoTime()) < deadline) {
+                    String endpoint = pickEndpoint(random);
+                    String path = "list".equals(endpoint) ? "/api/users" : "/api/users/" + pickUserId(random);
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(timeout).GET().build();
+                    boolean ok;
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        ok = response.statusCode() / 100 == 2;
+                    } catch (IOException e) {
+                        ok = false;
+                    }
+                    long end = System.nanoTime();
+                    //* 预热期内和截止之后完成的请求不计入
+                    if (now >= measureFrom && end <= deadline) {
+                        if (ok) {
+                            latencies.get(endpoint).add(end - now);
+                        } else {
+                            errors.get(endpoint)[0]++;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    private static final class LongArray {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static final class Result {
+        private final String endpoint;
+        private LongArray merged = new LongArray();
+        private long count;
+        private long errors;
+        private double throughput;
+        private double mean;
+        private double p50;
+        private double p90;
+        private double p99;
+        private double p999;
+        private double max;
+
+        Result(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void add(Worker worker, String endpoint) {
+            worker.latencies.forEach((name, values) -> {
+                if ("all".equals(endpoint) || name.equals(endpoint)) {
+                    for (int i = 0; i < values.size; i++) {
+                        merged.add(values.values[i]);
+                    }
+                    errors += worker.errors.get(name)[0];
+                }
+            });
+        }
+
+        void finish(double seconds) {
+            long[] values = Arrays.copyOf(merged.values, merged.size);
+            merged = null;
+            Arrays.sort(values);
+            count = values.length;
+            throughput = count / seconds;
+            if (count > 0) {
+                long sum = 0;
+                for (long v : values) {
+                    sum += v;
+                }
+                mean = sum / (double) count / 1e6;
+                p50 = percentile(values, 0.50);
+                p90 = percentile(values, 0.90);
+                p99 = percentile(values, 0.99);
+                p999 = percentile(values, 0.999);
+                max = values[values.length - 1] / 1e6;
+            }
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+        }
+    }
+}
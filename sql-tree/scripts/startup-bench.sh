@@ -0,0 +1,81 @@
+#!/usr/bin/env bash
+# 启动耗时基准: 对比 默认配置 / fast profile / fast profile + AppCDS
+#
+# 用法(在 sql-tree 目录下):
+#   mvn -Pappcds package
+#   scripts/startup-bench.sh [每种配置的次数, 默认 5]
+#
+# 三种配置使用同一个瘦 jar 和同一个 H2 文件库(target/startup-bench/db), 轮流交替启动以抵消机器抖动;
+# 库在预热时初始化, 之后默认配置每次仍执行 schema.sql/data.sql, fast 配置按校验和跳过.
+# 每次启动就绪后立即退出(sql-tree.startup.exit-after-ready), 取日志中 "JVM running for" 的秒数, 输出中位数和最小值.
+set -euo pipefail
+
+RUNS=${1:-5}
+BASE_DIR=$(cd "$(dirname "$0")/.." && pwd)
+APPCDS_DIR="$BASE_DIR/target/appcds"
+BENCH_DIR="$BASE_DIR/target/startup-bench"
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+JAR=$(ls "$APPCDS_DIR"/sql-tree-*-cds.jar 2>/dev/null | head -1 || true)
+if [[ -z "$JAR" || ! -f "$APPCDS_DIR/sql-tree.jsa" ]]; then
+  echo "AppCDS artifacts not found, run 'mvn -Pappcds package' first" >&2
+  exit 1
+fi
+# 基准使用 H2 文件库, 驱动由 appcds profile 复制到 lib/(见 pom.xml)
+if ! ls "$APPCDS_DIR"/lib/h2-*.jar > /dev/null 2>&1; then
+  echo "H2 driver not found in $APPCDS_DIR/lib, re-run 'mvn -Pappcds package'" >&2
+  exit 1
+fi
+
+rm -rf "$BENCH_DIR" && mkdir -p "$BENCH_DIR"
+COMMON_ARGS=(
+  "--spring.datasource.url=jdbc:h2:file:$BENCH_DIR/db;MODE=MySQL;DATABASE_TO_LOWER=TRUE"
+  "--spring.datasource.driver-class-name=org.h2.Driver"
+  "--spring.datasource.username=sa"
+  "--spring.datasource.password="
+  "--server.port=0"
+  "--logging.file.name=$BENCH_DIR/app.log"
+  "--sql-tree.baselines.snapshot-file="
+  "--sql-tree.startup.exit-after-ready=true"
+)
+
+# 启动一次, 输出 JVM 启动到就绪的秒数
+run() {
+  local name=$1 jvm_args=$2 profile=$3
+  local out="$BENCH_DIR/$name.out"
+  # CDS 要求与训练时相同的 jar 路径, 在 appcds 目录下以相对路径启动
+  (cd "$APPCDS_DIR" && $JAVA $jvm_args -jar "$(basename "$JAR")" \
+      --spring.profiles.active="$profile" "${COMMON_ARGS[@]}") > "$out" 2>&1 || {
+    echo "$name failed, see $out" >&2
+    exit 1
+  }
+  grep -a -o "JVM running for [0-9.]*" "$out" | awk '{print $4}'
+}
+
+declare -A RESULTS
+CONFIGS=(default fast fast-cds)
+jvm_args() { [[ $1 == fast-cds ]] && echo "-XX:SharedArchiveFile=sql-tree.jsa -Xshare:on" || echo "-Xshare:auto"; }
+profile() { [[ $1 == default ]] && echo "default" || echo "fast"; }
+
+echo "Warming up (initializing schema, filling OS page cache)..."
+for config in "${CONFIGS[@]}"; do
+  run "$config" "$(jvm_args "$config")" "$(profile "$config")" > /dev/null
+done
+
+for ((i = 1; i <= RUNS; i++)); do
+  for config in "${CONFIGS[@]}"; do
+    seconds=$(run "$config" "$(jvm_args "$config")" "$(profile "$config")")
+    RESULTS[$config]="${RESULTS[$config]:-} $seconds"
+    printf "run %d %-9s %ss\n" "$i" "$config" "$seconds"
+  done
+done
+
+echo
+printf "%-9s %8s %8s %8s\n" config median min speedup
+baseline=
+for config in "${CONFIGS[@]}"; do
+  read -r median min < <(echo ${RESULTS[$config]} | tr ' ' '\n' | sort -n |
+      awk '{v[NR]=$1} END {m = NR % 2 ? v[(NR+1)/2] : (v[NR/2] + v[NR/2+1]) / 2; print m, v[1]}')
+  baseline=${baseline:-$median}
+  printf "%-9s %7.3fs %7.3fs %7.2fx\n" "$config" "$median" "$min" "$(awk -v b="$baseline" -v m="$median" 'BEGIN {print b / m}')"
+done
@@ -2,13 +2,20 @@ package me.cowra.demo.sql_tree;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 
 /**
  * 启动类
  */
 @SpringBootApplication
 public class SqlTreeApp {
+
+    //* 启动时间线缓冲的步骤数, 超出后丢弃; 就绪后由 StartupTimelineReporter 汇总, 明细见 /actuator/startup
+    private static final int STARTUP_STEPS = 8192;
+
     public static void main(String[] args) {
-        SpringApplication.run(SqlTreeApp.class, args);
+        SpringApplication application = new SpringApplication(SqlTreeApp.class);
+        application.setApplicationStartup(new BufferingApplicationStartup(STARTUP_STEPS));
+        application.run(args);
     }
-}
\ No newline at end of file
+}
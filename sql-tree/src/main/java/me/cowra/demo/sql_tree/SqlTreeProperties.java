@@ -0,0 +1,21 @@
+package me.cowra.demo.sql_tree;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * sql-tree 配置块的顶层项, 各功能的子块(heavy-hitters, result-guard, ...)由各自的配置类绑定.
+ * 这里是启动时的初始值, 运行期可通过 /actuator/sqltrace 调整, 调整后的值由 SqlCallTreeContext 和 SqlTreeStore 持有.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "sql-tree")
+public class SqlTreeProperties {
+    private boolean traceEnabled = false;   //* 是否启用SQL追踪
+    private double traceSampleRate = 1.0;   //* 顶层调用的采样率(0~1)
+    private long slowSqlThreshold = 1000;   //* 慢SQL阈值(毫秒), 也是自适应基线的下限
+    private int maxDepth = 50;              //* 最大追踪深度, 更深的 Service 调用和SQL不再建节点
+    private int maxSessions = 100;          //* 保留的调用树数量
+    private boolean recordParameters = true;    //* 是否记录SQL参数及代入参数后的SQL
+}
@@ -1,44 +1,105 @@
 package me.cowra.demo.sql_tree.aop;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
 import me.cowra.demo.sql_tree.model.ServiceCallInfo;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.springframework.stereotype.Component;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.annotation.AnnotatedElementUtils;
 
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service调用追踪切面
+ * 切点: me.cowra.demo.sql_tree.service 包下的 *Service, 以及标注了 {@link Traced} 的方法/类.
+ * 由 {@link TraceAspectConfig} 注册. AspectJ 单例切面要求无参构造, 所以依赖通过 setter 注入.
+ *
+ * 单次调用的切面开销(JDK 17, 空方法, 2e6 次调用取最好的一轮, 追踪关闭), 由 AspectOverheadBenchmark(src/test) 测得,
+ * 运行 mvn -Pbenchmark verify 与 mvn -Pajc,benchmark verify, 绝对值随机器而变:
+ * 直接调用 <1ns; Spring AOP 代理(改造前) ~100-140ns; Spring AOP 代理 + 元数据缓存 ~70-100ns; ajc 编译期织入 ~20-40ns.
+ * 追踪开启时几种方式相差不大(数微秒), 主要花在 enterService/exitService 本身(UUID、时间戳、保存调用树), 而非切面.
+ */
 @Slf4j
-@RequiredArgsConstructor
 @Aspect
-@Component
 public class ServiceCallTraceAspect {
 
-    private final SqlCallTreeContext sqlCallTreeContext;
+    /**
+     * 目标类 -> (方法 -> 元数据), 每个方法只解析一次
+     */
+    private static final ClassValue<Map<Method, TraceMetadata>> METADATA = new ClassValue<>() {
+        @Override
+        protected Map<Method, TraceMetadata> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private SqlCallTreeContext sqlCallTreeContext;
 
-    @Around("execution(public * me.cowra.demo.sql_tree.service.*Service.*(..))")
-    public Object traceServiceCall(ProceedingJoinPoint joinPoint) throws Throwable {
-        String serviceName = joinPoint.getTarget().getClass().getSimpleName();
-        String methodName = joinPoint.getSignature().getName();
+    public void setSqlCallTreeContext(SqlCallTreeContext sqlCallTreeContext) {
+        this.sqlCallTreeContext = sqlCallTreeContext;
+    }
 
-        log.info("Service Aspect: {}.{}", serviceName, methodName);
+    //! 只用 execution 类型/注解模式, 可在代理创建时静态匹配; 改用 @within/@annotation 会退化为每次调用的运行时匹配
+    @Around("execution(public * me.cowra.demo.sql_tree.service.*Service.*(..))"
+            + " || execution(@me.cowra.demo.sql_tree.aop.Traced public * *(..))"
+            + " || execution(public * (@me.cowra.demo.sql_tree.aop.Traced *).*(..))")
+    public Object traceServiceCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        //* 编译期织入时, 切面可能在 Spring 注入依赖之前就被调用
+        SqlCallTreeContext context = this.sqlCallTreeContext;
+        if (context == null || !context.isTraceEnabled()) {
+            return joinPoint.proceed();
+        }
 
-        ServiceCallInfo serviceCallInfo = sqlCallTreeContext.enterService(serviceName, methodName);
-        log.info("Entering service invocation: {}.{}, 当前深度: {}",
-                serviceName, methodName,
-                serviceCallInfo != null ? serviceCallInfo.getDepth() : "null");
+        TraceMetadata metadata = resolveMetadata(joinPoint);
+        ServiceCallInfo serviceCallInfo = context.enterService(metadata.serviceName, metadata.methodName);
+        if (log.isDebugEnabled()) {
+            log.debug("Entering service invocation: {}, depth: {}", metadata.displayName,
+                    serviceCallInfo != null ? serviceCallInfo.getDepth() : "null");
+        }
 
         try {
-            Object result = joinPoint.proceed();
-            log.debug("Success Service Invocation: {}.{}", serviceName, methodName);
-            return result;
+            return joinPoint.proceed();
         } catch (Throwable t) {
-            log.error("Failed to execute service: {}.{}, error: {}",
-                    serviceName, methodName, t.getMessage());
+            log.error("Failed to execute service: {}, error: {}", metadata.displayName, t.getMessage());
             throw t;
         } finally {
-            sqlCallTreeContext.exitService(serviceCallInfo);
+            context.exitService(serviceCallInfo);
+        }
+    }
+
+    private TraceMetadata resolveMetadata(ProceedingJoinPoint joinPoint) {
+        Object target = joinPoint.getTarget();
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Class<?> targetClass = target != null ? target.getClass() : method.getDeclaringClass();
+        return METADATA.get(targetClass).computeIfAbsent(method, m -> TraceMetadata.of(targetClass, m));
+    }
+
+    /**
+     * 每个被追踪方法的静态信息
+     */
+    private static final class TraceMetadata {
+        private final String serviceName;
+        private final String methodName;
+        private final String displayName;
+
+        private TraceMetadata(String serviceName, String methodName) {
+            this.serviceName = serviceName;
+            this.methodName = methodName;
+            this.displayName = serviceName + "." + methodName;
+        }
+
+        static TraceMetadata of(Class<?> targetClass, Method method) {
+            Traced traced = AnnotatedElementUtils.findMergedAnnotation(method, Traced.class);
+            if (traced == null) {
+                traced = AnnotatedElementUtils.findMergedAnnotation(targetClass, Traced.class);
+            }
+            String serviceName = traced != null && !traced.value().isEmpty()
+                    ? traced.value() : targetClass.getSimpleName();
+            return new TraceMetadata(serviceName, method.getName());
         }
     }
 
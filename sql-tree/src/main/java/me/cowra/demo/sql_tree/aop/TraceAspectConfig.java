@@ -0,0 +1,33 @@
+package me.cowra.demo.sql_tree.aop;
+
+import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
+import org.aspectj.lang.Aspects;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Service追踪切面的注册方式
+ * proxy(默认): 由 Spring AOP 通过代理织入;
+ * ajc: 切面已在构建期由 AspectJ 编译器织入(mvn -Pajc), 这里只取出 AspectJ 单例并注入依赖.
+ * Spring 会自动忽略 ajc 编译过的切面类, 不会重复织入.
+ */
+@Configuration(proxyBeanMethods = false)
+public class TraceAspectConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "sql-tree.weaving", havingValue = "proxy", matchIfMissing = true)
+    public ServiceCallTraceAspect serviceCallTraceAspect(SqlCallTreeContext sqlCallTreeContext) {
+        ServiceCallTraceAspect aspect = new ServiceCallTraceAspect();
+        aspect.setSqlCallTreeContext(sqlCallTreeContext);
+        return aspect;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "sql-tree.weaving", havingValue = "ajc")
+    public ServiceCallTraceAspect wovenServiceCallTraceAspect(SqlCallTreeContext sqlCallTreeContext) {
+        ServiceCallTraceAspect aspect = Aspects.aspectOf(ServiceCallTraceAspect.class);
+        aspect.setSqlCallTreeContext(sqlCallTreeContext);
+        return aspect;
+    }
+}
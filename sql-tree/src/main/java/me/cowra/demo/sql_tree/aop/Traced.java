@@ -0,0 +1,22 @@
+package me.cowra.demo.sql_tree.aop;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记需要追踪的方法或类
+ * 作为 *Service 命名约定之外的显式切点, 标注在类上时追踪该类的所有 public 方法.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Traced {
+
+    /**
+     * 调用树中显示的 service 名称, 为空时使用目标类的简单类名
+     */
+    String value() default "";
+}
@@ -1,17 +1,34 @@
 package me.cowra.demo.sql_tree.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.service.DatabaseBulkhead;
+import me.cowra.demo.sql_tree.service.DatabaseBusyException;
 import me.cowra.demo.sql_tree.service.OrderService;
+import me.cowra.demo.sql_tree.service.UserDetailCache;
+import me.cowra.demo.sql_tree.service.UserLogWriter;
 import me.cowra.demo.sql_tree.service.UserService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 @Slf4j
 @AllArgsConstructor
@@ -21,6 +38,10 @@ public class DemoController {
 
     private final UserService userService;
     private final OrderService orderService;
+    private final UserLogWriter userLogWriter;
+    private final DatabaseBulkhead databaseBulkhead;
+    private final UserDetailCache userDetailCache;
+    private final ObjectMapper objectMapper;
 
     /**
      * 获取所有用户信息
@@ -28,6 +49,12 @@ public class DemoController {
     @GetMapping("/users")
     public Map<String, Object> getAllUsers() {
         log.info("get all users");
+        //* 审计日志异步批量写入, 不在请求线程中执行 SQL; 列表访问没有具体用户, 记为 0
+        userLogWriter.record(0L, "LIST_USERS", "GET /api/users");
+        return listUsers();
+    }
+
+    private Map<String, Object> listUsers() {
         Map<String, Object> response = new HashMap<>();
         try {
             List<Map<String, Object>> allUsers = userService.getAllUsers();
@@ -45,13 +72,51 @@ public class DemoController {
     /**
      * 根据ID获取用户信息(包含订单信息)
      * 这个接口会产生复杂的接口调用树
+     * 先用一次便宜的版本查询生成 ETag, If-None-Match 匹配时直接返回 304, 不执行详情的查询树;
+     * 启用 user-detail-cache 时, 版本未变的响应直接返回缓存的字节.
+     * 版本先于详情读取, 详情只会比 ETag 新, 不会把旧数据当作未修改
      * @param id 用户ID
-     * @return 用户详情
+     * @return 用户详情, 未修改时为 null(304)
      */
     @GetMapping("/users/{id}")
-    public Map<String, Object> getUserDetail(@PathVariable Long id) {
+    public ResponseEntity<?> getUserDetail(@PathVariable Long id, WebRequest request) {
         log.info("获取用户详情: id={}", id);
+        userLogWriter.record(id, "VIEW_USER", "GET /api/users/" + id);
 
+        String version = null;
+        try {
+            version = userService.getUserDetailVersion(id);
+        } catch (Exception e) {
+            log.warn("Failed to get the version of user detail, responding without ETag: id={}", id, e);
+        }
+        if (version == null) {
+            return ResponseEntity.ok(userDetail(id));
+        }
+        String etag = "W/\"" + DigestUtils.md5DigestAsHex(version.getBytes(StandardCharsets.UTF_8)) + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        if (!userDetailCache.isEnabled()) {
+            return ResponseEntity.ok().eTag(etag).body(userDetail(id));
+        }
+
+        byte[] body = userDetailCache.get(id, etag);
+        if (body == null) {
+            Map<String, Object> response = userDetail(id);
+            try {
+                body = objectMapper.writeValueAsBytes(response);
+            } catch (JsonProcessingException e) {
+                log.warn("Failed to serialize user detail: id={}", id, e);
+                return ResponseEntity.ok().eTag(etag).body(response);
+            }
+            if (Boolean.TRUE.equals(response.get("success"))) {
+                userDetailCache.put(id, etag, body);
+            }
+        }
+        return ResponseEntity.ok().eTag(etag).contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private Map<String, Object> userDetail(Long id) {
         Map<String, Object> response = new HashMap<>();
         try {
             Map<String, Object> userDetail = userService.getUserDetailWithOrders(id);
@@ -70,5 +135,61 @@ public class DemoController {
         return response;
     }
 
+    /**
+     * 获取所有用户信息(异步)
+     * 数据库调用在 {@link DatabaseBulkhead} 的工作线程上执行, Tomcat 线程立即释放; 数据库饱和时返回 503
+     */
+    @GetMapping("/async/users")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> getAllUsersAsync() {
+        log.info("get all users (async)");
+        userLogWriter.record(0L, "LIST_USERS", "GET /api/async/users");
+        return defer("GET /api/async/users", this::listUsers);
+    }
+
+    /**
+     * 根据ID获取用户信息(异步)
+     * @param id 用户ID
+     * @return 用户详情
+     */
+    @GetMapping("/async/users/{id}")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> getUserDetailAsync(@PathVariable Long id) {
+        log.info("获取用户详情(异步): id={}", id);
+        userLogWriter.record(id, "VIEW_USER", "GET /api/async/users/" + id);
+        return defer("GET /api/async/users/" + id, () -> userDetail(id));
+    }
+
+    /**
+     * 把数据库工作交给隔离舱, 排队已满、排队超时或整体超时都以 503 结束
+     */
+    private DeferredResult<ResponseEntity<Map<String, Object>>> defer(String requestName, Supplier<Map<String, Object>> work) {
+        DeferredResult<ResponseEntity<Map<String, Object>>> result = new DeferredResult<>(databaseBulkhead.getRequestTimeout());
+        CompletableFuture<Map<String, Object>> future = databaseBulkhead.submit(requestName, work);
+        result.onTimeout(() -> {
+            //* 还在排队的任务不再执行; 已在执行的任务无法中断, 结果被丢弃
+            future.cancel(false);
+            result.setResult(unavailable("Timed out waiting for the database"));
+        });
+        future.whenComplete((response, error) -> {
+            if (error == null) {
+                result.setResult(ResponseEntity.ok(response));
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof DatabaseBusyException) {
+                result.setResult(unavailable(cause.getMessage()));
+            } else {
+                result.setErrorResult(cause);
+            }
+        });
+        return result;
+    }
 
+    private static ResponseEntity<Map<String, Object>> unavailable(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(response);
+    }
 }
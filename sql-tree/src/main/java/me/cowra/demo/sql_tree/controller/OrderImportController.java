@@ -0,0 +1,51 @@
+package me.cowra.demo.sql_tree.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.model.OrderRecord;
+import me.cowra.demo.sql_tree.service.OrderImportReader;
+import me.cowra.demo.sql_tree.service.OrderImportService;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 订单批量导入接口
+ * 请求体直接以流的方式解析, 不整体读入内存:
+ * curl -X POST -H 'Content-Type: application/x-ndjson' --data-binary @orders.ndjson localhost:8080/api/orders/import
+ * curl -X POST -H 'Content-Type: text/csv' --data-binary @orders.csv localhost:8080/api/orders/import
+ */
+@Slf4j
+@AllArgsConstructor
+@RestController
+@RequestMapping("/api")
+public class OrderImportController {
+
+    private final OrderImportService orderImportService;
+    private final ObjectMapper objectMapper;
+
+    @PostMapping(value = "/orders/import", consumes = {"application/x-ndjson", "text/csv"})
+    public Map<String, Object> importOrders(HttpServletRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        try (InputStream in = request.getInputStream()) {
+            Iterator<OrderRecord> orders = request.getContentType().startsWith("text/csv")
+                    ? OrderImportReader.csv(in)
+                    : OrderImportReader.ndjson(in, objectMapper);
+            OrderImportService.ImportResult result = orderImportService.importOrders(orders);
+            response.put("success", result.getError() == null);
+            response.put("data", result);
+        } catch (Exception e) {
+            log.error("Failed to import orders", e);
+            response.put("success", false);
+            response.put("message", e.getMessage());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,74 @@
+package me.cowra.demo.sql_tree.controller;
+
+import lombok.AllArgsConstructor;
+import me.cowra.demo.sql_tree.store.FrozenSqlTree;
+import me.cowra.demo.sql_tree.store.SqlTreeStore;
+import me.cowra.demo.sql_tree.store.SqlTreeStream;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 已完成的SQL调用树查询
+ */
+@AllArgsConstructor
+@RestController
+@RequestMapping("/api/sql-trees")
+public class SqlTreeController {
+
+    private final SqlTreeStore sqlTreeStore;
+    private final SqlTreeStream sqlTreeStream;
+
+    /**
+     * 最近的调用树概要, 指定 traceId 时返回该 trace 下的所有树
+     */
+    @GetMapping
+    public Map<String, Object> list(@RequestParam(defaultValue = "20") int limit,
+                                    @RequestParam(required = false) String traceId) {
+        List<FrozenSqlTree> found = traceId != null ? sqlTreeStore.findByTraceId(traceId) : sqlTreeStore.recent(limit);
+        List<FrozenSqlTree.Summary> trees = found.stream()
+                .map(FrozenSqlTree::summary)
+                .collect(Collectors.toList());
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", trees);
+        response.put("total", trees.size());
+        return response;
+    }
+
+    /**
+     * 实时推送新完成的调用树(SSE), 事件 tree 为调用树, 事件 dropped 为因客户端过慢而丢弃的数量
+     * curl -N 'localhost:8080/api/sql-trees/stream?slowOnly=true&service=UserService'
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam(defaultValue = "false") boolean slowOnly,
+                             @RequestParam(required = false) String service) {
+        return sqlTreeStream.subscribe(slowOnly, service);
+    }
+
+    /**
+     * 调用树详情
+     */
+    @GetMapping("/{treeId}")
+    public Map<String, Object> get(@PathVariable long treeId) {
+        FrozenSqlTree tree = sqlTreeStore.get(treeId);
+        Map<String, Object> response = new HashMap<>();
+        if (tree == null) {
+            response.put("success", false);
+            response.put("message", "No SQL tree found");
+        } else {
+            response.put("success", true);
+            response.put("data", tree);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,30 @@
+package me.cowra.demo.sql_tree.datasource;
+
+import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * 为所有 DataSource 包装连接池等待计时
+ * Spring Boot 的连接池指标、健康检查会通过 DelegatingDataSource 找到原始连接池, 不受影响.
+ */
+@Configuration(proxyBeanMethods = false)
+public class DataSourceInstrumentationConfig {
+
+    @Bean
+    public static BeanPostProcessor poolWaitTrackingPostProcessor(ObjectProvider<SqlCallTreeContext> sqlCallTreeContext) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof PoolWaitTrackingDataSource)) {
+                    return new PoolWaitTrackingDataSource((DataSource) bean, sqlCallTreeContext);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,95 @@
+package me.cowra.demo.sql_tree.datasource;
+
+import lombok.Data;
+import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 记录从连接池获取连接的等待时间
+ * 每次等待归属到当前SQL节点和Service调用上, 使"慢SQL"中的排队时间可以与语句本身的执行时间区分开.
+ */
+public class PoolWaitTrackingDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private final ObjectProvider<SqlCallTreeContext> sqlCallTreeContext;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public PoolWaitTrackingDataSource(DataSource targetDataSource, ObjectProvider<SqlCallTreeContext> sqlCallTreeContext) {
+        super(targetDataSource);
+        this.sqlCallTreeContext = sqlCallTreeContext;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection();
+        } finally {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection(username, password);
+        } finally {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 包装后原始连接池的 close 不会再被 Spring 推断为销毁方法, 这里显式转发
+     */
+    @Override
+    public void close() throws Exception {
+        DataSource target = getTargetDataSource();
+        if (target instanceof AutoCloseable) {
+            ((AutoCloseable) target).close();
+        }
+    }
+
+    private void record(long waitNanos) {
+        acquisitions.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        SqlCallTreeContext context = sqlCallTreeContext.getIfAvailable();
+        if (context != null) {
+            context.recordConnectionWait(waitNanos);
+        }
+    }
+
+    /**
+     * 获取等待统计快照
+     */
+    public WaitStatistics getWaitStatistics() {
+        WaitStatistics statistics = new WaitStatistics();
+        long count = acquisitions.get();
+        long total = totalWaitNanos.get();
+        statistics.setAcquisitions(count);
+        statistics.setTotalWaitTime(total / 1_000L);
+        statistics.setMaxWaitTime(maxWaitNanos.get() / 1_000L);
+        statistics.setAverageWaitTime(count > 0 ? total / 1_000.0 / count : 0.0);
+        return statistics;
+    }
+
+    /**
+     * 连接获取等待统计(微秒)
+     */
+    @Data
+    public static class WaitStatistics {
+        private long acquisitions;
+        private long totalWaitTime;
+        private long maxWaitTime;
+        private double averageWaitTime;
+    }
+}
@@ -0,0 +1,79 @@
+package me.cowra.demo.sql_tree.datasource;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * 读写路由的线程上下文
+ * intent: 当前语句是读还是写, 由 {@link ReadWriteRoutingInterceptor} 在 Executor 层设置;
+ * target: 本线程最近一次实际获取连接的目标, 由 {@link ReadWriteRoutingDataSource} 设置, 供调用树记录;
+ * sticky: 同一请求中发生过写操作后, 后续读也走主库(读己之写), 保存在请求属性中.
+ */
+public final class ReadWriteRouting {
+
+    public enum Intent {
+        READ, WRITE
+    }
+
+    public static final String PRIMARY = "primary";
+
+    private static final String STICKY_ATTRIBUTE = ReadWriteRouting.class.getName() + ".STICKY";
+
+    private static final ThreadLocal<Intent> INTENT = new ThreadLocal<>();
+    private static final ThreadLocal<String> TARGET = new ThreadLocal<>();
+
+    private ReadWriteRouting() {
+    }
+
+    static Intent intent() {
+        return INTENT.get();
+    }
+
+    /**
+     * 设置当前语句的读写意图
+     * @return 之前的意图, 用于嵌套调用后恢复
+     */
+    static Intent setIntent(Intent intent) {
+        Intent previous = INTENT.get();
+        if (intent == null) {
+            INTENT.remove();
+        } else {
+            INTENT.set(intent);
+        }
+        return previous;
+    }
+
+    /**
+     * 本线程最近一次获取连接的目标数据源, 未启用路由时为 null
+     */
+    public static String currentTarget() {
+        return TARGET.get();
+    }
+
+    static void setCurrentTarget(String target) {
+        TARGET.set(target);
+    }
+
+    /**
+     * 清除本线程的路由状态, 在请求结束时调用
+     */
+    public static void reset() {
+        INTENT.remove();
+        TARGET.remove();
+    }
+
+    /**
+     * 当前请求是否已发生写操作
+     */
+    static boolean isSticky() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes != null && attributes.getAttribute(STICKY_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null;
+    }
+
+    static void markSticky() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.setAttribute(STICKY_ATTRIBUTE, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package me.cowra.demo.sql_tree.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读写分离配置, sql-tree.routing.enabled=true 时生效
+ * 主库沿用 spring.datasource.* (含 spring.datasource.hikari.*), 副本在 sql-tree.routing.replicas 中配置.
+ * 本地可用 replicas profile 以两个 H2 内存库(主库 + 一个副本)验证.
+ */
+@Slf4j
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "sql-tree.routing.enabled", havingValue = "true")
+@EnableConfigurationProperties(ReadWriteRoutingConfig.RoutingProperties.class)
+public class ReadWriteRoutingConfig {
+
+    @Bean
+    @Primary
+    public ReadWriteRoutingDataSource dataSource(DataSourceProperties dataSourceProperties,
+                                                 RoutingProperties routingProperties,
+                                                 Environment environment) {
+        HikariDataSource primary = dataSourceProperties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < routingProperties.getReplicas().size(); i++) {
+            Replica replica = routingProperties.getReplicas().get(i);
+            String name = replica.getName() != null ? replica.getName() : "replica-" + (i + 1);
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(replica.getUrl())
+                    .username(replica.getUsername())
+                    .password(replica.getPassword())
+                    .driverClassName(replica.getDriverClassName())
+                    .build();
+            dataSource.setPoolName(name);
+            dataSource.setMaximumPoolSize(replica.getMaximumPoolSize());
+            dataSource.setReadOnly(true);
+            if (routingProperties.isInitializeReplicas()) {
+                initialize(dataSource);
+            }
+            replicas.put(name, dataSource);
+        }
+
+        log.info("Read/write routing enabled: primary={}, replicas={}, strategy={}",
+                dataSourceProperties.getUrl(), replicas.keySet(), routingProperties.getStrategy());
+        return new ReadWriteRoutingDataSource(primary, replicas, routingProperties.getStrategy());
+    }
+
+    /**
+     * 替代自动配置的事务管理器, 使只读事务的连接路由到副本
+     */
+    @Bean
+    public ReadWriteRoutingTransactionManager transactionManager(DataSource dataSource,
+                                                                 ObjectProvider<TransactionManagerCustomizers> customizers) {
+        ReadWriteRoutingTransactionManager transactionManager = new ReadWriteRoutingTransactionManager(dataSource);
+        customizers.ifAvailable(c -> c.customize(transactionManager));
+        return transactionManager;
+    }
+
+    @Bean
+    public ReadWriteRoutingInterceptor readWriteRoutingInterceptor(RoutingProperties routingProperties) {
+        return new ReadWriteRoutingInterceptor(routingProperties.isStickyAfterWrite());
+    }
+
+    /**
+     * 本地副本没有复制链路, 用与主库相同的脚本初始化
+     */
+    private void initialize(DataSource dataSource) {
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(
+                new ClassPathResource("schema.sql"), new ClassPathResource("data.sql"));
+        populator.setSqlScriptEncoding("UTF-8");
+        DatabasePopulatorUtils.execute(populator, dataSource);
+    }
+
+    @Data
+    @ConfigurationProperties(prefix = "sql-tree.routing")
+    public static class RoutingProperties {
+        private boolean enabled = false;    //* 是否启用读写分离
+        private ReadWriteRoutingDataSource.Strategy strategy = ReadWriteRoutingDataSource.Strategy.ROUND_ROBIN;  //* 副本选择策略
+        private boolean stickyAfterWrite = true;    //* 同一请求写操作之后的读走主库
+        private boolean initializeReplicas = false; //* 启动时用 schema.sql/data.sql 初始化副本(仅用于本地验证)
+        private List<Replica> replicas = new ArrayList<>();
+    }
+
+    @Data
+    public static class Replica {
+        private String name;
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+        private int maximumPoolSize = 10;
+    }
+}
@@ -0,0 +1,115 @@
+package me.cowra.demo.sql_tree.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离路由数据源
+ * 读语句(不在写事务中, 且当前请求未发生写操作)分发到只读副本, 其余全部走主库.
+ * 事务连接在事务开始时获取, 只读事务的意图由 {@link ReadWriteRoutingTransactionManager} 设置.
+ * 副本选择策略: ROUND_ROBIN 轮询; LEAST_PENDING 选择 活动连接 + 等待线程 最少的副本(依赖 Hikari 连接池指标).
+ */
+@Slf4j
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    public enum Strategy {
+        ROUND_ROBIN, LEAST_PENDING
+    }
+
+    private final DataSource primary;
+    private final Map<String, DataSource> replicas;
+    private final List<String> replicaKeys;
+    private final Strategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReadWriteRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, Strategy strategy) {
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableMap(new LinkedHashMap<>(replicas));
+        this.replicaKeys = List.copyOf(replicas.keySet());
+        this.strategy = strategy;
+
+        Map<Object, Object> targets = new HashMap<>(replicas);
+        targets.put(ReadWriteRouting.PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String key = route();
+        ReadWriteRouting.setCurrentTarget(key);
+        return key;
+    }
+
+    private String route() {
+        if (replicaKeys.isEmpty() || ReadWriteRouting.intent() != ReadWriteRouting.Intent.READ) {
+            return ReadWriteRouting.PRIMARY;
+        }
+        //* 写事务中的读必须看到本事务的修改
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return ReadWriteRouting.PRIMARY;
+        }
+        if (ReadWriteRouting.isSticky()) {
+            return ReadWriteRouting.PRIMARY;
+        }
+        return strategy == Strategy.LEAST_PENDING ? leastPending() : roundRobin();
+    }
+
+    private String roundRobin() {
+        return replicaKeys.get(Math.floorMod(next.getAndIncrement(), replicaKeys.size()));
+    }
+
+    private String leastPending() {
+        String best = null;
+        int bestPending = Integer.MAX_VALUE;
+        for (String key : replicaKeys) {
+            DataSource replica = replicas.get(key);
+            if (!(replica instanceof HikariDataSource) || ((HikariDataSource) replica).getHikariPoolMXBean() == null) {
+                return roundRobin();
+            }
+            HikariPoolMXBean pool = ((HikariDataSource) replica).getHikariPoolMXBean();
+            int pending = pool.getActiveConnections() + pool.getThreadsAwaitingConnection();
+            if (pending < bestPending) {
+                best = key;
+                bestPending = pending;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 所有目标数据源(主库在前), 供监控端点展示各连接池状态
+     */
+    public Map<String, DataSource> getTargets() {
+        Map<String, DataSource> targets = new LinkedHashMap<>();
+        targets.put(ReadWriteRouting.PRIMARY, primary);
+        targets.putAll(replicas);
+        return targets;
+    }
+
+    @Override
+    public void close() {
+        for (DataSource dataSource : getTargets().values()) {
+            if (dataSource instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) dataSource).close();
+                } catch (Exception e) {
+                    log.warn("Failed to close data source", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package me.cowra.demo.sql_tree.datasource;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * 根据 SqlCommandType 设置读写意图
+ * 与 SqlInterceptor 分开, 使路由不受SQL追踪开关影响. 写操作同时标记当前请求为"读己之写".
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "query", args = {
+                MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class
+        }),
+        @Signature(type = Executor.class, method = "query", args = {
+                MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class
+        }),
+        @Signature(type = Executor.class, method = "update", args = {
+                MappedStatement.class, Object.class
+        })
+})
+public class ReadWriteRoutingInterceptor implements Interceptor {
+
+    private final boolean stickyAfterWrite;
+
+    public ReadWriteRoutingInterceptor(boolean stickyAfterWrite) {
+        this.stickyAfterWrite = stickyAfterWrite;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        MappedStatement mappedStatement = (MappedStatement) invocation.getArgs()[0];
+        boolean read = mappedStatement.getSqlCommandType() == SqlCommandType.SELECT;
+        if (!read && stickyAfterWrite) {
+            ReadWriteRouting.markSticky();
+        }
+
+        ReadWriteRouting.Intent previous = ReadWriteRouting.setIntent(
+                read ? ReadWriteRouting.Intent.READ : ReadWriteRouting.Intent.WRITE);
+        try {
+            return invocation.proceed();
+        } finally {
+            ReadWriteRouting.setIntent(previous);
+        }
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        return target instanceof Executor ? Plugin.wrap(target, this) : target;
+    }
+}
@@ -0,0 +1,30 @@
+package me.cowra.demo.sql_tree.datasource;
+
+import org.springframework.jdbc.support.JdbcTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import javax.sql.DataSource;
+
+/**
+ * 按事务的只读属性路由事务连接
+ * 事务管理器在 doBegin 时(事务中任何语句之前)就获取连接, 之后整个事务固定在该连接上;
+ * 此时既没有语句的读写意图, 事务同步状态(isCurrentTransactionReadOnly)也尚未设置, 路由数据源只能选主库.
+ * 这里在获取连接期间按 TransactionDefinition.isReadOnly() 设置意图, 只读事务因此可以落到副本上.
+ */
+public class ReadWriteRoutingTransactionManager extends JdbcTransactionManager {
+
+    public ReadWriteRoutingTransactionManager(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        ReadWriteRouting.Intent previous = ReadWriteRouting.setIntent(
+                definition.isReadOnly() ? ReadWriteRouting.Intent.READ : ReadWriteRouting.Intent.WRITE);
+        try {
+            super.doBegin(transaction, definition);
+        } finally {
+            ReadWriteRouting.setIntent(previous);
+        }
+    }
+}
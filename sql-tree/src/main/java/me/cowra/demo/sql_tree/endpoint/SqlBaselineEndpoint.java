@@ -0,0 +1,26 @@
+package me.cowra.demo.sql_tree.endpoint;
+
+import lombok.RequiredArgsConstructor;
+import me.cowra.demo.sql_tree.stats.SqlBaselines;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 慢SQL基线端点
+ * GET /actuator/sqlbaselines  每个SQL指纹的样本数、耗时 EWMA 与分位数估计(微秒)
+ */
+@RequiredArgsConstructor
+@Component
+@Endpoint(id = "sqlbaselines")
+public class SqlBaselineEndpoint {
+
+    private final SqlBaselines sqlBaselines;
+
+    @ReadOperation
+    public Map<String, SqlBaselines.BaselineSnapshot> baselines() {
+        return sqlBaselines.snapshot();
+    }
+}
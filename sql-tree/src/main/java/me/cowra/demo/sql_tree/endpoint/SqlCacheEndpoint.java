@@ -0,0 +1,40 @@
+package me.cowra.demo.sql_tree.endpoint;
+
+import lombok.RequiredArgsConstructor;
+import me.cowra.demo.sql_tree.stats.RepeatedReadTracker;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存候选端点, 基于跨请求的重复读分析
+ * GET    /actuator/sqlcache  按可节省时间排序的候选语句, 每个 TTL 下的命中率、脏读率与建议
+ * DELETE /actuator/sqlcache  清空统计
+ * 分析默认关闭, 以 sql-tree.repeated-reads.enabled=true 开启(开销见 {@link RepeatedReadTracker})
+ */
+@RequiredArgsConstructor
+@Component
+@Endpoint(id = "sqlcache")
+public class SqlCacheEndpoint {
+
+    private final RepeatedReadTracker repeatedReadTracker;
+
+    @ReadOperation
+    public Map<String, Object> candidates() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", repeatedReadTracker.isEnabled());
+        result.put("windowMinutes", repeatedReadTracker.getWindowMinutes());
+        result.put("candidates", repeatedReadTracker.candidates());
+        return result;
+    }
+
+    @DeleteOperation
+    public Map<String, Object> clear() {
+        repeatedReadTracker.clear();
+        return candidates();
+    }
+}
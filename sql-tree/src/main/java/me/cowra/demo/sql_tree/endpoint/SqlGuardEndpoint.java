@@ -0,0 +1,26 @@
+package me.cowra.demo.sql_tree.endpoint;
+
+import lombok.RequiredArgsConstructor;
+import me.cowra.demo.sql_tree.mapper.QueryGuard;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 查询保护端点
+ * GET /actuator/sqlguard  每个语句的熔断状态、窗口内失败率/慢调用率、隔离舱占用与拒绝次数
+ */
+@RequiredArgsConstructor
+@Component
+@Endpoint(id = "sqlguard")
+public class SqlGuardEndpoint {
+
+    private final QueryGuard queryGuard;
+
+    @ReadOperation
+    public Map<String, Map<String, Object>> guards() {
+        return queryGuard.snapshot();
+    }
+}
@@ -0,0 +1,70 @@
+package me.cowra.demo.sql_tree.endpoint;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.RequiredArgsConstructor;
+import me.cowra.demo.sql_tree.datasource.PoolWaitTrackingDataSource;
+import me.cowra.demo.sql_tree.datasource.ReadWriteRoutingDataSource;
+import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
+import me.cowra.demo.sql_tree.service.DatabaseBulkhead;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SQL统计与连接池端点
+ * GET /actuator/sqlpool  全局SQL统计, 以及每个数据源的连接池饱和度(active/idle/pending)和获取连接的等待统计,
+ *                        异步接口的数据库工作线程池(隔离舱)的使用情况
+ */
+@RequiredArgsConstructor
+@Component
+@Endpoint(id = "sqlpool")
+public class SqlPoolEndpoint {
+
+    private final SqlCallTreeContext sqlCallTreeContext;
+    private final Map<String, DataSource> dataSources;
+    private final DatabaseBulkhead databaseBulkhead;
+
+    @ReadOperation
+    public Map<String, Object> pool() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("statistics", sqlCallTreeContext.getStatistics());
+
+        Map<String, Object> pools = new LinkedHashMap<>();
+        dataSources.forEach((name, dataSource) -> pools.put(name, describe(dataSource)));
+        result.put("dataSources", pools);
+        result.put("bulkhead", databaseBulkhead.getStatistics());
+        return result;
+    }
+
+    private Map<String, Object> describe(DataSource dataSource) {
+        Map<String, Object> pool = new LinkedHashMap<>();
+        HikariDataSource hikari = DataSourceUnwrapper.unwrap(dataSource, HikariConfigMXBean.class, HikariDataSource.class);
+        if (hikari != null && hikari.getHikariPoolMXBean() != null) {
+            HikariPoolMXBean mxBean = hikari.getHikariPoolMXBean();
+            pool.put("pool", hikari.getPoolName());
+            pool.put("active", mxBean.getActiveConnections());
+            pool.put("idle", mxBean.getIdleConnections());
+            pool.put("pending", mxBean.getThreadsAwaitingConnection());
+            pool.put("total", mxBean.getTotalConnections());
+            pool.put("max", hikari.getMaximumPoolSize());
+        }
+        if (dataSource instanceof PoolWaitTrackingDataSource) {
+            pool.put("wait", ((PoolWaitTrackingDataSource) dataSource).getWaitStatistics());
+        }
+        ReadWriteRoutingDataSource routing = DataSourceUnwrapper.unwrap(dataSource, ReadWriteRoutingDataSource.class);
+        if (routing != null) {
+            //* 读写分离时分别展示主库与各副本的连接池
+            Map<String, Object> targets = new LinkedHashMap<>();
+            routing.getTargets().forEach((key, target) -> targets.put(key, describe(target)));
+            pool.put("targets", targets);
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,26 @@
+package me.cowra.demo.sql_tree.endpoint;
+
+import lombok.RequiredArgsConstructor;
+import me.cowra.demo.sql_tree.stats.ResultSizeStatistics;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 查询结果大小端点
+ * GET /actuator/sqlresults  每个SQL指纹的行数分布、最大行数与估算字节数
+ */
+@RequiredArgsConstructor
+@Component
+@Endpoint(id = "sqlresults")
+public class SqlResultSizeEndpoint {
+
+    private final ResultSizeStatistics resultSizeStatistics;
+
+    @ReadOperation
+    public Map<String, ResultSizeStatistics.Snapshot> resultSizes() {
+        return resultSizeStatistics.snapshot();
+    }
+}
@@ -0,0 +1,40 @@
+package me.cowra.demo.sql_tree.endpoint;
+
+import lombok.RequiredArgsConstructor;
+import me.cowra.demo.sql_tree.stats.HeavyHitterTracker;
+import me.cowra.demo.sql_tree.stats.SpaceSavingSketch;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 热点SQL端点
+ * GET /actuator/sqltopk       所有窗口(1/5/15分钟)
+ * GET /actuator/sqltopk/{n}   最近 n 分钟
+ */
+@RequiredArgsConstructor
+@Component
+@Endpoint(id = "sqltopk")
+public class SqlTopKEndpoint {
+
+    private final HeavyHitterTracker heavyHitterTracker;
+
+    @ReadOperation
+    public Map<String, Map<String, List<SpaceSavingSketch.Entry>>> topK() {
+        Map<String, Map<String, List<SpaceSavingSketch.Entry>>> result = new LinkedHashMap<>();
+        for (int window : HeavyHitterTracker.WINDOWS) {
+            result.put(window + "m", heavyHitterTracker.topK(window));
+        }
+        return result;
+    }
+
+    @ReadOperation
+    public Map<String, List<SpaceSavingSketch.Entry>> topK(@Selector int minutes) {
+        return heavyHitterTracker.topK(minutes);
+    }
+}
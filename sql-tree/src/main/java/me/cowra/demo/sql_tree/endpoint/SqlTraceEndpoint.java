@@ -0,0 +1,88 @@
+package me.cowra.demo.sql_tree.endpoint;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
+import me.cowra.demo.sql_tree.store.SqlTreeStore;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 追踪控制端点, 运行期调整追踪开关、采样率、慢SQL阈值与各项上限, 不需要重启
+ * GET    /actuator/sqltrace  当前设置与全局统计
+ * POST   /actuator/sqltrace  修改设置, 只需给出要改的项, 如 {"traceSampleRate": 1.0, "slowSqlThreshold": 200}
+ * DELETE /actuator/sqltrace  清零全局统计
+ * 修改只在本实例内存中生效, 重启后恢复为 sql-tree 配置块的值.
+ * 写操作没有鉴权: 能访问它的人可以开启参数记录(暴露绑定值)、调整采样率与上限、清零统计.
+ * 因此默认不经 HTTP 暴露, 以 admin profile(application-admin.yml)在只监听 127.0.0.1 的管理端口上开放;
+ * 若要对外开放, 须先为 /actuator/sqltrace 配置鉴权.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+@Endpoint(id = "sqltrace")
+public class SqlTraceEndpoint {
+
+    private final SqlCallTreeContext sqlCallTreeContext;
+    private final SqlTreeStore sqlTreeStore;
+
+    @ReadOperation
+    public Map<String, Object> settings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("traceEnabled", sqlCallTreeContext.isTraceEnabledGlobally());
+        settings.put("traceSampleRate", sqlCallTreeContext.getTraceSampleRate());
+        settings.put("slowSqlThreshold", sqlCallTreeContext.getSlowSqlThresholdMicros() / 1_000.0);
+        settings.put("maxDepth", sqlCallTreeContext.getMaxDepth());
+        settings.put("maxSessions", sqlTreeStore.getMaxSessions());
+        settings.put("recordParameters", sqlCallTreeContext.isRecordParameters());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("settings", settings);
+        result.put("statistics", sqlCallTreeContext.getStatistics());
+        return result;
+    }
+
+    /**
+     * @param slowSqlThreshold 慢SQL阈值(毫秒), 可以是小数
+     */
+    @WriteOperation
+    public Map<String, Object> update(@Nullable Boolean traceEnabled, @Nullable Double traceSampleRate,
+                                      @Nullable Double slowSqlThreshold, @Nullable Integer maxDepth,
+                                      @Nullable Integer maxSessions, @Nullable Boolean recordParameters) {
+        log.info("Updating SQL trace settings: traceEnabled={}, traceSampleRate={}, slowSqlThreshold={}, maxDepth={}, " +
+                        "maxSessions={}, recordParameters={}",
+                traceEnabled, traceSampleRate, slowSqlThreshold, maxDepth, maxSessions, recordParameters);
+        if (traceEnabled != null) {
+            sqlCallTreeContext.setTraceEnabled(traceEnabled);
+        }
+        if (traceSampleRate != null) {
+            sqlCallTreeContext.setTraceSampleRate(traceSampleRate);
+        }
+        if (slowSqlThreshold != null) {
+            sqlCallTreeContext.setSlowSqlThresholdMicros(Math.max(0, Math.round(slowSqlThreshold * 1_000)));
+        }
+        if (maxDepth != null) {
+            sqlCallTreeContext.setMaxDepth(maxDepth);
+        }
+        if (maxSessions != null) {
+            sqlTreeStore.resize(maxSessions);
+        }
+        if (recordParameters != null) {
+            sqlCallTreeContext.setRecordParameters(recordParameters);
+        }
+        return settings();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> resetStatistics() {
+        sqlCallTreeContext.resetStatistics();
+        return settings();
+    }
+}
@@ -1,6 +1,10 @@
 package me.cowra.demo.sql_tree.mapper;
 
+import me.cowra.demo.sql_tree.model.OrderItemRecord;
+import me.cowra.demo.sql_tree.model.OrderRecord;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.springframework.stereotype.Repository;
@@ -30,4 +34,21 @@ public interface OrderMapper {
             WHERE order_id = #{orderId}
             """)
     Map<String, Object> getOrderStatistics(@Param("orderId") Long orderId);
+
+    /**
+     * 插入订单并回填主键
+     * BATCH 执行器下主键在 flushStatements 之后才可用
+     */
+    @Insert("""
+            INSERT INTO orders (user_id, order_no, total_amount, status)
+            VALUES (#{userId}, #{orderNo}, #{totalAmount}, #{status})
+            """)
+    @Options(useGeneratedKeys = true, keyProperty = "id", keyColumn = "id")
+    int insertOrder(OrderRecord order);
+
+    @Insert("""
+            INSERT INTO order_items (order_id, product_name, quantity, price)
+            VALUES (#{orderId}, #{productName}, #{quantity}, #{price})
+            """)
+    int insertOrderItem(OrderItemRecord item);
 }
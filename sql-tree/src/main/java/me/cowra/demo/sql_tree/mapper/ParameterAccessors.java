@@ -0,0 +1,160 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQL参数访问器缓存
+ * 按 MappedStatement + 参数类型 将每个 ParameterMapping 的取值方式解析一次并缓存,
+ * 之后的取值只是一次 Map.get 或一次 MethodHandle 调用, 不再每次创建 MetaObject 做反射查找.
+ * 取值顺序与 MyBatis DefaultParameterHandler 一致: 额外参数 -> null -> 简单类型 -> 属性.
+ */
+@Slf4j
+class ParameterAccessors {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final Map<MappedStatement, Map<Class<?>, CompiledParameters>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * 提取SQL参数
+     * @param mappedStatement 语句
+     * @param boundSql BoundSql对象
+     * @param parameter 参数对象
+     * @return 参数列表
+     */
+    List<Object> extract(MappedStatement mappedStatement, BoundSql boundSql, Object parameter) {
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        if (parameterMappings == null || parameterMappings.isEmpty()) {
+            return new ArrayList<>(0);
+        }
+
+        Accessor[] accessors = null;
+        if (parameter != null) {
+            accessors = cache.computeIfAbsent(mappedStatement, ms -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(parameter.getClass(),
+                            type -> new CompiledParameters(mappedStatement.getConfiguration(), type))
+                    .accessors(parameterMappings);
+        }
+
+        List<Object> parameters = new ArrayList<>(parameterMappings.size());
+        for (int i = 0; i < parameterMappings.size(); i++) {
+            String propertyName = parameterMappings.get(i).getProperty();
+            Object value;
+            if (boundSql.hasAdditionalParameter(propertyName)) {
+                //! 不在原始参数对象（parameter）中直接存在，但被 MyBatis 动态添加到 BoundSql中的额外参数
+                //! 比如 <foreach> 标签生成的参数
+                value = boundSql.getAdditionalParameter(propertyName);
+            } else if (accessors == null) {
+                value = null;
+            } else {
+                value = accessors[i].get(parameter);
+            }
+            parameters.add(value);
+        }
+        return parameters;
+    }
+
+    @FunctionalInterface
+    interface Accessor {
+        Object get(Object parameter);
+    }
+
+    /**
+     * 某个参数类型下的访问器
+     * 静态SQL每次返回同一个 ParameterMapping 列表实例, 命中时直接复用编译好的数组;
+     * 动态SQL的列表每次都不同, 按属性名从缓存中组装.
+     */
+    private static final class CompiledParameters {
+        private final Configuration configuration;
+        private final Class<?> type;
+        private final Map<String, Accessor> byProperty = new ConcurrentHashMap<>();
+        private volatile Snapshot last;
+
+        CompiledParameters(Configuration configuration, Class<?> type) {
+            this.configuration = configuration;
+            this.type = type;
+        }
+
+        Accessor[] accessors(List<ParameterMapping> parameterMappings) {
+            Snapshot snapshot = last;
+            if (snapshot != null && snapshot.mappings == parameterMappings) {
+                return snapshot.accessors;
+            }
+            Accessor[] accessors = new Accessor[parameterMappings.size()];
+            for (int i = 0; i < accessors.length; i++) {
+                accessors[i] = byProperty.computeIfAbsent(parameterMappings.get(i).getProperty(), this::compile);
+            }
+            last = new Snapshot(parameterMappings, accessors);
+            return accessors;
+        }
+
+        private Accessor compile(String property) {
+            if (configuration.getTypeHandlerRegistry().hasTypeHandler(type)) {
+                //* 单个简单类型参数, 取值就是参数本身
+                return parameter -> parameter;
+            }
+            boolean simpleProperty = property.indexOf('.') < 0 && property.indexOf('[') < 0;
+            if (simpleProperty && Map.class.isAssignableFrom(type)) {
+                //* @Param 产生的 ParamMap 以及普通 Map 参数
+                return parameter -> ((Map<?, ?>) parameter).get(property);
+            }
+            if (simpleProperty) {
+                MethodHandle getter = findGetter(property);
+                if (getter != null) {
+                    return parameter -> {
+                        try {
+                            return getter.invokeExact(parameter);
+                        } catch (Throwable t) {
+                            throw new IllegalStateException("Failed to read property " + property, t);
+                        }
+                    };
+                }
+            }
+            //* 嵌套属性、字段访问等其他情况交给 MetaObject, 但是否走这条路径同样只判断一次
+            return parameter -> {
+                MetaObject metaObject = configuration.newMetaObject(parameter);
+                return metaObject.hasGetter(property) ? metaObject.getValue(property) : null;
+            };
+        }
+
+        private MethodHandle findGetter(String property) {
+            String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+            for (String name : new String[]{"get" + suffix, "is" + suffix}) {
+                try {
+                    Method method = type.getMethod(name);
+                    if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                        return MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE);
+                    }
+                } catch (NoSuchMethodException | IllegalAccessException e) {
+                    log.trace("No accessible getter {} on {}", name, type.getName());
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Snapshot {
+        private final List<ParameterMapping> mappings;
+        private final Accessor[] accessors;
+
+        Snapshot(List<ParameterMapping> mappings, Accessor[] accessors) {
+            this.mappings = mappings;
+            this.accessors = accessors;
+        }
+    }
+}
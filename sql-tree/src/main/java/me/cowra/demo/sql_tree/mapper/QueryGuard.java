@@ -0,0 +1,368 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按语句(MappedStatement)的查询超时、隔离舱与熔断
+ * 规则按 语句ID(Mapper全限定名.方法名) > Mapper 全限定名 > 默认值 的顺序匹配, 每个语句第一次执行时解析并缓存.
+ * 隔离舱: 限制同一语句的并发执行数, 某类语句变慢时只占用有限的 Tomcat 线程和连接, 其他接口不受拖累.
+ * 熔断: 最近 window-size 次调用中失败率或慢调用率超过阈值时打开, 期间直接拒绝; open-duration 后半开,
+ * 放行 half-open-calls 次试探调用, 全部正常则关闭, 否则重新打开. 默认关闭, 按语句在规则中开启(breaker: true).
+ * 只有超时、瞬时错误和连接类错误({@link #isBreakerFailure(Throwable)})计为失败; 主键冲突、约束违反、SQL语法错误、
+ * 死锁等是调用方或数据本身的问题, 熔断只会误伤同一语句的其他调用方.
+ * 被拒绝的语句抛出 {@link QueryRejectedException}, 并在调用树中记录为一个带 rejection 的节点.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class QueryGuard {
+
+    public enum Rejection {
+        CIRCUIT_OPEN, BULKHEAD_FULL
+    }
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final QueryGuardProperties properties;
+
+    private final Map<String, StatementGuard> guards = new ConcurrentHashMap<>();
+
+    /**
+     * 当前线程正在执行的受控语句, 供 StatementHandler 准备阶段设置超时; 嵌套查询时保存外层
+     */
+    private final ThreadLocal<Permit> current = new ThreadLocal<>();
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 执行语句前申请许可
+     * @return 许可, 执行结束后必须调用 {@link Permit#release(long, boolean)}
+     * @throws QueryRejectedException 熔断打开或隔离舱已满
+     */
+    Permit acquire(MappedStatement mappedStatement) {
+        StatementGuard guard = guards.computeIfAbsent(mappedStatement.getId(), this::createGuard);
+        guard.calls.increment();
+        if (!guard.allow()) {
+            guard.rejectedOpen.increment();
+            throw new QueryRejectedException(Rejection.CIRCUIT_OPEN, guard.statementId,
+                    "Circuit open for " + guard.statementId);
+        }
+        if (guard.bulkhead != null && !tryEnter(guard)) {
+            guard.cancelTrial();
+            guard.rejectedBulkhead.increment();
+            throw new QueryRejectedException(Rejection.BULKHEAD_FULL, guard.statementId,
+                    "Too many concurrent executions of " + guard.statementId + " (max " + guard.rule.getMaxConcurrent() + ")");
+        }
+        Permit permit = new Permit(guard, current.get());
+        current.set(permit);
+        return permit;
+    }
+
+    /**
+     * 执行异常是否计为熔断失败: 沿异常链(PersistenceException -> SQLException -> ...)查找超时(SQLTimeoutException)、
+     * 瞬时错误(SQLTransientException)和连接类错误(SQLRecoverableException).
+     * 死锁/序列化失败(SQLTransactionRollbackException)虽属瞬时错误, 是并发写冲突而非数据库故障, 不计入.
+     */
+    static boolean isBreakerFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause() != cause ? cause.getCause() : null) {
+            if (cause instanceof SQLTransactionRollbackException) {
+                return false;
+            }
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 当前线程正在执行的语句的超时(秒), 0 表示不设置
+     */
+    int currentTimeout() {
+        Permit permit = current.get();
+        return permit != null ? permit.guard.rule.getTimeout() : 0;
+    }
+
+    private boolean tryEnter(StatementGuard guard) {
+        long maxWait = guard.rule.getMaxWait();
+        if (maxWait <= 0) {
+            return guard.bulkhead.tryAcquire();
+        }
+        try {
+            return guard.bulkhead.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private StatementGuard createGuard(String statementId) {
+        Rule rule = properties.getStatements().get(statementId);
+        if (rule == null) {
+            int dot = statementId.lastIndexOf('.');
+            rule = dot > 0 ? properties.getStatements().get(statementId.substring(0, dot)) : null;
+        }
+        Rule resolved = new Rule();
+        resolved.setTimeout(rule != null && rule.getTimeout() != null ? rule.getTimeout() : properties.getTimeout());
+        resolved.setMaxConcurrent(rule != null && rule.getMaxConcurrent() != null ? rule.getMaxConcurrent() : properties.getMaxConcurrent());
+        resolved.setMaxWait(rule != null && rule.getMaxWait() != null ? rule.getMaxWait() : properties.getMaxWait());
+        resolved.setBreaker(rule != null && rule.getBreaker() != null ? rule.getBreaker() : properties.getBreaker().isEnabled());
+        resolved.setSlowCallThreshold(rule != null && rule.getSlowCallThreshold() != null
+                ? rule.getSlowCallThreshold() : properties.getBreaker().getSlowCallThreshold());
+        log.debug("Query guard for {}: {}", statementId, resolved);
+        return new StatementGuard(statementId, resolved, properties.getBreaker());
+    }
+
+    /**
+     * 各语句的熔断与隔离舱状态
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        guards.values().stream()
+                .sorted((a, b) -> a.statementId.compareTo(b.statementId))
+                .forEach(guard -> result.put(guard.statementId, guard.describe()));
+        return result;
+    }
+
+    /**
+     * 一次受控执行
+     */
+    final class Permit {
+        private final StatementGuard guard;
+        private final Permit outer;
+        private boolean released;
+
+        private Permit(StatementGuard guard, Permit outer) {
+            this.guard = guard;
+            this.outer = outer;
+        }
+
+        /**
+         * @param elapsedNanos 执行耗时
+         * @param failed 是否失败
+         */
+        void release(long elapsedNanos, boolean failed) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (guard.bulkhead != null) {
+                guard.bulkhead.release();
+            }
+            long slowThreshold = guard.rule.getSlowCallThreshold();
+            guard.record(failed, slowThreshold > 0 && elapsedNanos > TimeUnit.MILLISECONDS.toNanos(slowThreshold));
+            if (outer != null) {
+                current.set(outer);
+            } else {
+                current.remove();
+            }
+        }
+    }
+
+    /**
+     * 单个语句的隔离舱和熔断器
+     * 熔断器状态变化很少, 用对象锁保护即可, 未触发熔断时每次调用只有一次无竞争加锁
+     */
+    private static final class StatementGuard {
+        private final String statementId;
+        private final Rule rule;
+        private final BreakerProperties breaker;
+        private final Semaphore bulkhead;
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder rejectedOpen = new LongAdder();
+        private final LongAdder rejectedBulkhead = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        //* 滑动窗口: 最近 window-size 次调用的结果
+        private final boolean[] windowFailed;
+        private final boolean[] windowSlow;
+        private int windowIndex;
+        private int windowCount;
+        private int windowFailures;
+        private int windowSlows;
+
+        private State state = State.CLOSED;
+        private long openedNanos;
+        private int trialsLeft;
+        private int trialSuccesses;
+        private long openCount;
+
+        StatementGuard(String statementId, Rule rule, BreakerProperties breaker) {
+            this.statementId = statementId;
+            this.rule = rule;
+            this.breaker = breaker;
+            this.bulkhead = rule.getMaxConcurrent() > 0 ? new Semaphore(rule.getMaxConcurrent()) : null;
+            int window = Math.max(1, breaker.getWindowSize());
+            this.windowFailed = new boolean[window];
+            this.windowSlow = new boolean[window];
+        }
+
+        synchronized boolean allow() {
+            if (!rule.getBreaker()) {
+                return true;
+            }
+            switch (state) {
+                case OPEN:
+                    if (System.nanoTime() - openedNanos < TimeUnit.SECONDS.toNanos(breaker.getOpenDuration())) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    trialsLeft = Math.max(1, breaker.getHalfOpenCalls());
+                    trialSuccesses = 0;
+                    log.info("Circuit half-open for {}", statementId);
+                    //* 继续按半开处理
+                case HALF_OPEN:
+                    if (trialsLeft <= 0) {
+                        return false;
+                    }
+                    trialsLeft--;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * 半开状态下的试探调用没有真正执行(被隔离舱拒绝), 归还试探名额
+         */
+        synchronized void cancelTrial() {
+            if (state == State.HALF_OPEN) {
+                trialsLeft++;
+            }
+        }
+
+        synchronized void record(boolean failed, boolean slow) {
+            if (failed) {
+                failures.increment();
+            }
+            if (!rule.getBreaker()) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                if (failed || slow) {
+                    open("trial call " + (failed ? "failed" : "slow"));
+                } else if (++trialSuccesses >= Math.max(1, breaker.getHalfOpenCalls())) {
+                    close();
+                }
+                return;
+            }
+            if (state == State.OPEN) {
+                //* 打开之前已在执行的调用
+                return;
+            }
+
+            if (windowCount == windowFailed.length) {
+                windowFailures -= windowFailed[windowIndex] ? 1 : 0;
+                windowSlows -= windowSlow[windowIndex] ? 1 : 0;
+            } else {
+                windowCount++;
+            }
+            windowFailed[windowIndex] = failed;
+            windowSlow[windowIndex] = slow;
+            windowFailures += failed ? 1 : 0;
+            windowSlows += slow ? 1 : 0;
+            windowIndex = (windowIndex + 1) % windowFailed.length;
+
+            if (windowCount >= breaker.getMinCalls()) {
+                double failureRate = (double) windowFailures / windowCount;
+                double slowRate = (double) windowSlows / windowCount;
+                if (failureRate >= breaker.getFailureRateThreshold()) {
+                    open(String.format("failure rate %.0f%%", failureRate * 100));
+                } else if (rule.getSlowCallThreshold() > 0 && slowRate >= breaker.getSlowCallRateThreshold()) {
+                    open(String.format("slow call rate %.0f%% (> %dms)", slowRate * 100, rule.getSlowCallThreshold()));
+                }
+            }
+        }
+
+        private void open(String reason) {
+            state = State.OPEN;
+            openedNanos = System.nanoTime();
+            openCount++;
+            log.warn("Circuit opened for {}: {}, rejecting for {}s", statementId, reason, breaker.getOpenDuration());
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            windowIndex = 0;
+            windowCount = 0;
+            windowFailures = 0;
+            windowSlows = 0;
+            log.info("Circuit closed for {}", statementId);
+        }
+
+        synchronized Map<String, Object> describe() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("state", state);
+            result.put("calls", calls.sum());
+            result.put("failures", failures.sum());
+            result.put("rejectedOpen", rejectedOpen.sum());
+            result.put("rejectedBulkhead", rejectedBulkhead.sum());
+            result.put("opened", openCount);
+            result.put("windowCalls", windowCount);
+            result.put("windowFailureRate", windowCount > 0 ? (double) windowFailures / windowCount : 0);
+            result.put("windowSlowRate", windowCount > 0 ? (double) windowSlows / windowCount : 0);
+            if (bulkhead != null) {
+                result.put("active", rule.getMaxConcurrent() - bulkhead.availablePermits());
+                result.put("waiting", bulkhead.getQueueLength());
+            }
+            result.put("rule", rule);
+            return result;
+        }
+    }
+
+    /**
+     * 单个语句(或 Mapper)的规则, 未设置的项使用默认值
+     */
+    @Data
+    public static class Rule {
+        private Integer timeout;            //* JDBC 查询超时(秒), 0 表示不设置
+        private Integer maxConcurrent;      //* 最大并发执行数, 0 表示不限制
+        private Long maxWait;               //* 隔离舱已满时的最长等待(毫秒), 0 表示立即拒绝
+        private Long slowCallThreshold;     //* 慢调用阈值(毫秒), 0 表示不按慢调用熔断
+        private Boolean breaker;            //* 是否对该语句熔断
+    }
+
+    @Data
+    public static class BreakerProperties {
+        private boolean enabled = false;    //* 未在规则中设置时是否熔断, 默认只对规则中 breaker: true 的语句熔断
+        private int windowSize = 20;        //* 滑动窗口的调用次数
+        private int minCalls = 10;          //* 窗口内至少有这么多次调用才判断
+        private double failureRateThreshold = 0.5;      //* 失败率阈值
+        private double slowCallRateThreshold = 0.8;     //* 慢调用率阈值
+        private long slowCallThreshold = 0; //* 默认慢调用阈值(毫秒), 0 表示不按慢调用熔断
+        private long openDuration = 30;     //* 打开后多久进入半开(秒)
+        private int halfOpenCalls = 3;      //* 半开状态放行的试探调用数
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.query-guard")
+    public static class QueryGuardProperties {
+        private boolean enabled = true;     //* 是否启用超时/隔离舱/熔断
+        private int timeout = 0;            //* 默认 JDBC 查询超时(秒), 0 表示不设置
+        private int maxConcurrent = 0;      //* 默认最大并发执行数, 0 表示不限制
+        private long maxWait = 0;           //* 默认隔离舱等待(毫秒)
+        private BreakerProperties breaker = new BreakerProperties();
+        private Map<String, Rule> statements = new LinkedHashMap<>();   //* 语句ID或 Mapper 全限定名 -> 规则
+    }
+}
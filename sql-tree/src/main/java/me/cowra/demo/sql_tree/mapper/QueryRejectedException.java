@@ -0,0 +1,19 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import lombok.Getter;
+
+/**
+ * 语句被熔断或隔离舱拒绝, 未发往数据库
+ */
+@Getter
+public class QueryRejectedException extends RuntimeException {
+
+    private final QueryGuard.Rejection rejection;
+    private final String statementId;
+
+    public QueryRejectedException(QueryGuard.Rejection rejection, String statementId, String message) {
+        super(message);
+        this.rejection = rejection;
+        this.statementId = statementId;
+    }
+}
@@ -0,0 +1,124 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.model.SqlNode;
+import me.cowra.demo.sql_tree.stats.ResultSizeEstimator;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 大结果集保护
+ * 行数预算在取数过程中检查(ResultSet.next), 并通过 Statement.setMaxRows 让驱动/数据库提前停止;
+ * 字节预算只能在结果映射完成后按估算值检查.
+ * 超出预算时按策略: WARN 只记录告警, TRUNCATE 截断结果, REJECT 抛出 {@link ResultSizeLimitException}.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class ResultSizeGuard {
+
+    public enum Action {
+        WARN, TRUNCATE, REJECT
+    }
+
+    private final ResultGuardProperties properties;
+
+    /**
+     * 行数预算, 0 表示不限制
+     */
+    public int maxRows() {
+        return properties.isEnabled() ? Math.max(properties.getMaxRows(), 0) : 0;
+    }
+
+    /**
+     * 是否设置了任一预算(行数或字节数); 与是否追踪无关, 未追踪或未采样的查询同样受保护
+     */
+    public boolean isActive() {
+        return properties.isEnabled() && (properties.getMaxRows() > 0 || properties.getMaxBytes() > 0);
+    }
+
+    public Action action() {
+        return properties.getAction();
+    }
+
+    /**
+     * 取数时行数超出预算
+     * @return true 表示继续读取, false 表示停止读取(截断)
+     */
+    boolean onRowLimitExceeded(SqlNode sqlNode, int rows) {
+        String statement = sqlNode != null ? sqlNode.getStatementId() : "unknown";
+        switch (properties.getAction()) {
+            case REJECT:
+                mark(sqlNode, "REJECTED");
+                throw new ResultSizeLimitException(String.format(
+                        "Result of %s exceeds %d rows", statement, properties.getMaxRows()));
+            case TRUNCATE:
+                mark(sqlNode, "TRUNCATED");
+                log.warn("Result of {} truncated at {} rows", statement, properties.getMaxRows());
+                return false;
+            default:
+                if (sqlNode == null || sqlNode.getResultGuard() == null) {
+                    mark(sqlNode, "WARN");
+                    log.warn("Result of {} exceeds {} rows", statement, properties.getMaxRows());
+                }
+                return true;
+        }
+    }
+
+    /**
+     * 结果映射完成后检查估算字节数
+     * @return 可能被截断后的结果
+     */
+    @SuppressWarnings("unchecked")
+    Object checkBytes(SqlNode sqlNode, Object result) {
+        long maxBytes = properties.getMaxBytes();
+        if (!properties.isEnabled() || maxBytes <= 0) {
+            return result;
+        }
+        long estimatedBytes = ResultSizeEstimator.estimate(result);
+        if (estimatedBytes <= maxBytes) {
+            return result;
+        }
+        String statement = sqlNode != null ? sqlNode.getStatementId() : "unknown";
+        switch (properties.getAction()) {
+            case REJECT:
+                mark(sqlNode, "REJECTED");
+                throw new ResultSizeLimitException(String.format(
+                        "Result of %s is about %d bytes, exceeds %d bytes", statement, estimatedBytes, maxBytes));
+            case TRUNCATE:
+                if (result instanceof List && !((List<?>) result).isEmpty()) {
+                    List<Object> rows = (List<Object>) result;
+                    int keep = (int) Math.max(1, rows.size() * maxBytes / estimatedBytes);
+                    rows.subList(keep, rows.size()).clear();
+                    mark(sqlNode, "TRUNCATED");
+                    log.warn("Result of {} truncated to {} rows (about {} bytes > {} bytes)",
+                            statement, keep, estimatedBytes, maxBytes);
+                }
+                return result;
+            default:
+                mark(sqlNode, "WARN");
+                log.warn("Result of {} is about {} bytes, exceeds {} bytes", statement, estimatedBytes, maxBytes);
+                return result;
+        }
+    }
+
+    private void mark(SqlNode sqlNode, String guard) {
+        if (sqlNode != null) {
+            sqlNode.setResultGuard(guard);
+        }
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.result-guard")
+    public static class ResultGuardProperties {
+        private boolean enabled = true;    //* 是否启用大结果集保护
+        private int maxRows = 0;   //* 行数预算, 0 表示不限制
+        private long maxBytes = 0;  //* 估算字节预算, 0 表示不限制
+        private Action action = Action.WARN;    //* 超出预算时的策略
+    }
+}
@@ -0,0 +1,11 @@
+package me.cowra.demo.sql_tree.mapper;
+
+/**
+ * 查询结果超出行数/字节预算且策略为 REJECT 时抛出
+ */
+public class ResultSizeLimitException extends RuntimeException {
+
+    public ResultSizeLimitException(String message) {
+        super(message);
+    }
+}
@@ -1,38 +1,80 @@
 package me.cowra.demo.sql_tree.mapper;
 
 import lombok.Data;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.SqlTreeProperties;
 import me.cowra.demo.sql_tree.model.ServiceCallInfo;
 import me.cowra.demo.sql_tree.model.SqlNode;
+import me.cowra.demo.sql_tree.model.TransactionNode;
+import me.cowra.demo.sql_tree.stats.HeavyHitterTracker;
+import me.cowra.demo.sql_tree.stats.ResultSizeStatistics;
+import me.cowra.demo.sql_tree.stats.SqlBaselines;
+import me.cowra.demo.sql_tree.store.FrozenSqlTree;
+import me.cowra.demo.sql_tree.store.SqlTreeStore;
+import me.cowra.demo.sql_tree.trace.TraceParent;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
+@RequiredArgsConstructor
 @Component
 public class SqlCallTreeContext {
 
+    /**
+     * 未被采样的顶层调用, 其内部的 Service 调用和SQL都不追踪
+     */
+    private static final ServiceCallInfo UNSAMPLED = new ServiceCallInfo("unsampled", "-", 0);
+
+    /**
+     * 请求中不在任何 Service 内执行的SQL, 保存时挂在以此为名的虚拟根调用下
+     */
+    public static final String REQUEST_SERVICE = "Request";
+
+    private final SqlTreeProperties properties;
+
+    /**
+     * Top-K 热点SQL草图
+     */
+    private final HeavyHitterTracker heavyHitterTracker;
+
+    /**
+     * 按SQL指纹的结果行数分布
+     */
+    private final ResultSizeStatistics resultSizeStatistics;
+
+    /**
+     * 按SQL指纹的自适应慢SQL基线
+     */
+    private final SqlBaselines sqlBaselines;
+
+    /**
+     * 已完成调用树的存储
+     */
+    private final SqlTreeStore sqlTreeStore;
+
+    /**
+     * SQL节点到所在事务的归属
+     */
+    private final TransactionTracker transactionTracker;
+
     /**
      * 全局统计信息
      */
     private final SqlTraceStatistics globalStatistics = new SqlTraceStatistics();
 
     /**
-     * 线程局部存储 - 配置信息
+     * 线程局部存储 - 本线程的追踪状态
      */
-    private final ThreadLocal<SqlTraceConfig> traceConfig = new ThreadLocal<SqlTraceConfig>() {
-        @Override
-        protected SqlTraceConfig initialValue() {
-            return new SqlTraceConfig();
-        }
-    };
+    private final ThreadLocal<ThreadTraceState> traceState = ThreadLocal.withInitial(ThreadTraceState::new);
 
     /**
      * 线程本地存储 - SQL调用栈
@@ -65,17 +107,51 @@ public class SqlCallTreeContext {
     };
 
     /**
-     * 慢SQL阈值(毫秒)
+     * 慢SQL阈值(微秒)
      */
     private volatile long slowSqlThreshold;
     /**
      * 是否启用追踪
      */
     private volatile boolean traceEnabled;
+    /**
+     * 顶层调用的采样率, 1 表示全部追踪
+     */
+    private volatile double traceSampleRate = 1.0;
+    /**
+     * 最大追踪深度
+     */
+    private volatile int maxDepth = 50;
+    /**
+     * 是否记录SQL参数
+     */
+    private volatile boolean recordParameters = true;
+
+    //* 配置只作为初始值, 之后的调整(/actuator/sqltrace)直接修改这里的字段
+    @PostConstruct
+    public void init() {
+        setTraceEnabled(properties.isTraceEnabled());
+        setTraceSampleRate(properties.getTraceSampleRate());
+        setSlowSqlThreshold(properties.getSlowSqlThreshold());
+        setMaxDepth(properties.getMaxDepth());
+        setRecordParameters(properties.isRecordParameters());
+    }
 
+    /**
+     * 设置慢SQL阈值
+     * @param threshold 阈值(毫秒)
+     */
     public void setSlowSqlThreshold(long threshold) {
-        this.slowSqlThreshold = threshold;
-        log.info("设置慢SQL阈值: {}ms", threshold);
+        setSlowSqlThresholdMicros(threshold * 1_000L);
+    }
+
+    /**
+     * 设置慢SQL阈值
+     * @param thresholdMicros 阈值(微秒), 用于亚毫秒级的阈值
+     */
+    public void setSlowSqlThresholdMicros(long thresholdMicros) {
+        this.slowSqlThreshold = thresholdMicros;
+        log.info("设置慢SQL阈值: {}us", thresholdMicros);
     }
 
     public void setTraceEnabled(boolean enabled) {
@@ -84,11 +160,67 @@ public class SqlCallTreeContext {
     }
 
     /**
-     * 检查是否启用追踪
-     * @return 是否启用追踪
+     * 设置采样率
+     * @param sampleRate 0~1, 按顶层 Service 调用(或不在 Service 中的单条SQL)决定是否追踪
+     */
+    public void setTraceSampleRate(double sampleRate) {
+        this.traceSampleRate = Math.max(0, Math.min(1, sampleRate));
+        log.info("设置SQL追踪采样率: {}", this.traceSampleRate);
+    }
+
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    /**
+     * @return 慢SQL阈值(微秒)
+     */
+    public long getSlowSqlThresholdMicros() {
+        return slowSqlThreshold;
+    }
+
+    /**
+     * 设置最大追踪深度, 超出的 Service 调用不建节点(其SQL归到最深的已追踪调用), 超出的嵌套SQL不记录
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, maxDepth);
+        log.info("设置最大追踪深度: {}", this.maxDepth);
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setRecordParameters(boolean recordParameters) {
+        this.recordParameters = recordParameters;
+        log.info("设置SQL参数记录: {}", recordParameters ? "启用" : "禁用");
+    }
+
+    public boolean isRecordParameters() {
+        return recordParameters;
+    }
+
+    /**
+     * 检查当前线程是否在追踪
+     * @return 追踪已启用, 且当前不在未被采样的顶层调用中
      */
     public boolean isTraceEnabled() {
-        return traceEnabled && traceConfig.get().isEnabled();
+        if (!traceEnabled) {
+            return false;
+        }
+        return traceState.get().unsampledDepth == 0;
+    }
+
+    /**
+     * 全局追踪开关, 不考虑本线程是否处于未采样的调用中
+     */
+    public boolean isTraceEnabledGlobally() {
+        return traceEnabled;
+    }
+
+    private boolean sample() {
+        double rate = traceSampleRate;
+        return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
     }
 
     public SqlNode enter(String sql, String sqlType) {
@@ -99,6 +231,14 @@ public class SqlCallTreeContext {
             Stack<SqlNode> sqlNodeStack = callStack.get();
             Stack<ServiceCallInfo> serviceCallInfoStack = serviceCallStack.get();
 
+            //* 不在任何调用中的单条SQL单独采样
+            if (sqlNodeStack.isEmpty() && serviceCallInfoStack.isEmpty() && !sample()) {
+                return null;
+            }
+            if (sqlNodeStack.size() >= maxDepth) {
+                return null;
+            }
+
             ServiceCallInfo currentServiceCall = serviceCallInfoStack.isEmpty() ? null : serviceCallInfoStack.peek();
 
             //* 计算 SQL 深度: 基于Service调用深度
@@ -124,6 +264,14 @@ public class SqlCallTreeContext {
                 currentServiceCall.addSqlNode(node);
             }
 
+            //* 归属到所在事务; 事务开始时取得连接的时刻作为事务开始时间
+            ThreadTraceState state = traceState.get();
+            long transactionStart = state.connectionNanos > 0 ? state.connectionNanos : node.getStartNanos();
+            state.connectionNanos = 0;
+            node.setTransaction(transactionTracker.current(transactionStart, currentServiceCall,
+                    serviceCallInfoStack.isEmpty() ? null : serviceCallInfoStack.firstElement(),
+                    globalStatistics::recordTransaction));
+
             //* 建立父子关系
             SqlNode parentSqlNode = findParentSqlNode(sqlNodeStack, serviceCallInfoStack);
             if (parentSqlNode != null) {
@@ -138,6 +286,15 @@ public class SqlCallTreeContext {
                 log.info("add root node: {}.{}", node.getServiceName(), node.getMethodName());
             }
 
+            //* 顶层 Service 调用的 traceparent; 不在 Service 中的SQL沿用父SQL的, 单独的SQL自成一个 span
+            if (currentServiceCall != null) {
+                node.setTraceParent(currentServiceCall.getTraceParent());
+            } else if (parentSqlNode != null) {
+                node.setTraceParent(parentSqlNode.getTraceParent());
+            } else {
+                node.setTraceParent(TraceParent.next().toString());
+            }
+
             //* 新节点入栈
             sqlNodeStack.push(node);
 
@@ -159,6 +316,69 @@ public class SqlCallTreeContext {
 
     }
 
+    /**
+     * 当前线程正在执行的SQL节点
+     * @return 调用栈栈顶节点, 没有时返回 null
+     */
+    public SqlNode currentNode() {
+        if (!isTraceEnabled())
+            return null;
+        Stack<SqlNode> sqlNodeStack = callStack.get();
+        return sqlNodeStack.isEmpty() ? null : sqlNodeStack.peek();
+    }
+
+    /**
+     * 当前线程所处 Service 调用的 traceparent, 不在追踪的调用中时为 null
+     */
+    public String currentTraceParent() {
+        if (!isTraceEnabled())
+            return null;
+        Stack<ServiceCallInfo> stack = serviceCallStack.get();
+        return stack.isEmpty() ? null : stack.peek().getTraceParent();
+    }
+
+    /**
+     * 当前线程所处 Service 调用的完整路径, 不在追踪的调用中时为 null
+     */
+    public String currentCallPath() {
+        if (!isTraceEnabled())
+            return null;
+        Stack<ServiceCallInfo> stack = serviceCallStack.get();
+        return stack.isEmpty() ? null : stack.peek().getFullCallPath();
+    }
+
+    /**
+     * 记录一次连接池等待
+     * 归属到当前SQL节点, 以及当前线程Service调用栈上的每一层调用
+     * @param waitNanos 等待时间(纳秒)
+     */
+    public void recordConnectionWait(long waitNanos) {
+        if (!isTraceEnabled())
+            return;
+
+        long micros = waitNanos / 1_000L;
+        traceState.get().connectionNanos = System.nanoTime() - waitNanos;
+        Stack<SqlNode> sqlNodeStack = callStack.get();
+        if (!sqlNodeStack.isEmpty()) {
+            sqlNodeStack.peek().getPhases().addConnectionWaitTime(micros);
+        }
+        for (ServiceCallInfo serviceCallInfo : serviceCallStack.get()) {
+            serviceCallInfo.addConnectionWaitTime(micros);
+        }
+    }
+
+    /**
+     * 获取全局SQL统计信息快照
+     */
+    public SqlTraceStatistics getStatistics() {
+        return globalStatistics.copy();
+    }
+
+    public void resetStatistics() {
+        globalStatistics.reset();
+        log.info("SQL trace statistics reset");
+    }
+
     /**
      * 查找SQL节点的父节点
      * 基于Service调用关系确定SQL的父子关系
@@ -196,7 +416,8 @@ public class SqlCallTreeContext {
     }
 
     public void exit(SqlNode sqlNode, int affectedRows, String errorMessage) {
-        if (!isTraceEnabled() || sqlNode == null)
+        //* 只在进入时检查追踪开关: 调用中途关闭追踪(/actuator/sqltrace)时, 已入栈的节点仍要出栈, 否则请求范围之外的线程会一直留着它们
+        if (sqlNode == null)
             return;
 
         try {
@@ -208,21 +429,26 @@ public class SqlCallTreeContext {
                 currentNode.setEndTime();
                 currentNode.setAffectedRows(affectedRows);
                 currentNode.setErrorMessage(errorMessage);
-                //* 标记慢SQL
-                currentNode.markSlowSql(slowSqlThreshold);
-                //* 更新统计信息
-                if (currentNode.isSlowSql()) {
-                    globalStatistics.incrementSlowSqlCount();
+                if (currentNode.getRejection() != null) {
+                    //* 未发往数据库, 耗时没有意义, 不计入基线和热点统计
+                    globalStatistics.incrementRejectedSqlCount();
+                    log.debug("SQL Invocation Rejected: {}, statement={}", currentNode.getRejection(), currentNode.getStatementId());
+                } else {
+                    record(currentNode, affectedRows, errorMessage);
+                    if (currentNode.getTransaction() != null) {
+                        currentNode.getTransaction().onSqlEnd(currentNode);
+                    }
                 }
-                if (errorMessage != null && !errorMessage.trim().isEmpty()) {
-                    globalStatistics.incrementErrorSqlCount();
+                //* 语句执行中取得的连接不是事务的开始
+                traceState.get().connectionNanos = 0;
+
+                //* 不在 SQL调用退出时保存, 在 Service 退出时保存,确保 Service调用树完全构建后再保存;
+                //* 不在 Service 中的SQL在请求结束时保存(见 closeScope), 请求之外没有保存时机, 直接丢弃, 以免根节点列表无限增长
+                if (sqlNodeStack.isEmpty() && serviceCallStack.get().isEmpty() && !traceState.get().inScope) {
+                    List<SqlNode> roots = rootNodes.get();
+                    globalStatistics.addOrphanSqlNodes(roots.size());
+                    roots.clear();
                 }
-                globalStatistics.addExecutionTime(currentNode.getExecutionTime());
-
-                log.debug("SQL Invocation Exist: depth={}, executionTime={}ms, sql={}",
-                        currentNode.getDepth(), currentNode.getExecutionTime(), currentNode.getSql());
-
-                //* 不在 SQL调用退出时保存, 在 Service 退出时保存,确保 Service调用树完全构建后再保存
             }
 
         } catch (Exception e) {
@@ -230,12 +456,43 @@ public class SqlCallTreeContext {
         }
     }
 
+    private void record(SqlNode currentNode, int affectedRows, String errorMessage) {
+        //* 标记慢SQL: 与该指纹自身的基线比较, 固定阈值作为下限
+        long threshold = sqlBaselines.observe(currentNode.getFingerprint(), currentNode.getStatementTime(), slowSqlThreshold);
+        currentNode.setSlowThreshold(threshold);
+        currentNode.markSlowSql(threshold);
+        //* 更新统计信息
+        if (currentNode.isSlowSql()) {
+            globalStatistics.incrementSlowSqlCount();
+        }
+        if (errorMessage != null && !errorMessage.trim().isEmpty()) {
+            globalStatistics.incrementErrorSqlCount();
+        }
+        globalStatistics.addExecutionTime(currentNode.getExecutionTime());
+        heavyHitterTracker.record(currentNode.getFingerprint(), currentNode.getExecutionTime(), affectedRows);
+        if ("SELECT".equals(currentNode.getSqlType())) {
+            resultSizeStatistics.record(currentNode.getFingerprint(), affectedRows, currentNode.getResultSize());
+        }
+
+        log.debug("SQL Invocation Exist: depth={}, executionTime={}us, dataSource={}, phases={}, sql={}",
+                currentNode.getDepth(), currentNode.getExecutionTime(), currentNode.getDataSourceKey(),
+                currentNode.getPhases(), currentNode.getSql());
+    }
+
     public ServiceCallInfo enterService(String serviceName, String methodName) {
         if (!isTraceEnabled())
             return null;
 
         try {
             Stack<ServiceCallInfo> stack = serviceCallStack.get();
+            if (stack.isEmpty() && callStack.get().isEmpty() && !sample()) {
+                //* 未采样: 直到该调用退出前, 本线程的 isTraceEnabled 都返回 false
+                traceState.get().unsampledDepth++;
+                return UNSAMPLED;
+            }
+            if (stack.size() >= maxDepth) {
+                return null;
+            }
             int depth = stack.size() + 1;
 
             ServiceCallInfo serviceCallInfo = new ServiceCallInfo(serviceName, methodName, depth);
@@ -243,6 +500,9 @@ public class SqlCallTreeContext {
             if (!stack.isEmpty()) {
                 ServiceCallInfo parent = stack.peek();
                 parent.addChild(serviceCallInfo);
+                serviceCallInfo.setTraceParent(parent.getTraceParent());
+            } else {
+                serviceCallInfo.setTraceParent(TraceParent.next().toString());
             }
 
             stack.push(serviceCallInfo);
@@ -257,7 +517,13 @@ public class SqlCallTreeContext {
     }
 
     public void exitService(ServiceCallInfo serviceCallInfo) {
-        if (!isTraceEnabled() || serviceCallInfo == null)
+        if (serviceCallInfo == UNSAMPLED) {
+            ThreadTraceState state = traceState.get();
+            state.unsampledDepth = Math.max(0, state.unsampledDepth - 1);
+            return;
+        }
+        //* 同 exit, 已交出的调用总是出栈
+        if (serviceCallInfo == null)
             return;
 
         try {
@@ -269,10 +535,19 @@ public class SqlCallTreeContext {
                 log.debug("Exit service invocation: {}", currentCall.getShortDescription());
                 //* 确保每个独立的 service 只保存一次
                 if (currentCall.getDepth() == 1) {
-                    saveToGlobalSession();
-                    log.info("Complete top-level service invocation, Save call-tree to global session: {}", currentCall.getShortDescription());
+                    List<SqlNode> roots = rootNodes.get();
+                    List<SqlNode> detached = new ArrayList<>(roots);
+                    if (transactionTracker.deferUntilCompletion(currentCall, () -> saveTree(currentCall, detached))) {
+                        roots.clear();
+                        log.info("Complete top-level service invocation, call-tree will be saved when its transaction completes: {}",
+                                currentCall.getShortDescription());
+                    } else {
+                        saveToGlobalSession(currentCall);
+                        log.info("Complete top-level service invocation, Save call-tree to global session: {}", currentCall.getShortDescription());
+                    }
                 }
             } else {
+                globalStatistics.incrementUnbalancedExits();
                 log.warn("Not matched Service Call Stack: expected={}, actual={}",
                         serviceCallInfo.getCallId(),
                         stack.isEmpty() ? "empty" : stack.peek().getCallId());
@@ -284,20 +559,112 @@ public class SqlCallTreeContext {
     }
 
     /**
-     * 全局会话存储 - 线程ID -> 根节点列表
+     * 开始一个请求范围
+     * 线程上残留的上一次使用的状态(本不应存在)先计为泄漏并清理, 不让它混入本次请求的树
      */
-    private final Map<String, List<SqlNode>> globalSessions = new ConcurrentHashMap<>();
+    public void openScope() {
+        if (hasThreadState()) {
+            discardThreadState("before request");
+        }
+        ThreadTraceState state = traceState.get();
+        state.inScope = true;
+        state.scopeStartNanos = System.nanoTime();
+        state.scopeStartTime = LocalDateTime.now();
+    }
+
+    /**
+     * 结束请求范围: 保存尚未保存的树, 然后移除本线程的所有 ThreadLocal
+     * 未正常退出的 Service 调用(栈不平衡)从栈顶到根依次结束, 根调用的树照常保存;
+     * 不在 Service 中执行的SQL挂到一个代表本次请求的虚拟根调用下保存.
+     * @param requestName 虚拟根调用的方法名, 如 "GET /api/users/1"
+     */
+    public void closeScope(String requestName) {
+        ThreadTraceState state = traceState.get();
+        try {
+            Stack<SqlNode> sqlNodeStack = callStack.get();
+            Stack<ServiceCallInfo> serviceStack = serviceCallStack.get();
+            List<SqlNode> roots = rootNodes.get();
+            if (!sqlNodeStack.isEmpty()) {
+                globalStatistics.addLeakedSqlFrames(sqlNodeStack.size());
+                log.warn("Unclosed SQL frames at end of request {}: {}", requestName, sqlNodeStack.size());
+            }
+            if (!serviceStack.isEmpty()) {
+                globalStatistics.addLeakedServiceFrames(serviceStack.size());
+                log.warn("Unclosed service frames at end of request {}: {}", requestName, serviceStack.size());
+                ServiceCallInfo root = null;
+                while (!serviceStack.isEmpty()) {
+                    root = serviceStack.pop();
+                    root.setEndTime();
+                }
+                if (root.getDepth() == 1) {
+                    saveToGlobalSession(root);
+                }
+            } else if (!roots.isEmpty()) {
+                ServiceCallInfo root = new ServiceCallInfo(REQUEST_SERVICE, requestName, 1);
+                root.setStartTime(state.scopeStartTime);
+                root.setStartNanos(state.scopeStartNanos);
+                root.setTraceParent(roots.get(0).getTraceParent());
+                roots.forEach(root::addSqlNode);
+                root.setEndTime();
+                saveToGlobalSession(root);
+                log.debug("Saved SQL outside services as request tree: {}", root.getShortDescription());
+            }
+        } catch (Exception e) {
+            log.error("Failed to close trace scope", e);
+        } finally {
+            removeThreadLocals();
+        }
+    }
 
-    private void saveToGlobalSession() {
+    private boolean hasThreadState() {
+        return !callStack.get().isEmpty() || !serviceCallStack.get().isEmpty() || !rootNodes.get().isEmpty()
+                || traceState.get().unsampledDepth > 0;
     }
 
-    @Data
-    public static class SqlTraceConfig {
-        private boolean enabled = true; //* 是否启用追踪
-        private int maxDepth = 50;  //* 最大调用深度
-        private long slowSqlThreshold = 1000L;  //* 慢SQL阈值(毫秒)
-        private boolean recordParameters = true;    // * 是否记录SQL参数
-        private int maxSessions = 100;  //* 最大会话数
+    private void discardThreadState(String when) {
+        int sqlFrames = callStack.get().size();
+        int serviceFrames = serviceCallStack.get().size();
+        globalStatistics.addLeakedSqlFrames(sqlFrames);
+        globalStatistics.addLeakedServiceFrames(serviceFrames);
+        globalStatistics.addOrphanSqlNodes(rootNodes.get().size());
+        log.warn("Discarding leaked trace state {}: sqlFrames={}, serviceFrames={}, rootNodes={}, unsampledDepth={}",
+                when, sqlFrames, serviceFrames, rootNodes.get().size(), traceState.get().unsampledDepth);
+        removeThreadLocals();
+    }
+
+    private void removeThreadLocals() {
+        callStack.remove();
+        serviceCallStack.remove();
+        rootNodes.remove();
+        traceState.remove();
+    }
+
+    /**
+     * 冻结本线程收集的调用树并保存, 然后清空根节点列表, 为下一次顶层调用做准备
+     */
+    private void saveToGlobalSession(ServiceCallInfo rootCall) {
+        List<SqlNode> roots = rootNodes.get();
+        try {
+            saveTree(rootCall, roots);
+        } finally {
+            roots.clear();
+        }
+    }
+
+    private void saveTree(ServiceCallInfo rootCall, List<SqlNode> roots) {
+        FrozenSqlTree tree = FrozenSqlTree.freeze(sqlTreeStore.nextTreeId(), rootCall, roots);
+        sqlTreeStore.save(tree);
+    }
+
+    /**
+     * 线程级的追踪状态; 全局配置见 {@link SqlTreeProperties}
+     */
+    private static final class ThreadTraceState {
+        private int unsampledDepth; //* 所处的未采样顶层调用层数, 大于 0 时不追踪
+        private boolean inScope;    //* 是否处于请求范围内
+        private long scopeStartNanos;
+        private LocalDateTime scopeStartTime;
+        private long connectionNanos;   //* 最近一次在SQL之外取得连接的时刻, 即事务开始时取连接; 执行SQL时清零
     }
 
     /**
@@ -321,7 +688,24 @@ public class SqlCallTreeContext {
         private final AtomicLong errorSqlCount = new AtomicLong(0);
 
         /**
-         * 总执行时间
+         * 被熔断或隔离舱拒绝的SQL数量
+         */
+        private final AtomicLong rejectedSqlCount = new AtomicLong(0);
+
+        /**
+         * 请求结束时仍未退出的 Service 调用/SQL 帧数, 以及退出顺序不匹配的 Service 调用次数
+         */
+        private final AtomicLong leakedServiceFrames = new AtomicLong(0);
+        private final AtomicLong leakedSqlFrames = new AtomicLong(0);
+        private final AtomicLong unbalancedExits = new AtomicLong(0);
+
+        /**
+         * 请求之外、不在 Service 中执行而被丢弃的SQL根节点数
+         */
+        private final AtomicLong orphanSqlNodes = new AtomicLong(0);
+
+        /**
+         * 总执行时间(微秒)
          */
         private final AtomicLong totalExecutionTime = new AtomicLong(0);
 
@@ -330,6 +714,13 @@ public class SqlCallTreeContext {
          */
         private final AtomicInteger maxDepth = new AtomicInteger(0);
 
+        /**
+         * 已结束的事务数, 及其中超过长事务阈值、写后空闲超过阈值的数量
+         */
+        private final AtomicLong totalTransactions = new AtomicLong(0);
+        private final AtomicLong longTransactions = new AtomicLong(0);
+        private final AtomicLong idleAfterWriteTransactions = new AtomicLong(0);
+
         /**
          * 统计开始时间
          */
@@ -347,6 +738,26 @@ public class SqlCallTreeContext {
             errorSqlCount.incrementAndGet();
         }
 
+        public void incrementRejectedSqlCount() {
+            rejectedSqlCount.incrementAndGet();
+        }
+
+        public void addLeakedServiceFrames(long count) {
+            leakedServiceFrames.addAndGet(count);
+        }
+
+        public void addLeakedSqlFrames(long count) {
+            leakedSqlFrames.addAndGet(count);
+        }
+
+        public void incrementUnbalancedExits() {
+            unbalancedExits.incrementAndGet();
+        }
+
+        public void addOrphanSqlNodes(long count) {
+            orphanSqlNodes.addAndGet(count);
+        }
+
         public void addExecutionTime(long time) {
             totalExecutionTime.addAndGet(time);
         }
@@ -355,6 +766,16 @@ public class SqlCallTreeContext {
             maxDepth.updateAndGet(current -> Math.max(current, depth));
         }
 
+        public void recordTransaction(TransactionNode transaction) {
+            totalTransactions.incrementAndGet();
+            if (transaction.getFlags().contains(TransactionNode.FLAG_LONG_TRANSACTION)) {
+                longTransactions.incrementAndGet();
+            }
+            if (transaction.getFlags().contains(TransactionNode.FLAG_IDLE_AFTER_WRITE)) {
+                idleAfterWriteTransactions.incrementAndGet();
+            }
+        }
+
         public long getTotalSqlCount() {
             return totalSqlCount.get();
         }
@@ -367,6 +788,26 @@ public class SqlCallTreeContext {
             return errorSqlCount.get();
         }
 
+        public long getRejectedSqlCount() {
+            return rejectedSqlCount.get();
+        }
+
+        public long getLeakedServiceFrames() {
+            return leakedServiceFrames.get();
+        }
+
+        public long getLeakedSqlFrames() {
+            return leakedSqlFrames.get();
+        }
+
+        public long getUnbalancedExits() {
+            return unbalancedExits.get();
+        }
+
+        public long getOrphanSqlNodes() {
+            return orphanSqlNodes.get();
+        }
+
         public long getTotalExecutionTime() {
             return totalExecutionTime.get();
         }
@@ -375,6 +816,18 @@ public class SqlCallTreeContext {
             return maxDepth.get();
         }
 
+        public long getTotalTransactions() {
+            return totalTransactions.get();
+        }
+
+        public long getLongTransactions() {
+            return longTransactions.get();
+        }
+
+        public long getIdleAfterWriteTransactions() {
+            return idleAfterWriteTransactions.get();
+        }
+
         public double getAverageExecutionTime() {
             long total = getTotalSqlCount();
             return total > 0 ? (double) getTotalExecutionTime() / total : 0.0;
@@ -384,8 +837,16 @@ public class SqlCallTreeContext {
             totalSqlCount.set(0);
             slowSqlCount.set(0);
             errorSqlCount.set(0);
+            rejectedSqlCount.set(0);
+            leakedServiceFrames.set(0);
+            leakedSqlFrames.set(0);
+            unbalancedExits.set(0);
+            orphanSqlNodes.set(0);
             totalExecutionTime.set(0);
             maxDepth.set(0);
+            totalTransactions.set(0);
+            longTransactions.set(0);
+            idleAfterWriteTransactions.set(0);
         }
 
         public SqlTraceStatistics copy() {
@@ -393,8 +854,16 @@ public class SqlCallTreeContext {
             copy.totalSqlCount.set(this.totalSqlCount.get());
             copy.slowSqlCount.set(this.slowSqlCount.get());
             copy.errorSqlCount.set(this.errorSqlCount.get());
+            copy.rejectedSqlCount.set(this.rejectedSqlCount.get());
+            copy.leakedServiceFrames.set(this.leakedServiceFrames.get());
+            copy.leakedSqlFrames.set(this.leakedSqlFrames.get());
+            copy.unbalancedExits.set(this.unbalancedExits.get());
+            copy.orphanSqlNodes.set(this.orphanSqlNodes.get());
             copy.totalExecutionTime.set(this.totalExecutionTime.get());
             copy.maxDepth.set(this.maxDepth.get());
+            copy.totalTransactions.set(this.totalTransactions.get());
+            copy.longTransactions.set(this.longTransactions.get());
+            copy.idleAfterWriteTransactions.set(this.idleAfterWriteTransactions.get());
             return copy;
         }
     }
@@ -0,0 +1,106 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import me.cowra.demo.sql_tree.trace.TraceParent;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 在执行的SQL前加注释: traceparent 和(可选的) Service 调用路径, DBA 在慢日志/processlist 中看到的语句可以关联回调用树.
+ * 注意 traceparent 每个请求都不同, 带上它的语句文本也就各不相同, 驱动端的预编译语句缓存(如 MySQL cachePrepStmts)
+ * 和服务端预编译都无法复用; 调用路径只有有限几种, 对缓存影响很小. 因此默认只带调用路径,
+ * traceparent 按语句(或 Mapper)在规则中单独开启, 适合低频、需要和数据库端日志逐次关联的语句.
+ * 规则按 语句ID > Mapper 全限定名 > 默认值 的顺序匹配, 每个语句第一次执行时解析并缓存.
+ */
+@RequiredArgsConstructor
+@Component
+public class SqlComment {
+
+    private static final String PREFIX = "/* ";
+
+    private final SqlCommentProperties properties;
+
+    private final Map<String, Rule> resolved = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 为即将执行的SQL加注释
+     * @param sql 原始SQL
+     * @param mappedStatement 语句
+     * @param traceParent 当前调用的 traceparent, 为 null 时取请求的 traceparent
+     * @param callPath 当前 Service 调用路径, 可以为 null
+     * @return 加了注释的SQL; 该语句不需要注释时返回原SQL
+     */
+    String decorate(String sql, MappedStatement mappedStatement, String traceParent, String callPath) {
+        if (sql == null || mappedStatement == null || sql.startsWith(PREFIX)) {
+            return sql;
+        }
+        Rule rule = resolved.computeIfAbsent(mappedStatement.getId(), this::resolve);
+        StringBuilder comment = new StringBuilder();
+        if (rule.getTraceId()) {
+            if (traceParent == null && TraceParent.current() != null) {
+                traceParent = TraceParent.current().toString();
+            }
+            if (traceParent != null) {
+                comment.append("traceparent=").append(traceParent);
+            }
+        }
+        if (rule.getCallPath() && callPath != null) {
+            if (comment.length() > 0) {
+                comment.append(", ");
+            }
+            comment.append("path=").append(sanitize(callPath));
+        }
+        if (comment.length() == 0) {
+            return sql;
+        }
+        return PREFIX + comment + " */ " + sql;
+    }
+
+    private Rule resolve(String statementId) {
+        Rule rule = properties.getStatements().get(statementId);
+        if (rule == null) {
+            int dot = statementId.lastIndexOf('.');
+            rule = dot > 0 ? properties.getStatements().get(statementId.substring(0, dot)) : null;
+        }
+        Rule result = new Rule();
+        result.setTraceId(rule != null && rule.getTraceId() != null ? rule.getTraceId() : properties.isTraceId());
+        result.setCallPath(rule != null && rule.getCallPath() != null ? rule.getCallPath() : properties.isCallPath());
+        return result;
+    }
+
+    /**
+     * 调用路径来自类名和方法名, 这里仍去掉可能提前结束注释的字符
+     */
+    private static String sanitize(String value) {
+        return value.replace("*/", "* /").replace("/*", "/ *");
+    }
+
+    /**
+     * 单个语句(或 Mapper)的注释规则, 未设置的项使用默认值
+     */
+    @Data
+    public static class Rule {
+        private Boolean traceId;    //* 是否带 traceparent
+        private Boolean callPath;   //* 是否带 Service 调用路径
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.sql-comment")
+    public static class SqlCommentProperties {
+        private boolean enabled = false;    //* 是否在SQL前加注释
+        private boolean traceId = false;    //* 默认是否带 traceparent
+        private boolean callPath = false;   //* 默认是否带 Service 调用路径
+        private Map<String, Rule> statements = new LinkedHashMap<>();   //* 语句ID或 Mapper 全限定名 -> 规则
+    }
+}
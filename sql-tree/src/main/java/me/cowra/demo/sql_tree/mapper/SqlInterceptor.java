@@ -2,12 +2,20 @@ package me.cowra.demo.sql_tree.mapper;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.datasource.ReadWriteRouting;
 import me.cowra.demo.sql_tree.model.SqlNode;
+import me.cowra.demo.sql_tree.model.SqlPhases;
+import me.cowra.demo.sql_tree.stats.RepeatedReadTracker;
+import me.cowra.demo.sql_tree.stats.ResultSizeEstimator;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
-import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.plugin.*;
 import org.apache.ibatis.reflection.MetaObject;
@@ -16,10 +24,14 @@ import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.springframework.stereotype.Component;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
-import java.util.ArrayList;
+import java.sql.Statement;
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.function.Function;
 
 /**
  * MyBatis SQL 拦截器
@@ -45,11 +57,22 @@ import java.util.Properties;
                 RowBounds.class,
                 ResultHandler.class
         }),
+        //* 带 CacheKey/BoundSql 的重载, 其他插件(如分页插件)可能直接调用它
+        @Signature(type= Executor.class, method = "query", args = {
+                MappedStatement.class,
+                Object.class,
+                RowBounds.class,
+                ResultHandler.class,
+                CacheKey.class,
+                BoundSql.class
+        }),
         //* 当 MyBatis 执行任何写操作（如 insert, update, delete）时
         @Signature(type= Executor.class, method = "update", args = {
                 MappedStatement.class,
                 Object.class
         }),
+        //* BATCH 执行器下 update 只是加入批次, 真正执行发生在 flushStatements, 一个批次记录为一个节点
+        @Signature(type= Executor.class, method = "flushStatements", args = {}),
         //! 在 SQL 语句被编译（准备）之后、真正执行之前。此时已经完成了 SQL 和参数的绑定，你可以获取到最终的 SQL 字符串.
         //* 用途：这是修改或重写 SQL 语句的理想时机。常见应用包括：
         //* 1. 自动分页：为 SQL 拼接 LIMIT和 OFFSET等分页子句。
@@ -58,24 +81,67 @@ import java.util.Properties;
         @Signature(type = StatementHandler.class, method = "prepare", args = {
                 Connection.class,
                 Integer.class
+        }),
+        //* 以下用于分阶段计时: 语句执行、取数与结果映射
+        @Signature(type = StatementHandler.class, method = "query", args = {
+                Statement.class,
+                ResultHandler.class
+        }),
+        @Signature(type = StatementHandler.class, method = "update", args = {
+                Statement.class
+        }),
+        @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = {
+                Statement.class
         })
 })
 public class SqlInterceptor implements Interceptor {
 
+    /**
+     * 读取 CachingExecutor 内部的真实执行器, 用于识别 BATCH 执行器
+     */
+    private static final Function<Object, Object> CACHING_DELEGATE = delegateReader();
+
     private final SqlCallTreeContext sqlCallTreeContext;
 
+    private final ResultSizeGuard resultSizeGuard;
+
+    private final QueryGuard queryGuard;
+
+    private final SqlComment sqlComment;
+
+    private final RepeatedReadTracker repeatedReadTracker;
+
+    /**
+     * 按 MappedStatement + 参数类型缓存的参数访问器
+     */
+    private final ParameterAccessors parameterAccessors = new ParameterAccessors();
+
     @Override
     public Object intercept(Invocation invocation) throws Throwable {
-        //* 检查是否启用追踪
-        if (!sqlCallTreeContext.isTraceEnabled()) {
+        //* 检查是否启用追踪; 大结果集保护、查询保护和SQL注释不依赖追踪开关
+        if (!sqlCallTreeContext.isTraceEnabled() && !resultSizeGuard.isActive() && !queryGuard.isEnabled()
+                && !sqlComment.isEnabled()) {
             return invocation.proceed();
         }
 
         Object target = invocation.getTarget();
         if (target instanceof Executor) {
+            if ("flushStatements".equals(invocation.getMethod().getName())) {
+                return interceptFlushStatements(invocation);
+            }
             return interceptExecutor(invocation);
         } else if (target instanceof StatementHandler) {
-            return interceptStatementHandler(invocation);
+            switch (invocation.getMethod().getName()) {
+                case "prepare":
+                    return interceptStatementHandler(invocation);
+                case "query":
+                case "update":
+                    return interceptStatementExecution(invocation);
+                default:
+                    return invocation.proceed();
+            }
+        } else if (target instanceof ResultSetHandler) {
+            return interceptResultSetHandler(invocation);
         }
 
         return invocation.proceed();
@@ -83,8 +149,8 @@ public class SqlInterceptor implements Interceptor {
 
     @Override
     public Object plugin(Object target) {
-        //* 只拦截 Executor 和 StatementHandler
-        if (target instanceof Executor || target instanceof StatementHandler) {
+        //* 只拦截 Executor, StatementHandler 和 ResultSetHandler
+        if (target instanceof Executor || target instanceof StatementHandler || target instanceof ResultSetHandler) {
             //! MyBatis 使用 Plugin类（它实现了 InvocationHandler）来创建代理。
             //! 即使用 JDK 动态代理创建代理对象.
             return Plugin.wrap(target, this);
@@ -92,46 +158,169 @@ public class SqlInterceptor implements Interceptor {
         return target;
     }
 
-    @Override
-    public void setProperties(Properties properties) {
-        if (properties != null) {
-            String slowSqlThreshold = properties.getProperty("slowSqlThreshold");
-            if (slowSqlThreshold != null) {
-                long threshold = Long.parseLong(slowSqlThreshold);
-                if (sqlCallTreeContext != null) {
-                    sqlCallTreeContext.setSlowSqlThreshold(threshold);
-                }
-                log.info("Set threshold for slow query: {}ms", threshold);
-            }
-
-            String traceEnabled = properties.getProperty("traceEnabled");
-            if (traceEnabled != null) {
-                boolean enabled = Boolean.parseBoolean(traceEnabled);
-                if (sqlCallTreeContext != null) {
-                    sqlCallTreeContext.setTraceEnabled(enabled);
-                }
-                log.info("Set SQL trace: {}", enabled ? "Enabled" : "Disabled");
-            }
-        }
-    }
-
     /**
      * 拦截 StatementHandler 准备
      */
     private Object interceptStatementHandler(Invocation invocation) throws Throwable {
+        SqlNode sqlNode = sqlCallTreeContext.currentNode();
+        long start = System.nanoTime();
+        if (sqlNode != null && sqlNode.getPhaseMarkNanos() > 0) {
+            //* 从 Executor 入口到这里的时间, 扣除连接池等待(由 DataSource 单独记录)
+            SqlPhases phases = sqlNode.getPhases();
+            phases.addSetupTime(Math.max(0, toMicros(start - sqlNode.getPhaseMarkNanos()) - phases.getConnectionWaitTime()));
+            sqlNode.setPhaseMarkNanos(0);
+        }
+
+        StatementHandler statementHandler = null;
         try {
-            StatementHandler statementHandler = getStatementHandler(invocation);
+            statementHandler = getStatementHandler(invocation);
             if (statementHandler != null) {
                 BoundSql boundSql = statementHandler.getBoundSql();
                 String sql = boundSql.getSql();
 
+                //* 写操作的节点在 Executor 层创建时还没有 SQL, 这里直接使用 StatementHandler 已构建好的 BoundSql
+                if (sqlNode != null && sqlNode.getSql() == null) {
+                    bindSql(sqlNode, sqlNode.getMappedStatement(), boundSql, boundSql.getParameterObject());
+                }
+
+                //* 节点记录原始SQL(指纹不受影响), 只有发往数据库的语句带注释
+                if (sqlComment.isEnabled()) {
+                    //* BATCH 执行器逐行加入批次时还没有SQL节点, 取当前 Service 调用的 traceparent 和路径
+                    String commented = sqlNode != null
+                            ? sqlComment.decorate(sql, mappedStatementOf(statementHandler, sqlNode), sqlNode.getTraceParent(), sqlNode.getServiceCallPath())
+                            : sqlComment.decorate(sql, mappedStatementOf(statementHandler, null),
+                                    sqlCallTreeContext.currentTraceParent(), sqlCallTreeContext.currentCallPath());
+                    if (commented != sql) {
+                        SystemMetaObject.forObject(boundSql).setValue("sql", commented);
+                        sql = commented;
+                    }
+                }
+
                 log.debug("StatementHandler prepared SQL: {}", sql);
             }
         } catch (Exception e) {
             log.warn("Failed to intercept StatementHandler", e);
         }
 
-        return invocation.proceed();
+        try {
+            Object statement = invocation.proceed();
+            if (sqlNode != null) {
+                //* 连接在准备语句前已获取(或由事务绑定), 记录本线程最近一次路由的目标
+                sqlNode.setDataSourceKey(ReadWriteRouting.currentTarget());
+            }
+            limitRows(statementHandler != null ? mappedStatementOf(statementHandler, sqlNode) : null, statement);
+            applyTimeout(statement);
+            return statement;
+        } finally {
+            if (sqlNode != null) {
+                sqlNode.getPhases().addPrepareTime(toMicros(System.nanoTime() - start));
+            }
+        }
+    }
+
+    private static MappedStatement mappedStatementOf(StatementHandler statementHandler, SqlNode sqlNode) {
+        if (sqlNode != null && sqlNode.getMappedStatement() != null) {
+            return sqlNode.getMappedStatement();
+        }
+        //* RoutingStatementHandler 包装了具体的 StatementHandler, 语句保存在 BaseStatementHandler 中
+        MetaObject metaObject = SystemMetaObject.forObject(statementHandler);
+        if (metaObject.hasGetter("delegate.mappedStatement")) {
+            return (MappedStatement) metaObject.getValue("delegate.mappedStatement");
+        }
+        return metaObject.hasGetter("mappedStatement") ? (MappedStatement) metaObject.getValue("mappedStatement") : null;
+    }
+
+    /**
+     * 截断/拒绝策略下让驱动最多取 maxRows + 1 行, 多出的一行用于判断是否超出预算
+     */
+    private void limitRows(MappedStatement mappedStatement, Object statement) {
+        int maxRows = resultSizeGuard.maxRows();
+        if (maxRows <= 0 || resultSizeGuard.action() == ResultSizeGuard.Action.WARN
+                || mappedStatement == null || mappedStatement.getSqlCommandType() != SqlCommandType.SELECT
+                || !(statement instanceof Statement)) {
+            return;
+        }
+        try {
+            Statement stmt = (Statement) statement;
+            if (stmt.getMaxRows() == 0 || stmt.getMaxRows() > maxRows + 1) {
+                stmt.setMaxRows(maxRows + 1);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to limit rows of statement", e);
+        }
+    }
+
+    /**
+     * 按语句规则设置 JDBC 查询超时; 映射文件或全局 defaultStatementTimeout 已设置更短的超时时保留原值
+     */
+    private void applyTimeout(Object statement) {
+        int timeout = queryGuard.currentTimeout();
+        if (timeout <= 0 || !(statement instanceof Statement)) {
+            return;
+        }
+        try {
+            Statement stmt = (Statement) statement;
+            if (stmt.getQueryTimeout() == 0 || stmt.getQueryTimeout() > timeout) {
+                stmt.setQueryTimeout(timeout);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to set query timeout of statement", e);
+        }
+    }
+
+    /**
+     * 拦截 StatementHandler 执行(query/update)
+     * 查询的耗时中包含 handleResultSets, 扣除后即为数据库端执行时间
+     */
+    private Object interceptStatementExecution(Invocation invocation) throws Throwable {
+        SqlNode sqlNode = sqlCallTreeContext.currentNode();
+        if (sqlNode == null) {
+            return invocation.proceed();
+        }
+
+        SqlPhases phases = sqlNode.getPhases();
+        long resultHandlingBefore = phases.getFetchTime() + phases.getMappingTime();
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            long resultHandling = phases.getFetchTime() + phases.getMappingTime() - resultHandlingBefore;
+            phases.addExecuteTime(Math.max(0, toMicros(System.nanoTime() - start) - resultHandling));
+        }
+    }
+
+    /**
+     * 拦截结果集处理, 区分驱动取数(ResultSet.next)与 MyBatis 结果映射, 并执行大结果集保护
+     */
+    private Object interceptResultSetHandler(Invocation invocation) throws Throwable {
+        SqlNode sqlNode = sqlCallTreeContext.currentNode();
+        int maxRows = resultSizeGuard.maxRows();
+        if (sqlNode == null && !resultSizeGuard.isActive()) {
+            return invocation.proceed();
+        }
+
+        Object[] args = invocation.getArgs();
+        TimedResultSets.FetchMonitor monitor = new TimedResultSets.FetchMonitor(maxRows,
+                rows -> resultSizeGuard.onRowLimitExceeded(sqlNode, rows));
+        args[0] = TimedResultSets.wrap((Statement) args[0], monitor);
+
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = invocation.proceed();
+        } finally {
+            if (sqlNode != null) {
+                long total = toMicros(System.nanoTime() - start);
+                long fetch = toMicros(monitor.getFetchNanos());
+                sqlNode.getPhases().addFetchTime(fetch);
+                sqlNode.getPhases().addMappingTime(Math.max(0, total - fetch));
+            }
+        }
+        return resultSizeGuard.checkBytes(sqlNode, result);
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos / 1_000L;
     }
 
     /**
@@ -175,50 +364,210 @@ public class SqlInterceptor implements Interceptor {
 
     /**
      * 拦截 Executor 执行
+     * 查询: 自己构建一次 BoundSql, 再直接调用带 CacheKey/BoundSql 的重载, 避免 Executor 内部重复构建;
+     * 写操作: Executor 内部才会构建 BoundSql, 节点的 SQL 在 StatementHandler 准备阶段再补上.
+     * 启用查询保护时先申请许可, 被拒绝的语句同样记录为节点(带 rejection), 然后抛出 {@link QueryRejectedException}.
      */
     private Object interceptExecutor(Invocation invocation) throws Throwable {
         Object[] args = invocation.getArgs();
         MappedStatement mappedStatement = (MappedStatement) args[0];
         Object parameter = args[1];
-
-        //* 获取SQL信息
-        BoundSql boundSql = mappedStatement.getBoundSql(parameter);
-        String sql = boundSql.getSql();
         SqlCommandType sqlCommandType = mappedStatement.getSqlCommandType();
 
-        SqlNode sqlNode = createSqlNode(sql, sqlCommandType.name(), boundSql, parameter);
+        boolean query = "query".equals(invocation.getMethod().getName());
+        if (!query && isBatchExecutor(invocation.getTarget())) {
+            //* 逐行加入批次不单独建节点, 在 flushStatements 时整体记录
+            return invocation.proceed();
+        }
+        BoundSql boundSql = null;
+        if (query) {
+            boundSql = args.length == 6 ? (BoundSql) args[5] : mappedStatement.getBoundSql(parameter);
+        }
+
+        SqlNode sqlNode = createSqlNode(mappedStatement, sqlCommandType.name(), boundSql, parameter);
 
         Object result;
         String errorMessage = null;
         int affectedRows = 0;
+        QueryGuard.Permit permit = null;
+        boolean failed = false;
+        long executeStart = 0;
         try {
-            result = invocation.proceed();
+            if (queryGuard.isEnabled()) {
+                permit = queryGuard.acquire(mappedStatement);
+            }
+            //* 隔离舱排队时间不计入准备阶段, 也不算作慢调用
+            executeStart = System.nanoTime();
+            if (sqlNode != null) {
+                sqlNode.setPhaseMarkNanos(executeStart);
+            }
+            if (query && args.length == 4) {
+                Executor executor = (Executor) invocation.getTarget();
+                RowBounds rowBounds = (RowBounds) args[2];
+                CacheKey cacheKey = executor.createCacheKey(mappedStatement, parameter, rowBounds, boundSql);
+                result = executor.query(mappedStatement, parameter, rowBounds, (ResultHandler<?>) args[3], cacheKey, boundSql);
+            } else {
+                result = invocation.proceed();
+            }
             if (result instanceof List) {
                 affectedRows = ((List<?>)result).size();
+                if (sqlNode != null) {
+                    sqlNode.setResultSize(ResultSizeEstimator.estimate(result));
+                }
             } else if (result instanceof Integer) {
                 affectedRows = (Integer)result;
             }
+        } catch (QueryRejectedException e) {
+            errorMessage = e.getMessage();
+            if (sqlNode != null) {
+                sqlNode.setRejection(e.getRejection().name());
+            }
+            log.warn("SQL rejected: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
             errorMessage = e.getMessage();
-            log.error("SQL Execution Exception: {}", sql, e);
+            //* 只有超时、瞬时和连接类错误说明数据库出了问题; 约束违反、结果集超限等是调用方的问题
+            failed = QueryGuard.isBreakerFailure(e);
+            log.error("SQL Execution Exception: {}", sqlNode != null ? sqlNode.getSql() : mappedStatement.getId(), e);
             throw e;
         } finally {
+            if (permit != null) {
+                permit.release(System.nanoTime() - executeStart, failed);
+            }
+            //* 没有经过 StatementHandler 准备阶段(如批量执行复用了已准备的语句)时补上SQL
+            if (sqlNode != null && sqlNode.getSql() == null) {
+                bindSql(sqlNode, mappedStatement, mappedStatement.getBoundSql(parameter), parameter);
+            }
             sqlCallTreeContext.exit(sqlNode, affectedRows, errorMessage);
         }
+        if (query && sqlNode != null && result instanceof List && repeatedReadTracker.isEnabled()) {
+            recordRead(sqlNode, mappedStatement, boundSql, parameter, (List<?>) result);
+        }
         return result;
     }
 
-    private SqlNode createSqlNode(String sql, String sqlType, BoundSql boundSql, Object parameter) {
+    /**
+     * 记录一次成功的查询用于重复读分析, 未记录参数时(record-parameters=false)这里单独提取
+     */
+    private void recordRead(SqlNode sqlNode, MappedStatement mappedStatement, BoundSql boundSql, Object parameter, List<?> rows) {
         try {
-            SqlNode sqlNode = sqlCallTreeContext.enter(sql, sqlType);
-            if (sqlNode != null) {
-                List<Object> parameters = extractParameters(boundSql, parameter);
-                sqlNode.setParameters(parameters);
+            List<Object> parameters = sqlNode.getParameters() != null
+                    ? sqlNode.getParameters() : parameterAccessors.extract(mappedStatement, boundSql, parameter);
+            repeatedReadTracker.record(sqlNode.getFingerprint(), sqlNode.getStatementId(), parameters, rows,
+                    sqlNode.getStatementTime());
+        } catch (Exception e) {
+            log.warn("Failed to record repeated read", e);
+        }
+    }
 
-                String formattedSql = formatSqlWithParameters(sql, parameters);
-                sqlNode.setFormattedSql(formattedSql);
+    /**
+     * 拦截批量执行
+     * 批次中的语句在 update 阶段已准备好, 这里只有 executeBatch, 因此执行结束后再根据 BatchResult 建立节点:
+     * SQL 取批次的语句, affectedRows 为各行影响行数之和, batchSize 为批次条数.
+     */
+    @SuppressWarnings("unchecked")
+    private Object interceptFlushStatements(Invocation invocation) throws Throwable {
+        if (!sqlCallTreeContext.isTraceEnabled() || !isBatchExecutor(invocation.getTarget())) {
+            return invocation.proceed();
+        }
 
-                log.debug("Create SQL Node: type={}, depth={}, sql={}", sqlType, sqlNode.getDepth(), sql);
+        LocalDateTime startTime = LocalDateTime.now();
+        long start = System.nanoTime();
+        List<BatchResult> results = null;
+        String errorMessage = null;
+        try {
+            results = (List<BatchResult>) invocation.proceed();
+            return results;
+        } catch (Exception e) {
+            errorMessage = e.getMessage();
+            throw e;
+        } finally {
+            if (results == null || !results.isEmpty()) {
+                recordBatch(results, startTime, start, errorMessage);
+            }
+        }
+    }
+
+    private void recordBatch(List<BatchResult> results, LocalDateTime startTime, long start, String errorMessage) {
+        long elapsed = toMicros(System.nanoTime() - start);
+        MappedStatement mappedStatement = null;
+        StringJoiner sql = new StringJoiner(";\n");
+        int batchSize = 0;
+        int affectedRows = 0;
+        if (results != null) {
+            for (BatchResult result : results) {
+                mappedStatement = mappedStatement != null ? mappedStatement : result.getMappedStatement();
+                sql.add(result.getSql());
+                batchSize += result.getParameterObjects().size();
+                for (int count : result.getUpdateCounts()) {
+                    affectedRows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                }
+            }
+        }
+
+        String sqlType = mappedStatement != null ? mappedStatement.getSqlCommandType().name() : SqlCommandType.UNKNOWN.name();
+        SqlNode sqlNode = sqlCallTreeContext.enter(results != null ? sql.toString() : null, sqlType);
+        if (sqlNode == null) {
+            return;
+        }
+        sqlNode.setMappedStatement(mappedStatement);
+        sqlNode.setStartTime(startTime);
+        sqlNode.setStartNanos(start);
+        sqlNode.setBatchSize(batchSize);
+        sqlNode.getPhases().addExecuteTime(elapsed);
+        log.debug("Batch flushed: statement={}, batchSize={}, rows={}, time={}us",
+                sqlNode.getStatementId(), batchSize, affectedRows, elapsed);
+        sqlCallTreeContext.exit(sqlNode, affectedRows, errorMessage);
+    }
+
+    /**
+     * 判断目标是否为 BatchExecutor
+     * 二级缓存开启时外层是 CachingExecutor, 其他插件还可能在外面再包一层 JDK 代理
+     */
+    private static boolean isBatchExecutor(Object executor) {
+        Object current = executor;
+        for (int i = 0; i < 8 && current != null; i++) {
+            if (current instanceof BatchExecutor) {
+                return true;
+            }
+            if (current instanceof CachingExecutor) {
+                current = CACHING_DELEGATE.apply(current);
+            } else if (Proxy.isProxyClass(current.getClass())) {
+                MetaObject metaObject = SystemMetaObject.forObject(current);
+                current = metaObject.hasGetter("h.target") ? metaObject.getValue("h.target") : null;
+            } else {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static Function<Object, Object> delegateReader() {
+        try {
+            Field field = CachingExecutor.class.getDeclaredField("delegate");
+            field.setAccessible(true);
+            return executor -> {
+                try {
+                    return field.get(executor);
+                } catch (IllegalAccessException e) {
+                    return null;
+                }
+            };
+        } catch (Exception e) {
+            log.warn("Cannot access CachingExecutor.delegate, batch statements will be traced per row", e);
+            return executor -> null;
+        }
+    }
+
+    private SqlNode createSqlNode(MappedStatement mappedStatement, String sqlType, BoundSql boundSql, Object parameter) {
+        try {
+            SqlNode sqlNode = sqlCallTreeContext.enter(boundSql != null ? boundSql.getSql() : null, sqlType);
+            if (sqlNode != null) {
+                sqlNode.setMappedStatement(mappedStatement);
+                if (boundSql != null) {
+                    bindSql(sqlNode, mappedStatement, boundSql, parameter);
+                }
+                log.debug("Create SQL Node: type={}, depth={}, statement={}", sqlType, sqlNode.getDepth(), mappedStatement.getId());
             }
             return sqlNode;
         } catch (Exception e) {
@@ -227,6 +576,23 @@ public class SqlInterceptor implements Interceptor {
         }
     }
 
+    private void bindSql(SqlNode sqlNode, MappedStatement mappedStatement, BoundSql boundSql, Object parameter) {
+        try {
+            String sql = boundSql.getSql();
+            if (sqlNode.getSql() == null) {
+                sqlNode.bindSql(sql);
+            }
+            if (!sqlCallTreeContext.isRecordParameters()) {
+                return;
+            }
+            List<Object> parameters = parameterAccessors.extract(mappedStatement, boundSql, parameter);
+            sqlNode.setParameters(parameters);
+            sqlNode.setFormattedSql(formatSqlWithParameters(sql, parameters));
+        } catch (Exception e) {
+            log.warn("Failed to extract parameters of SQL", e);
+        }
+    }
+
     /**
      * 格式化SQL语句，替换参数占位符
      * @param sql 原始SQL
@@ -264,39 +630,4 @@ public class SqlInterceptor implements Interceptor {
         }
     }
 
-    /**
-     * 提取SQL参数
-     * @param boundSql BoundSql对象
-     * @param parameter 参数对象
-     * @return 参数列表
-     */
-    private List<Object> extractParameters(BoundSql boundSql, Object parameter) {
-        List<Object> parameters = new ArrayList<>();
-        try {
-            List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
-            if (parameterMappings != null && !parameterMappings.isEmpty() && parameter != null) {
-                MetaObject metaObject = SystemMetaObject.forObject(parameter);
-                for (ParameterMapping parameterMapping : parameterMappings) {
-                    String propertyName = parameterMapping.getProperty();
-                    Object value;
-                    if (metaObject.hasGetter(propertyName)) {
-                        value = metaObject.getValue(propertyName);
-                    } else if (boundSql.hasAdditionalParameter(propertyName)) {
-                        //! 不在原始参数对象（parameter）中直接存在，但被 MyBatis 动态添加到 BoundSql中的额外参数
-                        //! 比如 <foreach> 标签生成的参数
-                        value = boundSql.getAdditionalParameter(propertyName);
-                    } else {
-                        value = null;
-                    }
-                    parameters.add(value);
-                }
-            }
-
-        } catch (Exception e) {
-            log.warn("Failed to extract parameters of SQL", e);
-        }
-        return parameters;
-    }
-
-
 }
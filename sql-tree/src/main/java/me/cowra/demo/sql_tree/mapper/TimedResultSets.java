@@ -0,0 +1,131 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * 为 ResultSetHandler 包装 Statement, 使其返回的 ResultSet 记录 next() 的累计耗时和行数
+ * ResultSet.next 是驱动从数据库拉取数据的地方, handleResultSets 中剩余的时间即为结果映射.
+ * 行数超出预算时回调 {@link RowLimitListener}, 由其决定继续读取、停止读取或抛出异常.
+ */
+final class TimedResultSets {
+
+    private TimedResultSets() {
+    }
+
+    @FunctionalInterface
+    interface RowLimitListener {
+        /**
+         * @param rows 当前已读取的行数
+         * @return true 继续读取, false 停止读取
+         */
+        boolean onLimitExceeded(int rows);
+    }
+
+    /**
+     * 取数监视器, 同一次 handleResultSets 中的所有结果集共用
+     */
+    static final class FetchMonitor {
+        private final int maxRows;
+        private final RowLimitListener listener;
+        private long fetchNanos;
+        private int rows;
+        private boolean exceeded;
+        private boolean stopped;
+
+        FetchMonitor(int maxRows, RowLimitListener listener) {
+            this.maxRows = maxRows;
+            this.listener = listener;
+        }
+
+        long getFetchNanos() {
+            return fetchNanos;
+        }
+
+        int getRows() {
+            return rows;
+        }
+
+        private boolean onRow() {
+            rows++;
+            if (maxRows <= 0 || rows <= maxRows) {
+                return true;
+            }
+            if (!exceeded) {
+                exceeded = true;
+                stopped = !listener.onLimitExceeded(rows);
+            }
+            return !stopped;
+        }
+    }
+
+    static Statement wrap(Statement statement, FetchMonitor monitor) {
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class
+                : Statement.class;
+        return (Statement) Proxy.newProxyInstance(TimedResultSets.class.getClassLoader(),
+                new Class<?>[]{type}, new StatementInvocationHandler(statement, monitor));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static final class StatementInvocationHandler implements InvocationHandler {
+        private final Statement target;
+        private final FetchMonitor monitor;
+
+        StatementInvocationHandler(Statement target, FetchMonitor monitor) {
+            this.target = target;
+            this.monitor = monitor;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = TimedResultSets.invoke(target, method, args);
+            if (result instanceof ResultSet && "getResultSet".equals(method.getName())) {
+                return Proxy.newProxyInstance(TimedResultSets.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, new ResultSetInvocationHandler((ResultSet) result, monitor));
+            }
+            return result;
+        }
+    }
+
+    private static final class ResultSetInvocationHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final FetchMonitor monitor;
+
+        ResultSetInvocationHandler(ResultSet target, FetchMonitor monitor) {
+            this.target = target;
+            this.monitor = monitor;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!"next".equals(method.getName())) {
+                return TimedResultSets.invoke(target, method, args);
+            }
+            if (monitor.stopped) {
+                return false;
+            }
+            long start = System.nanoTime();
+            boolean hasNext;
+            try {
+                hasNext = target.next();
+            } finally {
+                monitor.fetchNanos += System.nanoTime() - start;
+            }
+            return hasNext && monitor.onRow();
+        }
+    }
+}
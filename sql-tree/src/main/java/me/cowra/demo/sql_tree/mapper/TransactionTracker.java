@@ -0,0 +1,145 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.model.ServiceCallInfo;
+import me.cowra.demo.sql_tree.model.TransactionNode;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Consumer;
+
+/**
+ * 把SQL节点归属到所在的 Spring 事务
+ * 事务中第一次执行SQL时建立事务节点, 注册一个事务同步回调记录提交/回滚的开始和结束;
+ * 节点以本对象为键绑定到事务资源上, 之后同一事务中的SQL直接取用. REQUIRES_NEW 挂起外层事务时回调随之解绑/重新绑定,
+ * 内层事务的SQL因此归属到自己的节点.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class TransactionTracker {
+
+    private final TransactionProperties properties;
+
+    /**
+     * 当前线程所处事务的节点, 没有时创建并注册事务同步回调
+     * @param startNanos 事务开始时间, 事务中第一条SQL之前没有记录时传入该SQL的开始时间
+     * @param service 当前 Service 调用, 可以为 null
+     * @param rootService 当前顶层 Service 调用, 可以为 null
+     * @param onCompletion 事务结束后的回调
+     * @return 未启用, 或不在实际的事务中时返回 null
+     */
+    TransactionNode current(long startNanos, ServiceCallInfo service, ServiceCallInfo rootService,
+                            Consumer<TransactionNode> onCompletion) {
+        if (!properties.isEnabled() || !TransactionSynchronizationManager.isSynchronizationActive()
+                || !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        Synchronization synchronization = (Synchronization) TransactionSynchronizationManager.getResource(this);
+        if (synchronization != null) {
+            return synchronization.node;
+        }
+        TransactionNode node = new TransactionNode(TransactionSynchronizationManager.getCurrentTransactionName(),
+                TransactionSynchronizationManager.isCurrentTransactionReadOnly(), startNanos);
+        node.setService(service);
+        node.setRootService(rootService);
+        synchronization = new Synchronization(node, onCompletion);
+        TransactionSynchronizationManager.registerSynchronization(synchronization);
+        TransactionSynchronizationManager.bindResource(this, synchronization);
+        return node;
+    }
+
+    /**
+     * 顶层调用结束时, 它开启的事务还未完成(事务在追踪切面之外开启, 如 @Transactional 代理包在外层),
+     * 把调用树的保存推迟到事务完成之后, 使树中的事务节点带上提交/回滚的耗时
+     * @param rootService 刚结束的顶层调用
+     * @param save 保存调用树
+     * @return 已推迟返回 true; 返回 false 时由调用方立即保存
+     */
+    boolean deferUntilCompletion(ServiceCallInfo rootService, Runnable save) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        Synchronization synchronization = (Synchronization) TransactionSynchronizationManager.getResource(this);
+        if (synchronization == null || synchronization.node.getRootService() != rootService
+                || synchronization.deferred != null) {
+            return false;
+        }
+        synchronization.deferred = save;
+        return true;
+    }
+
+    private final class Synchronization implements TransactionSynchronization {
+
+        private final TransactionNode node;
+        private final Consumer<TransactionNode> onCompletion;
+        private Runnable deferred;
+
+        private Synchronization(TransactionNode node, Consumer<TransactionNode> onCompletion) {
+            this.node = node;
+            this.onCompletion = onCompletion;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(TransactionTracker.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(TransactionTracker.this, this);
+        }
+
+        @Override
+        public void beforeCompletion() {
+            node.beforeCompletion(System.nanoTime());
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(TransactionTracker.this);
+            node.complete(toStatus(status), System.nanoTime(),
+                    properties.getLongThreshold() * 1_000L, properties.getIdleAfterWriteThreshold() * 1_000L);
+            if (node.isFlagged()) {
+                log.warn("Transaction {}: flags={}, status={}, time={}us, sqlTime={}us, gapTime={}us, " +
+                                "maxIdleAfterWrite={}us, sqlCount={}, writeCount={}, service={}",
+                        node.getName() != null ? node.getName() : node.getTransactionId(), node.getFlags(),
+                        node.getStatus(), node.getExecutionTime(), node.getSqlTime(), node.getGapTime(),
+                        node.getMaxIdleAfterWrite(), node.getSqlCount(), node.getWriteCount(),
+                        node.getService() != null ? node.getService().getFullCallPath() : "none");
+            }
+            try {
+                onCompletion.accept(node);
+                if (deferred != null) {
+                    deferred.run();
+                }
+            } catch (Exception e) {
+                log.error("Failed to complete transaction node", e);
+            }
+        }
+    }
+
+    private static TransactionNode.Status toStatus(int status) {
+        switch (status) {
+            case TransactionSynchronization.STATUS_COMMITTED:
+                return TransactionNode.Status.COMMITTED;
+            case TransactionSynchronization.STATUS_ROLLED_BACK:
+                return TransactionNode.Status.ROLLED_BACK;
+            default:
+                return TransactionNode.Status.UNKNOWN;
+        }
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.transactions")
+    public static class TransactionProperties {
+        private boolean enabled = true;             //* 是否把SQL归属到事务节点
+        private long longThreshold = 1000;          //* 长事务阈值(毫秒), 0 表示不检查
+        private long idleAfterWriteThreshold = 100; //* 写后空闲阈值(毫秒), 0 表示不检查
+    }
+}
@@ -0,0 +1,21 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import me.cowra.demo.sql_tree.model.UserLog;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.springframework.stereotype.Repository;
+
+@Mapper
+@Repository
+public interface UserLogMapper {
+
+    /**
+     * 插入一条审计日志
+     * 在 BATCH 执行器下只是加入 JDBC 批次, 由 flushStatements 统一执行
+     */
+    @Insert("""
+            INSERT INTO user_logs (user_id, action, description, created_time)
+            VALUES (#{userId}, #{action}, #{description}, #{createdTime})
+            """)
+    int insert(UserLog userLog);
+}
@@ -26,6 +26,23 @@ public interface UserMapper {
     @Select("SELECT * FROM users WHERE id = #{id}")
     Map<String, Object> findById(@Param("id") Long userId);
 
+    /**
+     * 用户详情的版本: 用户与其订单的最大 updated_time, 以及订单数、订单明细数和最大明细ID
+     * (删除订单不会让最大 updated_time 变化, order_items 没有 updated_time 且明细只增删不改, 用数量和最大ID识别)
+     * 只走主键/user_id/order_id 索引, 比重建详情的整棵查询树便宜得多; 用户不存在时返回 null
+     */
+    @Select("""
+            SELECT
+            u.updated_time AS user_updated,
+            (SELECT MAX(o.updated_time) FROM orders o WHERE o.user_id = u.id) AS orders_updated,
+            (SELECT COUNT(*) FROM orders o WHERE o.user_id = u.id) AS order_count,
+            (SELECT COUNT(*) FROM order_items oi JOIN orders o ON oi.order_id = o.id WHERE o.user_id = u.id) AS item_count,
+            (SELECT MAX(oi.id) FROM order_items oi JOIN orders o ON oi.order_id = o.id WHERE o.user_id = u.id) AS max_item_id
+            FROM users u
+            WHERE u.id = #{userId}
+            """)
+    Map<String, Object> getDetailVersion(@Param("userId") Long userId);
+
     //! 函数 COALESCE(v1, v2, ...) 从左到右寻找第一个非NULL值返回, 如果参数都是 NULL 它也就返回 NULL
     @Select("""
             SELECT
@@ -0,0 +1,25 @@
+package me.cowra.demo.sql_tree.model;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * 批量导入的订单明细(order_items 表)
+ */
+@Data
+public class OrderItemRecord {
+
+    private Long id;
+
+    /**
+     * 所属订单ID, 订单批量插入并回填主键后再设置
+     */
+    private Long orderId;
+
+    private String productName;
+
+    private Integer quantity;
+
+    private BigDecimal price;
+}
@@ -0,0 +1,29 @@
+package me.cowra.demo.sql_tree.model;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量导入的订单(orders 表)及其明细
+ */
+@Data
+public class OrderRecord {
+
+    /**
+     * 数据库生成的主键, 批量插入后由 MyBatis 回填
+     */
+    private Long id;
+
+    private Long userId;
+
+    private String orderNo;
+
+    private BigDecimal totalAmount;
+
+    private String status;
+
+    private List<OrderItemRecord> items = new ArrayList<>();
+}
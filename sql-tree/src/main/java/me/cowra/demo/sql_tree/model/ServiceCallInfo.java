@@ -1,6 +1,11 @@
 package me.cowra.demo.sql_tree.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.LocalDateTime;
@@ -13,26 +18,76 @@ import java.util.UUID;
  * 用于追踪Service层的调用关系
  */
 @Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @Slf4j
 public class ServiceCallInfo {
 
+    //* 调用之间互相引用(parent <-> children), equals/hashCode 只比较ID, toString/JSON 不展开关联对象
+    @EqualsAndHashCode.Include
     private String callId;
     private String serviceName;
     private String methodName;
     private int depth;
 
+    /**
+     * W3C traceparent, 顶层调用取自请求(或新生成), 子调用沿用顶层的值
+     */
+    private String traceParent;
+
+    //* 墙上时间只用于展示, 耗时统一由 System.nanoTime 计算
     private LocalDateTime startTime;
     private LocalDateTime endTime;
+    @JsonIgnore
+    @ToString.Exclude
+    private transient long startNanos;
+
+    /**
+     * 执行耗时(微秒)
+     */
     private long executionTime;
 
+    /**
+     * 该调用直接发出的SQL总耗时(微秒), 不含子调用
+     */
+    private long sqlTime;
+
+    /**
+     * 自身耗时(微秒) = 执行耗时 - 子调用耗时 - 自身SQL耗时, 即该 service 自己的 Java 代码所花的时间
+     */
+    private long selfTime;
+
+    /**
+     * 该调用(含子调用)等待数据库连接池的总时间(微秒)
+     */
+    private long connectionWaitTime;
+
+    @JsonIgnore
+    @ToString.Exclude
+    @Setter(AccessLevel.NONE)
     private ServiceCallInfo parent;
+    @ToString.Exclude
+    @Setter(AccessLevel.NONE)
     private List<ServiceCallInfo> children;
 
     /**
      * 该Service调用产生的SQL节点列表
      */
+    @ToString.Exclude
+    @Setter(AccessLevel.NONE)
     private List<SqlNode> sqlNodes;
 
+    /**
+     * 完整的Service调用路径, 加入父调用时一次性拼好
+     */
+    @Setter(AccessLevel.NONE)
+    private String fullCallPath;
+
+    //* 子树聚合值(含自身), 在添加子调用和SQL节点时沿父链增量更新, 读取为 O(1)
+    @Setter(AccessLevel.NONE)
+    private int totalSqlCount;
+    @Setter(AccessLevel.NONE)
+    private int maxDepth;
+
     /**
      * 构造函数
      */
@@ -41,17 +96,32 @@ public class ServiceCallInfo {
         this.serviceName = serviceName;
         this.methodName = methodName;
         this.depth = depth;
+        this.maxDepth = depth;
+        this.fullCallPath = serviceName + "." + methodName;
         this.startTime = LocalDateTime.now();
+        this.startNanos = System.nanoTime();
         this.children = new ArrayList<>();
         this.sqlNodes = new ArrayList<>();
     }
 
     /**
-     * 设置结束时间并计算执行时间
+     * 设置结束时间并计算执行时间、SQL耗时与自身耗时
+     * 调用退出时所有子调用和SQL都已结束, 这里一次性算出
      */
     public void setEndTime() {
         this.endTime = LocalDateTime.now();
-        this.executionTime = java.time.Duration.between(startTime, endTime).toMillis();
+        this.executionTime = Math.max(0, (System.nanoTime() - startNanos) / 1_000L);
+
+        long childrenTime = 0;
+        for (ServiceCallInfo child : children) {
+            childrenTime += child.getExecutionTime();
+        }
+        long ownSqlTime = 0;
+        for (SqlNode sqlNode : sqlNodes) {
+            ownSqlTime += sqlNode.getExecutionTime();
+        }
+        this.sqlTime = ownSqlTime;
+        this.selfTime = Math.max(0, executionTime - childrenTime - ownSqlTime);
     }
 
     /**
@@ -59,8 +129,13 @@ public class ServiceCallInfo {
      */
     public void addChild(ServiceCallInfo child) {
         if (child != null) {
-            child.setParent(this);
+            child.parent = this;
+            child.fullCallPath = this.fullCallPath + " -> " + child.serviceName + "." + child.methodName;
             this.children.add(child);
+            for (ServiceCallInfo call = this; call != null; call = call.parent) {
+                call.totalSqlCount += child.totalSqlCount;
+                call.maxDepth = Math.max(call.maxDepth, child.maxDepth);
+            }
         }
     }
 
@@ -70,25 +145,25 @@ public class ServiceCallInfo {
     public void addSqlNode(SqlNode sqlNode) {
         if (sqlNode != null) {
             this.sqlNodes.add(sqlNode);
+            for (ServiceCallInfo call = this; call != null; call = call.parent) {
+                call.totalSqlCount++;
+            }
         }
     }
 
     /**
-     * 递归获取完整的Service调用路径
+     * 累加连接池等待时间
      */
-    public String getFullCallPath() {
-        if (parent == null) {
-            return serviceName + "." + methodName;
-        }
-        return parent.getFullCallPath() + " -> " + serviceName + "." + methodName;
+    public void addConnectionWaitTime(long micros) {
+        this.connectionWaitTime += micros;
     }
 
     /**
      * 获取Service调用的简短描述
      */
     public String getShortDescription() {
-        return String.format("%s.%s (depth=%d, time=%dms, SQLs=%d)",
-                serviceName, methodName, depth, executionTime, sqlNodes.size());
+        return String.format("%s.%s (depth=%d, time=%.3fms, self=%.3fms, SQLs=%d)",
+                serviceName, methodName, depth, executionTime / 1000.0, selfTime / 1000.0, sqlNodes.size());
     }
 
     /**
@@ -98,26 +173,4 @@ public class ServiceCallInfo {
         return parent == null;
     }
 
-    /**
-     * 获取该Service调用及其子调用产生的总SQL数量
-     */
-    public int getTotalSqlCount() {
-        int count = sqlNodes.size();
-        for (ServiceCallInfo child : children) {
-            count += child.getTotalSqlCount();
-        }
-        return count;
-    }
-
-    /**
-     * 获取该Service调用的最大深度
-     */
-    public int getMaxDepth() {
-        int maxDepth = this.depth;
-        for (ServiceCallInfo child : children) {
-            maxDepth = Math.max(maxDepth, child.getMaxDepth());
-        }
-        return maxDepth;
-    }
-
 }
@@ -1,7 +1,15 @@
 package me.cowra.demo.sql_tree.model;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
+import me.cowra.demo.sql_tree.stats.SqlFingerprint;
+import me.cowra.demo.sql_tree.trace.TraceParent;
+import org.apache.ibatis.mapping.MappedStatement;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
@@ -14,19 +22,39 @@ import java.util.UUID;
  * 用于构建SQL调用树的基本数据结构
  */
 @Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 public class SqlNode {
 
+    //* equals/hashCode 只比较节点ID, 不递归子节点
+    @EqualsAndHashCode.Include
     private String nodeId;
 
     private String sql;
 
     private String formattedSql;
 
+    /**
+     * SQL指纹(与参数值无关的归一化SQL), 用于按语句类别聚合统计
+     */
+    private String fingerprint;
+
     /**
      * SQL类型(SELECT, INSERT, UPDATE, DELETE)
      */
     private String sqlType;
 
+    /**
+     * 产生该节点的 MyBatis 语句, 仅在执行期间使用, 不参与序列化
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    private transient MappedStatement mappedStatement;
+
+    /**
+     * 实际执行该语句的数据源(primary 或副本名), 未启用读写分离时为 null
+     */
+    private String dataSourceKey;
+
     private int depth; //* 调用深度
 
     private String threadName;
@@ -34,26 +62,97 @@ public class SqlNode {
     private String methodName;  //* service 方法名
     private String serviceCallPath; //* service 调用路径
 
+    /**
+     * 所属顶层 Service 调用的 W3C traceparent, 与执行SQL前的注释一致, 用于关联数据库端的慢日志/processlist
+     */
+    private String traceParent;
+
+    //* 墙上时间只用于展示, 耗时统一由 System.nanoTime 计算, 不受系统时钟回拨影响
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS")
     private LocalDateTime startTime;
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss.SSS")
     private LocalDateTime endTime;
 
-    //* 执行耗时
+    @JsonIgnore
+    @ToString.Exclude
+    private transient long startNanos;
+
+    //* 执行耗时(微秒)
     private long executionTime;
 
     private boolean slowSql;
 
+    /**
+     * 判定慢SQL时使用的阈值(微秒), 为该指纹的自适应基线与固定阈值中的较大者
+     */
+    private long slowThreshold;
+
     private int affectedRows;
 
+    /**
+     * JDBC 批次中的语句条数, 非批量执行时为 0
+     */
+    private int batchSize;
+
+    /**
+     * 查询结果估算占用字节数
+     */
+    private long resultSize;
+
+    /**
+     * 大结果集保护的处理结果(WARN, TRUNCATED, REJECTED), 未触发时为 null
+     */
+    private String resultGuard;
+
+    /**
+     * 被查询保护拒绝的原因(CIRCUIT_OPEN, BULKHEAD_FULL), 此时语句未发往数据库; 正常执行时为 null
+     */
+    private String rejection;
+
     private String errorMessage;
 
     private List<Object> parameters;    //* SQL参数
 
+    /**
+     * 各执行阶段耗时
+     */
+    private SqlPhases phases;
+
+    /**
+     * 阶段计时的起点(System.nanoTime), 由拦截器在交给 Executor 执行前设置
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    private transient long phaseMarkNanos;
+
+    /**
+     * 所在的事务, 不在事务中执行时为 null; 冻结时按事务汇总, 不随节点序列化
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    private transient TransactionNode transaction;
 
+
+    @ToString.Exclude
+    @Setter(AccessLevel.NONE)
     private List<SqlNode> children; //* 子节点列表
     private String parentId;    //* 父节点ID
 
+    @JsonIgnore
+    @ToString.Exclude
+    @Setter(AccessLevel.NONE)
+    private transient SqlNode parent;
+
+    //* 子树聚合值(含自身), 在添加子节点、结束计时和标记慢SQL时沿父链增量更新, 读取为 O(1)
+    @Setter(AccessLevel.NONE)
+    private int totalNodeCount = 1;
+    @Setter(AccessLevel.NONE)
+    private int maxDepth;
+    @Setter(AccessLevel.NONE)
+    private int slowSqlCount;
+    @Setter(AccessLevel.NONE)
+    private long totalExecutionTime;
+
     /**
      * 构造函数
      */
@@ -61,7 +160,9 @@ public class SqlNode {
         this.nodeId = UUID.randomUUID().toString();
         this.children = new ArrayList<>();
         this.parameters = new ArrayList<>();
+        this.phases = new SqlPhases();
         this.startTime = LocalDateTime.now();
+        this.startNanos = System.nanoTime();
         this.threadName = Thread.currentThread().getName();
     }
 
@@ -73,38 +174,90 @@ public class SqlNode {
      */
     public SqlNode(String sql, String sqlType, int depth) {
         this();
-        this.sql = sql;
         this.sqlType = sqlType;
-        this.depth = depth;
+        setDepth(depth);
+        bindSql(sql);
+    }
+
+    /**
+     * 绑定SQL语句
+     * 写操作的 SQL 在 StatementHandler 准备阶段才取得, 节点创建时可能为空
+     * @param sql SQL语句
+     */
+    public void bindSql(String sql) {
+        this.sql = sql;
         this.formattedSql = formatSql(sql);
+        this.fingerprint = sql != null ? SqlFingerprint.of(sql) : null;
     }
 
     public void addChild(SqlNode child) {
         if (child != null) {
             child.setParentId(this.nodeId);
+            child.parent = this;
             this.children.add(child);
+            for (SqlNode node = this; node != null; node = node.parent) {
+                node.totalNodeCount += child.totalNodeCount;
+                node.maxDepth = Math.max(node.maxDepth, child.maxDepth);
+                node.slowSqlCount += child.slowSqlCount;
+                node.totalExecutionTime += child.totalExecutionTime;
+            }
+        }
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+        this.maxDepth = Math.max(maxDepth, depth);
+    }
+
+    public void setExecutionTime(long executionTime) {
+        long delta = executionTime - this.executionTime;
+        this.executionTime = executionTime;
+        for (SqlNode node = this; node != null; node = node.parent) {
+            node.totalExecutionTime += delta;
+        }
+    }
+
+    public void setSlowSql(boolean slowSql) {
+        if (this.slowSql == slowSql) {
+            return;
+        }
+        this.slowSql = slowSql;
+        for (SqlNode node = this; node != null; node = node.parent) {
+            node.slowSqlCount += slowSql ? 1 : -1;
         }
     }
 
+    /**
+     * 获取 MyBatis 语句ID(Mapper全限定名.方法名)
+     */
+    public String getStatementId() {
+        return mappedStatement != null ? mappedStatement.getId() : null;
+    }
+
+    /**
+     * traceparent 中的 trace-id(32位hex)
+     */
+    public String getTraceId() {
+        return TraceParent.traceIdOf(traceParent);
+    }
+
     public List<SqlNode> getChildren() {
         return this.children;
     }
 
     public void setEndTime() {
         this.endTime = LocalDateTime.now();
-        this.executionTime = calculateExecutionTime();
+        setExecutionTime(Math.max(0, (System.nanoTime() - startNanos) / 1_000L));
     }
 
+    /**
+     * 使用外部给定的结束时间(只有墙上时间可用时)
+     */
     public void setEndTime(LocalDateTime endTime) {
         this.endTime = endTime;
-        this.executionTime = calculateExecutionTime();
-    }
-
-    private long calculateExecutionTime() {
         if (startTime != null && endTime != null) {
-            return Duration.between(startTime, endTime).toMillis();
+            setExecutionTime(Math.max(0, Duration.between(startTime, endTime).toNanos() / 1_000L));
         }
-        return 0;
     }
 
     /**
@@ -128,19 +281,28 @@ public class SqlNode {
 
     /**
      * 判断是否为慢SQL
-     * @param threshold 慢SQL阈值(毫秒)
+     * @param threshold 慢SQL阈值(微秒)
      * @return 是否为慢SQL
      */
     public boolean isSlowSql(long threshold) {
-        return this.executionTime > threshold;
+        return getStatementTime() > threshold;
+    }
+
+    /**
+     * 语句本身的耗时(微秒), 即执行时间扣除连接池等待
+     * @return 语句耗时
+     */
+    public long getStatementTime() {
+        long wait = phases != null ? phases.getConnectionWaitTime() : 0;
+        return Math.max(0, this.executionTime - wait);
     }
 
     /**
      * 设置慢SQL标记
-     * @param threshold 慢SQL阈值(毫秒)
+     * @param threshold 慢SQL阈值(微秒)
      */
     public void markSlowSql(long threshold) {
-        this.slowSql = isSlowSql(threshold);
+        setSlowSql(isSlowSql(threshold));
     }
 
     /**
@@ -150,54 +312,4 @@ public class SqlNode {
     public boolean isSlowSql() {
         return this.slowSql;
     }
-
-    /**
-     * 递归获取节点总数(包括子节点)
-     * @return 节点总数
-     */
-    public int getTotalNodeCount() {
-        int count = 1; // 当前节点
-        for (SqlNode child : children) {
-            count += child.getTotalNodeCount();
-        }
-        return count;
-    }
-
-    /**
-     * 递归获取最大深度
-     * @return 最大深度
-     */
-    public int getMaxDepth() {
-        int maxDepth = this.depth;
-        for (SqlNode child : children) {
-            maxDepth = Math.max(maxDepth, child.getMaxDepth());
-        }
-        return maxDepth;
-    }
-
-    /**
-     * 递归获取慢SQL节点数量
-     * @return 慢SQL节点数量
-     */
-    public int getSlowSqlCount() {
-        int count = this.slowSql ? 1 : 0;
-        for (SqlNode child : children) {
-            count += child.getSlowSqlCount();
-        }
-        return count;
-    }
-
-    /**
-     * 递归获取总执行时间(包括子节点)
-     * @return 总执行时间(毫秒)
-     */
-    public long getTotalExecutionTime() {
-        long totalTime = this.executionTime;
-        for (SqlNode child : children) {
-            totalTime += child.getTotalExecutionTime();
-        }
-        return totalTime;
-    }
 }
-
-
@@ -0,0 +1,66 @@
+package me.cowra.demo.sql_tree.model;
+
+import lombok.Data;
+
+/**
+ * SQL执行阶段耗时(微秒)
+ * 由拦截器在 Executor / StatementHandler / ResultSetHandler 各层分别计时,
+ * 用于判断时间花在数据库、驱动取数还是 MyBatis 结果映射上.
+ */
+@Data
+public class SqlPhases {
+
+    /**
+     * 从连接池获取连接的等待时间
+     */
+    private long connectionWaitTime;
+
+    /**
+     * Executor 入口到 StatementHandler.prepare 之间除连接池等待外的时间(缓存键、一级缓存查找等)
+     */
+    private long setupTime;
+
+    /**
+     * StatementHandler.prepare: 创建 PreparedStatement
+     */
+    private long prepareTime;
+
+    /**
+     * 语句在数据库端执行(查询为 execute, 写操作为 executeUpdate)
+     */
+    private long executeTime;
+
+    /**
+     * 遍历 ResultSet(ResultSet.next), 即驱动从数据库拉取数据
+     */
+    private long fetchTime;
+
+    /**
+     * MyBatis 结果映射(handleResultSets 中除去取数的部分)
+     */
+    private long mappingTime;
+
+    public void addConnectionWaitTime(long micros) {
+        this.connectionWaitTime += micros;
+    }
+
+    public void addSetupTime(long micros) {
+        this.setupTime += micros;
+    }
+
+    public void addPrepareTime(long micros) {
+        this.prepareTime += micros;
+    }
+
+    public void addExecuteTime(long micros) {
+        this.executeTime += micros;
+    }
+
+    public void addFetchTime(long micros) {
+        this.fetchTime += micros;
+    }
+
+    public void addMappingTime(long micros) {
+        this.mappingTime += micros;
+    }
+}
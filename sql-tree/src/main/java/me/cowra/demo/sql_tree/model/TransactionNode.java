@@ -0,0 +1,191 @@
+package me.cowra.demo.sql_tree.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 事务节点
+ * 同一个 Spring 事务中执行的SQL归属到一个事务节点, 记录事务从开始到提交/回滚结束的耗时, 以及其中不在执行SQL的时间.
+ * 事务期间一直占用连接, 写操作之后还持有行锁; 事务越长、写之后空闲越久, 其他事务等锁的时间就越长.
+ * 只在开启事务的线程上更新, 不需要同步.
+ */
+@Data
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+public class TransactionNode {
+
+    /**
+     * 事务总耗时超过阈值
+     */
+    public static final String FLAG_LONG_TRANSACTION = "LONG_TRANSACTION";
+    /**
+     * 写操作之后空闲(两条SQL之间, 或最后一条SQL到提交之间)超过阈值, 期间行锁一直被持有
+     */
+    public static final String FLAG_IDLE_AFTER_WRITE = "IDLE_AFTER_WRITE";
+
+    public enum Status {
+        ACTIVE, COMMITTED, ROLLED_BACK, UNKNOWN
+    }
+
+    @EqualsAndHashCode.Include
+    private String transactionId;
+
+    /**
+     * 事务名, 声明式事务为 类名.方法名; TransactionTemplate 未命名时为 null
+     */
+    private String name;
+
+    private boolean readOnly;
+
+    /**
+     * 开启事务时所在的 Service 调用, 事务在所有 Service 之外开启时为 null
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    private transient ServiceCallInfo service;
+
+    /**
+     * 开启事务时所在的顶层 Service 调用
+     */
+    @JsonIgnore
+    @ToString.Exclude
+    private transient ServiceCallInfo rootService;
+
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private transient long startNanos;
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private transient long lastSqlEndNanos;
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private transient long completionStartNanos;
+
+    //* 以下时间均为微秒
+    /**
+     * 从开始到提交/回滚结束
+     */
+    @Setter(AccessLevel.NONE)
+    private long executionTime;
+    /**
+     * 提交或回滚本身的耗时
+     */
+    @Setter(AccessLevel.NONE)
+    private long completionTime;
+    /**
+     * 事务内SQL的总耗时
+     */
+    @Setter(AccessLevel.NONE)
+    private long sqlTime;
+    /**
+     * 事务内不在执行SQL、也不在提交/回滚的时间 = executionTime - sqlTime - completionTime
+     */
+    @Setter(AccessLevel.NONE)
+    private long gapTime;
+    /**
+     * 第一次写之后, 相邻两条SQL之间(含最后一条SQL到开始提交)的最长空闲
+     */
+    @Setter(AccessLevel.NONE)
+    private long maxIdleAfterWrite;
+
+    @Setter(AccessLevel.NONE)
+    private int sqlCount;
+    /**
+     * 写语句条数, JDBC 批次按批次中的条数计
+     */
+    @Setter(AccessLevel.NONE)
+    private int writeCount;
+    @Setter(AccessLevel.NONE)
+    private long writtenRows;
+
+    @Setter(AccessLevel.NONE)
+    private Status status = Status.ACTIVE;
+
+    @Setter(AccessLevel.NONE)
+    private List<String> flags = new ArrayList<>();
+
+    /**
+     * @param startNanos 事务开始时间(System.nanoTime), 取开启事务时获取连接的时刻, 没有时取第一条SQL的开始时间
+     */
+    public TransactionNode(String name, boolean readOnly, long startNanos) {
+        this.transactionId = UUID.randomUUID().toString();
+        this.name = name;
+        this.readOnly = readOnly;
+        this.startNanos = startNanos;
+        this.lastSqlEndNanos = startNanos;
+    }
+
+    /**
+     * 事务内的一条SQL执行结束
+     */
+    public void onSqlEnd(SqlNode node) {
+        long start = node.getStartNanos();
+        if (sqlCount == 0 && start < startNanos) {
+            //* 批次节点在执行后才建立, 开始时间可能早于事务节点的创建
+            startNanos = start;
+            lastSqlEndNanos = start;
+        }
+        noteIdle(start);
+        sqlCount++;
+        sqlTime += node.getExecutionTime();
+        if (isWrite(node.getSqlType())) {
+            writeCount += Math.max(1, node.getBatchSize());
+            writtenRows += node.getAffectedRows();
+        }
+        lastSqlEndNanos = Math.max(lastSqlEndNanos, start + node.getExecutionTime() * 1_000L);
+    }
+
+    /**
+     * 开始提交或回滚
+     */
+    public void beforeCompletion(long nanos) {
+        if (completionStartNanos == 0) {
+            completionStartNanos = nanos;
+            noteIdle(nanos);
+        }
+    }
+
+    /**
+     * 提交或回滚结束, 计算耗时并标记风险
+     * @param longThreshold 长事务阈值(微秒), 0 表示不检查
+     * @param idleAfterWriteThreshold 写后空闲阈值(微秒), 0 表示不检查
+     */
+    public void complete(Status status, long nanos, long longThreshold, long idleAfterWriteThreshold) {
+        beforeCompletion(nanos);
+        this.status = status;
+        this.executionTime = Math.max(0, (nanos - startNanos) / 1_000L);
+        this.completionTime = Math.max(0, (nanos - completionStartNanos) / 1_000L);
+        this.gapTime = Math.max(0, executionTime - sqlTime - completionTime);
+        if (longThreshold > 0 && executionTime > longThreshold) {
+            flags.add(FLAG_LONG_TRANSACTION);
+        }
+        if (idleAfterWriteThreshold > 0 && maxIdleAfterWrite > idleAfterWriteThreshold) {
+            flags.add(FLAG_IDLE_AFTER_WRITE);
+        }
+    }
+
+    public boolean isCompleted() {
+        return status != Status.ACTIVE;
+    }
+
+    public boolean isFlagged() {
+        return !flags.isEmpty();
+    }
+
+    private void noteIdle(long untilNanos) {
+        if (writeCount > 0) {
+            maxIdleAfterWrite = Math.max(maxIdleAfterWrite, (untilNanos - lastSqlEndNanos) / 1_000L);
+        }
+    }
+
+    private static boolean isWrite(String sqlType) {
+        return "INSERT".equals(sqlType) || "UPDATE".equals(sqlType) || "DELETE".equals(sqlType);
+    }
+}
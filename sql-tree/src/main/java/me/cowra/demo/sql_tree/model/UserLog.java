@@ -0,0 +1,29 @@
+package me.cowra.demo.sql_tree.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 用户访问审计日志(user_logs 表)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserLog {
+
+    private Long id;
+
+    private Long userId;
+
+    private String action;
+
+    private String description;
+
+    /**
+     * 事件发生时间, 而不是写入时间(写入是异步批量进行的)
+     */
+    private LocalDateTime createdTime;
+}
@@ -0,0 +1,175 @@
+package me.cowra.demo.sql_tree.service;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.datasource.ReadWriteRouting;
+import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
+import me.cowra.demo.sql_tree.trace.TraceParent;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 数据库工作的隔离舱
+ * 异步接口把数据库调用交给这里的专用线程池执行, Tomcat 工作线程立即返回, 数据库饱和时 HTTP 层仍能响应.
+ * 线程数默认等于连接池最大连接数, 工作线程不会在连接池上排队; 超出的任务进入有界队列,
+ * 队列满时立即拒绝, 排队超过 queue-timeout 的任务不再执行, 两种情况都以 {@link DatabaseBusyException} 结束.
+ * 每个任务在工作线程上沿用提交请求的 traceparent, 并各自开一个追踪范围, 调用树与同步接口一样按请求保存.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class DatabaseBulkhead {
+
+    public enum Rejection {
+        QUEUE_FULL,     //* 等待队列已满
+        QUEUE_TIMEOUT   //* 排队超时
+    }
+
+    private final DataSource dataSource;
+    private final SqlCallTreeContext sqlCallTreeContext;
+    private final AsyncDbProperties properties;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        int threads = properties.getThreads() > 0 ? properties.getThreads() : connectionPoolSize();
+        AtomicInteger sequence = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()), task -> {
+                    Thread thread = new Thread(task, "db-worker-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        log.info("Database bulkhead started: threads={}, queueCapacity={}, queueTimeout={}ms, requestTimeout={}ms",
+                threads, properties.getQueueCapacity(), properties.getQueueTimeout(), properties.getRequestTimeout());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(properties.getShutdownTimeout(), TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+        log.info("Database bulkhead stopped: {}", getStatistics());
+    }
+
+    /**
+     * 连接池最大连接数, 取不到(如读写分离时的路由数据源)时使用 Hikari 的默认值 10
+     */
+    private int connectionPoolSize() {
+        HikariDataSource hikari = DataSourceUnwrapper.unwrap(dataSource, HikariConfigMXBean.class, HikariDataSource.class);
+        //* 连接池尚未初始化时 maximumPoolSize 可能仍是未校验的 -1, 此时取 Hikari 的默认值 10
+        return hikari != null && hikari.getMaximumPoolSize() > 0 ? hikari.getMaximumPoolSize() : 10;
+    }
+
+    /**
+     * 提交数据库工作
+     * @param requestName 请求名称, 工作中不在 Service 里执行的SQL以它作为虚拟根调用保存
+     * @param work 数据库工作, 在工作线程上执行
+     * @return 工作结果; 被拒绝或排队超时时以 {@link DatabaseBusyException} 异常结束.
+     *         在开始执行前取消(如请求已超时)的任务不再执行
+     */
+    public <T> CompletableFuture<T> submit(String requestName, Supplier<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        try {
+            executor.execute(TraceParent.propagate(() -> run(requestName, work, future, submitted)));
+        } catch (RejectedExecutionException e) {
+            long count = rejected.incrementAndGet();
+            if ((count & (count - 1)) == 0) {
+                //* 按 2 的幂次打印, 避免持续饱和时刷屏
+                log.warn("Database bulkhead is full, {} request(s) rejected so far", count);
+            }
+            future.completeExceptionally(new DatabaseBusyException(Rejection.QUEUE_FULL,
+                    "Database is busy: " + properties.getQueueCapacity() + " requests already queued"));
+        }
+        return future;
+    }
+
+    private <T> void run(String requestName, Supplier<T> work, CompletableFuture<T> future, long submitted) {
+        if (future.isDone()) {
+            cancelled.incrementAndGet();
+            return;
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted);
+        if (waited > properties.getQueueTimeout()) {
+            expired.incrementAndGet();
+            future.completeExceptionally(new DatabaseBusyException(Rejection.QUEUE_TIMEOUT,
+                    "Database is busy: queued for " + waited + "ms"));
+            return;
+        }
+        T result = null;
+        Throwable error = null;
+        sqlCallTreeContext.openScope();
+        try {
+            result = work.get();
+        } catch (Throwable e) {
+            error = e;
+        } finally {
+            completed.incrementAndGet();
+            sqlCallTreeContext.closeScope(requestName);
+            ReadWriteRouting.reset();
+        }
+        //* 范围关闭(树已保存)后再完成, 调用方拿到响应时即可按 traceparent 查到调用树
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(result);
+        }
+    }
+
+    /**
+     * 异步请求等待结果的总时间(毫秒), 含排队和执行
+     */
+    public long getRequestTimeout() {
+        return properties.getRequestTimeout();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("threads", executor.getMaximumPoolSize());
+        statistics.put("active", executor.getActiveCount());
+        statistics.put("queued", executor.getQueue().size());
+        statistics.put("queueCapacity", properties.getQueueCapacity());
+        statistics.put("completed", completed.get());
+        statistics.put("rejected", rejected.get());
+        statistics.put("expired", expired.get());
+        statistics.put("cancelled", cancelled.get());
+        return statistics;
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "async-db")
+    public static class AsyncDbProperties {
+        private int threads = 0;                //* 工作线程数, 0 表示等于连接池最大连接数
+        private int queueCapacity = 200;        //* 等待队列容量, 满了立即拒绝
+        private long queueTimeout = 2000;       //* 最长排队时间(毫秒), 超过后不再执行
+        private long requestTimeout = 5000;     //* 异步请求的总超时(毫秒)
+        private long shutdownTimeout = 5000;    //* 关闭时等待进行中任务的时间(毫秒)
+    }
+}
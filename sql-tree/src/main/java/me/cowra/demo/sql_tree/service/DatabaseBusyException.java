@@ -0,0 +1,17 @@
+package me.cowra.demo.sql_tree.service;
+
+import lombok.Getter;
+
+/**
+ * 数据库工作线程全忙且等待队列已满, 或任务排队超时, 请求未执行
+ */
+@Getter
+public class DatabaseBusyException extends RuntimeException {
+
+    private final DatabaseBulkhead.Rejection rejection;
+
+    public DatabaseBusyException(DatabaseBulkhead.Rejection rejection, String message) {
+        super(message);
+        this.rejection = rejection;
+    }
+}
@@ -0,0 +1,159 @@
+package me.cowra.demo.sql_tree.service;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.cowra.demo.sql_tree.model.OrderItemRecord;
+import me.cowra.demo.sql_tree.model.OrderRecord;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 订单导入的流式解析
+ * 两种格式都逐条读取请求体, 内存中只保留当前订单:
+ * NDJSON: 每行一个订单 {"userId":1,"orderNo":"...","totalAmount":1.0,"status":"...","items":[{...}]}
+ * CSV: 首行为表头, 每行一个明细, order_no 相同的连续行属于同一订单,
+ * 列为 order_no,user_id,total_amount,status,product_name,quantity,price (顺序任意).
+ */
+public final class OrderImportReader {
+
+    private OrderImportReader() {
+    }
+
+    public static Iterator<OrderRecord> ndjson(InputStream in, ObjectMapper objectMapper) throws IOException {
+        MappingIterator<OrderRecord> iterator = objectMapper.readerFor(OrderRecord.class).readValues(in);
+        return iterator;
+    }
+
+    public static Iterator<OrderRecord> csv(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if (header == null) {
+            return new ArrayList<OrderRecord>().iterator();
+        }
+        return new CsvOrderIterator(reader, columns(split(header)));
+    }
+
+    private static Map<String, Integer> columns(List<String> header) {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim().toLowerCase(), i);
+        }
+        for (String required : new String[]{"order_no", "user_id", "total_amount", "product_name", "quantity", "price"}) {
+            if (!columns.containsKey(required)) {
+                throw new IllegalArgumentException("Missing CSV column: " + required);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * 拆分一行 CSV, 支持双引号包裹的字段及 "" 转义
+     */
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static final class CsvOrderIterator implements Iterator<OrderRecord> {
+        private final BufferedReader reader;
+        private final Map<String, Integer> columns;
+        //* 读到的下一个订单的第一行, 用于判断订单边界
+        private List<String> pending;
+        private int lineNumber = 1;
+
+        CsvOrderIterator(BufferedReader reader, Map<String, Integer> columns) {
+            this.reader = reader;
+            this.columns = columns;
+            this.pending = readRow();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pending != null;
+        }
+
+        @Override
+        public OrderRecord next() {
+            if (pending == null) {
+                throw new NoSuchElementException();
+            }
+            OrderRecord order = new OrderRecord();
+            order.setOrderNo(get(pending, "order_no"));
+            order.setUserId(Long.valueOf(get(pending, "user_id")));
+            order.setTotalAmount(new BigDecimal(get(pending, "total_amount")));
+            order.setStatus(get(pending, "status"));
+            do {
+                order.getItems().add(item(pending));
+                pending = readRow();
+            } while (pending != null && order.getOrderNo().equals(get(pending, "order_no")));
+            return order;
+        }
+
+        private OrderItemRecord item(List<String> row) {
+            OrderItemRecord item = new OrderItemRecord();
+            item.setProductName(get(row, "product_name"));
+            item.setQuantity(Integer.valueOf(get(row, "quantity")));
+            item.setPrice(new BigDecimal(get(row, "price")));
+            return item;
+        }
+
+        private String get(List<String> row, String column) {
+            Integer index = columns.get(column);
+            if (index == null || index >= row.size()) {
+                return null;
+            }
+            String value = row.get(index).trim();
+            return value.isEmpty() ? null : value;
+        }
+
+        private List<String> readRow() {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (!line.isBlank()) {
+                        return split(line);
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read CSV at line " + lineNumber, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package me.cowra.demo.sql_tree.service;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.mapper.OrderMapper;
+import me.cowra.demo.sql_tree.model.OrderItemRecord;
+import me.cowra.demo.sql_tree.model.OrderRecord;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 订单批量导入
+ * 按 chunk-size 个订单为一个事务: 先以 JDBC 批次插入订单并回填主键, 再把主键写入明细后批量插入明细.
+ * 每次 flushStatements 在调用树中只对应一个节点, 一个事务两个节点.
+ * 已提交的 chunk 不会因后续 chunk 失败而回滚, 结果中会给出已导入的数量和错误信息.
+ */
+@Slf4j
+@Service
+public class OrderImportService {
+
+    private static final String DEFAULT_STATUS = "PENDING";
+
+    private final SqlSessionTemplate batchSqlSession;
+    private final TransactionTemplate transactionTemplate;
+    private final OrderImportProperties properties;
+
+    public OrderImportService(SqlSessionFactory sqlSessionFactory,
+                              PlatformTransactionManager transactionManager,
+                              OrderImportProperties properties) {
+        //* 绑定到 Spring 事务的 BATCH 会话, 同一事务内的语句共享一个 BatchExecutor
+        this.batchSqlSession = new SqlSessionTemplate(sqlSessionFactory, ExecutorType.BATCH);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = properties;
+    }
+
+    /**
+     * 导入订单
+     * @param orders 流式解析得到的订单
+     * @return 导入结果
+     */
+    public ImportResult importOrders(Iterator<OrderRecord> orders) {
+        ImportResult result = new ImportResult();
+        long start = System.nanoTime();
+        List<OrderRecord> chunk = new ArrayList<>(properties.getChunkSize());
+        try {
+            while (orders.hasNext()) {
+                chunk.add(orders.next());
+                if (chunk.size() >= properties.getChunkSize()) {
+                    writeChunk(chunk, result);
+                }
+            }
+            writeChunk(chunk, result);
+        } catch (Exception e) {
+            log.error("Order import stopped after {} orders", result.getOrders(), e);
+            result.setError(e.getMessage());
+        }
+        result.complete(System.nanoTime() - start);
+        log.info("Order import: orders={}, items={}, chunks={}, time={}ms, rows/sec={}",
+                result.getOrders(), result.getItems(), result.getChunks(), result.getElapsedMillis(),
+                String.format("%.0f", result.getRowsPerSecond()));
+        return result;
+    }
+
+    private void writeChunk(List<OrderRecord> chunk, ImportResult result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        int items = transactionTemplate.execute(status -> {
+            OrderMapper mapper = batchSqlSession.getMapper(OrderMapper.class);
+            for (OrderRecord order : chunk) {
+                if (order.getStatus() == null) {
+                    order.setStatus(DEFAULT_STATUS);
+                }
+                mapper.insertOrder(order);
+            }
+            //* 执行订单批次, Jdbc3KeyGenerator 在此时回填各订单的主键
+            batchSqlSession.flushStatements();
+
+            int count = 0;
+            for (OrderRecord order : chunk) {
+                if (order.getId() == null) {
+                    throw new IllegalStateException("No generated key for order " + order.getOrderNo());
+                }
+                for (OrderItemRecord item : order.getItems()) {
+                    item.setOrderId(order.getId());
+                    mapper.insertOrderItem(item);
+                    count++;
+                }
+            }
+            batchSqlSession.flushStatements();
+            return count;
+        });
+        result.add(chunk.size(), items);
+        chunk.clear();
+    }
+
+    @Data
+    public static class ImportResult {
+        private long orders;
+        private long items;
+        private int chunks;
+        private long elapsedMillis;
+        private double rowsPerSecond;   //* (订单 + 明细) 行数 / 秒
+        private String error;
+
+        void add(int orders, int items) {
+            this.orders += orders;
+            this.items += items;
+            this.chunks++;
+        }
+
+        void complete(long elapsedNanos) {
+            this.elapsedMillis = elapsedNanos / 1_000_000L;
+            this.rowsPerSecond = elapsedNanos > 0 ? (orders + items) * 1e9 / elapsedNanos : 0;
+        }
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "order-import")
+    public static class OrderImportProperties {
+        private int chunkSize = 500;    //* 每个事务导入的订单数
+    }
+}
@@ -0,0 +1,94 @@
+package me.cowra.demo.sql_tree.service;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户详情响应的字节缓存
+ * 以用户ID为键, 保存最近一次序列化好的响应及其 ETag; 读取时 ETag 与当前版本一致才命中,
+ * 数据变化后旧条目自然失效, 不需要在写入时主动清除. 条目数有上限, 按最近访问淘汰(LRU).
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class UserDetailCache {
+
+    private final UserDetailCacheProperties properties;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private Map<Long, Entry> entries;
+
+    @PostConstruct
+    public void init() {
+        int maxEntries = properties.getMaxEntries();
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        log.info("User detail cache: enabled={}, maxEntries={}", properties.isEnabled(), maxEntries);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * @return 与 etag 对应的响应字节, 没有或已过期时为 null
+     */
+    public byte[] get(Long userId, String etag) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(userId);
+        }
+        if (entry != null && entry.etag.equals(etag)) {
+            hits.incrementAndGet();
+            return entry.body;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(Long userId, String etag, byte[] body) {
+        synchronized (entries) {
+            entries.put(userId, new Entry(etag, body));
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static class Entry {
+        private final String etag;
+        private final byte[] body;
+
+        Entry(String etag, byte[] body) {
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "user-detail-cache")
+    public static class UserDetailCacheProperties {
+        private boolean enabled = false;    //* 是否缓存序列化后的用户详情响应
+        private int maxEntries = 1000;      //* 缓存的用户数上限
+    }
+}
@@ -0,0 +1,56 @@
+package me.cowra.demo.sql_tree.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.mapper.UserLogMapper;
+import me.cowra.demo.sql_tree.model.UserLog;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.stereotype.Service;
+
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 审计日志批量写入
+ * 由 {@link UserLogWriter} 的后台线程调用, 每次调用作为一个独立的 Service 调用树,
+ * 其中整个 JDBC 批次只对应一个SQL节点.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Service
+public class UserLogService {
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    /**
+     * 使用 BATCH 执行器写入一批日志
+     * @param userLogs 日志列表
+     * @return 写入行数
+     */
+    public int writeBatch(List<UserLog> userLogs) {
+        if (userLogs.isEmpty()) {
+            return 0;
+        }
+        try (SqlSession session = sqlSessionFactory.openSession(ExecutorType.BATCH, false)) {
+            UserLogMapper mapper = session.getMapper(UserLogMapper.class);
+            for (UserLog userLog : userLogs) {
+                mapper.insert(userLog);
+            }
+            List<BatchResult> results = session.flushStatements();
+            session.commit();
+
+            int rows = 0;
+            for (BatchResult result : results) {
+                for (int count : result.getUpdateCounts()) {
+                    //! 部分驱动只返回 SUCCESS_NO_INFO
+                    rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                }
+            }
+            log.debug("Wrote {} user logs in {} batch(es)", rows, results.size());
+            return rows;
+        }
+    }
+}
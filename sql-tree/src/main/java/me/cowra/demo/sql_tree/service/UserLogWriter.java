@@ -0,0 +1,154 @@
+package me.cowra.demo.sql_tree.service;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.model.UserLog;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 审计日志异步写入(write-behind)
+ * 请求线程只把事件放入有界队列, 不做任何 SQL; 后台线程在攒够 batch-size 条或等待超过 flush-interval 时
+ * 通过 {@link UserLogService} 批量写入. 队列满时丢弃新事件并计数, 保证内存有界且不阻塞请求.
+ * 应用关闭时写完队列中剩余的事件.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class UserLogWriter {
+
+    private final UserLogService userLogService;
+    private final UserLogProperties properties;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private BlockingQueue<UserLog> queue;
+    private Thread flusher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(properties.getCapacity());
+        running = true;
+        flusher = new Thread(this::run, "user-log-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("User log writer started: capacity={}, batchSize={}, flushInterval={}ms",
+                properties.getCapacity(), properties.getBatchSize(), properties.getFlushInterval());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        //* 后台线程最多等待一个 flush-interval 就会发现停止标记, 然后写完剩余事件
+        flusher.join(properties.getFlushInterval() + properties.getShutdownTimeout());
+        log.info("User log writer stopped: written={}, dropped={}, failed={}, pending={}",
+                written.get(), dropped.get(), failed.get(), queue.size());
+    }
+
+    /**
+     * 记录一条审计事件, 不阻塞调用方
+     * @return 是否成功入队
+     */
+    public boolean record(Long userId, String action, String description) {
+        if (queue == null) {
+            return false;
+        }
+        if (queue.offer(new UserLog(null, userId, action, description, LocalDateTime.now()))) {
+            return true;
+        }
+        long count = dropped.incrementAndGet();
+        if ((count & (count - 1)) == 0) {
+            //* 按 2 的幂次打印, 避免队列持续满时刷屏
+            log.warn("User log queue is full, {} event(s) dropped so far", count);
+        }
+        return false;
+    }
+
+    private void run() {
+        int batchSize = properties.getBatchSize();
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(properties.getFlushInterval());
+        List<UserLog> batch = new ArrayList<>(batchSize);
+
+        while (running || !queue.isEmpty()) {
+            long deadline = System.nanoTime() + intervalNanos;
+            try {
+                while (batch.size() < batchSize && running) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    UserLog first = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (first == null) {
+                        break;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!running) {
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            flush(batch);
+        }
+    }
+
+    private void flush(List<UserLog> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            written.addAndGet(userLogService.writeBatch(batch));
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            log.error("Failed to write {} user logs", batch.size(), e);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getPending() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "user-log")
+    public static class UserLogProperties {
+        private boolean enabled = true;     //* 是否记录访问审计日志
+        private int capacity = 10_000;      //* 队列容量, 超出时丢弃
+        private int batchSize = 200;        //* 每批最多写入条数
+        private long flushInterval = 1000;  //* 最长攒批时间(毫秒)
+        private long shutdownTimeout = 5000;    //* 关闭时等待剩余事件写完的时间(毫秒)
+    }
+}
@@ -9,6 +9,8 @@ import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -47,4 +49,23 @@ public class UserService {
 
         return user;
     }
+
+    /**
+     * 用户详情的版本标识, 详情中任何数据变化都会改变它, 用于生成 ETag
+     * updated_time 的精度取决于列定义(TIMESTAMP 为秒), 同一秒内的两次修改可能得到相同版本
+     * @param userId 用户ID
+     * @return 版本标识, 用户不存在时为 null
+     */
+    public String getUserDetailVersion(Long userId) {
+        Map<String, Object> row = userMapper.getDetailVersion(userId);
+        if (row == null) {
+            return null;
+        }
+        //* 不同数据库返回的列名大小写不同, 按列名排序后拼接
+        Map<String, Object> columns = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        columns.putAll(row);
+        StringJoiner version = new StringJoiner("|", userId + ":", "");
+        columns.values().forEach(value -> version.add(String.valueOf(value)));
+        return version.toString();
+    }
 }
@@ -0,0 +1,131 @@
+package me.cowra.demo.sql_tree.startup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.sql.init.SqlDataSourceScriptDatabaseInitializer;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationProperties;
+import org.springframework.boot.sql.init.DatabaseInitializationMode;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * 按脚本校验和跳过的 SQL 初始化
+ * 计算 schema/data 脚本内容的 SHA-256, 与库中 sql_tree_schema_checksum 表记录的值相同时跳过执行,
+ * 脚本有变化(或首次启动)时照常执行并更新记录. 其余行为(mode, continue-on-error 等)与 Spring Boot 默认初始化一致.
+ */
+@Slf4j
+public class ChecksumSchemaInitializer extends SqlDataSourceScriptDatabaseInitializer {
+
+    private static final String OPTIONAL_PREFIX = "optional:";
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS sql_tree_schema_checksum ("
+            + "id INT PRIMARY KEY, checksum VARCHAR(64) NOT NULL, applied_time TIMESTAMP NOT NULL)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SqlInitializationProperties properties;
+    private ResourcePatternResolver resourceResolver = new PathMatchingResourcePatternResolver();
+
+    public ChecksumSchemaInitializer(DataSource dataSource, SqlInitializationProperties properties) {
+        super(dataSource, properties);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.properties = properties;
+    }
+
+    @Override
+    public void setResourceLoader(ResourceLoader resourceLoader) {
+        super.setResourceLoader(resourceLoader);
+        this.resourceResolver = new PathMatchingResourcePatternResolver(
+                resourceLoader != null ? resourceLoader : new DefaultResourceLoader());
+    }
+
+    @Override
+    public boolean initializeDatabase() {
+        DatabaseInitializationMode mode = properties.getMode();
+        if (mode == DatabaseInitializationMode.NEVER
+                || (mode == DatabaseInitializationMode.EMBEDDED && !isEmbeddedDatabase())) {
+            return super.initializeDatabase();
+        }
+
+        String checksum = checksum();
+        jdbcTemplate.execute(CREATE_TABLE);
+        String applied = appliedChecksum();
+        if (checksum.equals(applied)) {
+            log.info("Schema is current (checksum {}), skipping SQL initialization", checksum.substring(0, 12));
+            return false;
+        }
+
+        boolean initialized = super.initializeDatabase();
+        jdbcTemplate.update("DELETE FROM sql_tree_schema_checksum WHERE id = 1");
+        jdbcTemplate.update("INSERT INTO sql_tree_schema_checksum (id, checksum, applied_time) VALUES (1, ?, ?)",
+                checksum, new Timestamp(System.currentTimeMillis()));
+        log.info("SQL initialization applied (checksum {} -> {})",
+                applied != null ? applied.substring(0, 12) : "none", checksum.substring(0, 12));
+        return initialized;
+    }
+
+    private String appliedChecksum() {
+        try {
+            List<String> rows = jdbcTemplate.queryForList(
+                    "SELECT checksum FROM sql_tree_schema_checksum WHERE id = 1", String.class);
+            return rows.isEmpty() ? null : rows.get(0);
+        } catch (DataAccessException e) {
+            log.warn("Failed to read schema checksum, running SQL initialization", e);
+            return null;
+        }
+    }
+
+    /**
+     * 按配置顺序对所有 schema/data 脚本内容求 SHA-256, 位置或平台变化同样会改变结果
+     */
+    private String checksum() {
+        List<String> locations = new ArrayList<>();
+        if (properties.getSchemaLocations() != null) {
+            locations.addAll(properties.getSchemaLocations());
+        }
+        if (properties.getDataLocations() != null) {
+            locations.addAll(properties.getDataLocations());
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            for (String location : locations) {
+                String resolved = location.replace("@@platform@@", properties.getPlatform());
+                if (resolved.startsWith(OPTIONAL_PREFIX)) {
+                    resolved = resolved.substring(OPTIONAL_PREFIX.length());
+                }
+                digest.update(resolved.getBytes(StandardCharsets.UTF_8));
+                for (Resource resource : resourceResolver.getResources(resolved)) {
+                    if (!resource.exists()) {
+                        continue;
+                    }
+                    try (InputStream in = new DigestInputStream(resource.getInputStream(), digest)) {
+                        while (in.read(buffer) != -1) {
+                            //* 读取即累加摘要
+                        }
+                    }
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read SQL initialization scripts", e);
+        }
+    }
+}
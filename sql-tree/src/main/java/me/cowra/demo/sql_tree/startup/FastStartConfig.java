@@ -0,0 +1,32 @@
+package me.cowra.demo.sql_tree.startup;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.sql.init.SqlDataSourceScriptDatabaseInitializer;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationProperties;
+import org.springframework.boot.jdbc.init.DataSourceScriptDatabaseInitializer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * 快速启动相关配置, 配合 fast profile(application-fast.yml)使用
+ * spring.main.lazy-initialization=true 时 SQL 初始化仍需在启动期执行, 不能推迟到首次使用;
+ * sql-tree.schema-init.skip-if-current=true 时用 ChecksumSchemaInitializer 替换默认的 SQL 初始化.
+ */
+@Configuration(proxyBeanMethods = false)
+public class FastStartConfig {
+
+    @Bean
+    public static LazyInitializationExcludeFilter databaseInitializerLazyInitExcludeFilter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(DataSourceScriptDatabaseInitializer.class);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "sql-tree.schema-init.skip-if-current", havingValue = "true")
+    public SqlDataSourceScriptDatabaseInitializer dataSourceScriptDatabaseInitializer(DataSource dataSource,
+                                                                                      SqlInitializationProperties properties) {
+        return new ChecksumSchemaInitializer(dataSource, properties);
+    }
+}
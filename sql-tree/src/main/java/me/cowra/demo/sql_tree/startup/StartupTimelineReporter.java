@@ -0,0 +1,121 @@
+package me.cowra.demo.sql_tree.startup;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 启动耗时报告
+ * 应用就绪时从 BufferingApplicationStartup 读取启动时间线, 按阶段(步骤名)汇总耗时, 并列出自身耗时最长的 Bean.
+ * Bean 的自身耗时 = 实例化耗时 - 其间创建依赖 Bean 的耗时, 避免被依赖链上的所有 Bean 重复计入.
+ * 完整时间线见 /actuator/startup.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class StartupTimelineReporter implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final String BEAN_INSTANTIATE = "spring.beans.instantiate";
+
+    private final StartupProperties properties;
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        ConfigurableApplicationContext context = event.getApplicationContext();
+        ApplicationStartup startup = context.getApplicationStartup();
+        if (startup instanceof BufferingApplicationStartup) {
+            report(((BufferingApplicationStartup) startup).getBufferedTimeline());
+        }
+
+        if (properties.isExitAfterReady()) {
+            //* 用于 AppCDS 训练运行和启动基准: 就绪后立即正常退出
+            log.info("Exiting after ready (sql-tree.startup.exit-after-ready=true)");
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private void report(StartupTimeline timeline) {
+        List<StartupTimeline.TimelineEvent> events = timeline.getEvents();
+        Map<Long, Long> childNanos = new HashMap<>();
+        for (StartupTimeline.TimelineEvent event : events) {
+            Long parentId = event.getStartupStep().getParentId();
+            if (parentId != null) {
+                childNanos.merge(parentId, event.getDuration().toNanos(), Long::sum);
+            }
+        }
+
+        Map<String, long[]> phases = new LinkedHashMap<>();   //* 步骤名 -> [次数, 总耗时(纳秒)]
+        List<BeanTime> beans = new ArrayList<>();
+        for (StartupTimeline.TimelineEvent event : events) {
+            StartupStep step = event.getStartupStep();
+            long nanos = event.getDuration().toNanos();
+            if (BEAN_INSTANTIATE.equals(step.getName())) {
+                long self = nanos - childNanos.getOrDefault(step.getId(), 0L);
+                beans.add(new BeanTime(tag(step, "beanName"), nanos, self));
+            } else {
+                long[] phase = phases.computeIfAbsent(step.getName(), name -> new long[2]);
+                phase[0]++;
+                phase[1] += nanos;
+            }
+        }
+
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        log.info("Startup timeline: JVM uptime {} ms, {} steps recorded, {} beans instantiated",
+                uptime, events.size(), beans.size());
+        phases.entrySet().stream()
+                .sorted(Map.Entry.<String, long[]>comparingByValue(Comparator.comparingLong(v -> -v[1])))
+                .limit(properties.getTopPhases())
+                .forEach(e -> log.info("  phase {} x{}: {} ms", e.getKey(), e.getValue()[0], millis(e.getValue()[1])));
+        beans.stream()
+                .sorted(Comparator.comparingLong(BeanTime::getSelfNanos).reversed())
+                .limit(properties.getTopBeans())
+                .forEach(b -> log.info("  bean {}: self {} ms, total {} ms", b.getName(), millis(b.getSelfNanos()), millis(b.getNanos())));
+    }
+
+    private static String tag(StartupStep step, String key) {
+        for (StartupStep.Tag tag : step.getTags()) {
+            if (key.equals(tag.getKey())) {
+                return tag.getValue();
+            }
+        }
+        return "?";
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1_000_000.0);
+    }
+
+    @Data
+    private static final class BeanTime {
+        private final String name;
+        private final long nanos;       //* 含依赖的实例化耗时
+        private final long selfNanos;   //* 自身耗时
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.startup")
+    public static class StartupProperties {
+        private int topPhases = 15;     //* 报告的阶段数
+        private int topBeans = 15;      //* 报告的 Bean 数
+        private boolean exitAfterReady = false; //* 就绪后退出, 用于 AppCDS 训练和启动基准
+    }
+}
@@ -0,0 +1,133 @@
+package me.cowra.demo.sql_tree.stats;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top-K 热点SQL追踪
+ * 按分钟分桶, 每个桶持有三个 Space-Saving 草图(总耗时(微秒)、次数、返回行数),
+ * 读取时合并最近 1/5/15 个桶得到滚动窗口. 内存占用 = 15 * 3 * capacity 个计数器, 与SQL种类数无关.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class HeavyHitterTracker {
+
+    /**
+     * 支持的滚动窗口(分钟)
+     */
+    public static final int[] WINDOWS = {1, 5, 15};
+    private static final int BUCKETS = 15;
+    private static final long MINUTE_MILLIS = 60_000L;
+
+    private final HeavyHitterProperties properties;
+
+    private Bucket[] buckets;
+
+    @PostConstruct
+    public void init() {
+        //* capacity/topK 小于 1 时草图无法工作(第一次记录就越界), 按 1 处理
+        int capacity = Math.max(1, properties.getCapacity());
+        if (capacity != properties.getCapacity() || properties.getTopK() < 1) {
+            log.warn("Invalid heavy hitter settings capacity={}, topK={}, using at least 1",
+                    properties.getCapacity(), properties.getTopK());
+        }
+        buckets = new Bucket[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket(capacity);
+        }
+        log.info("Heavy hitter sketch: capacity={}, topK={}", capacity, Math.max(1, properties.getTopK()));
+    }
+
+    /**
+     * 记录一次SQL执行
+     * @param fingerprint SQL指纹
+     * @param executionTime 执行耗时(微秒)
+     * @param rows 返回/影响行数
+     */
+    public void record(String fingerprint, long executionTime, int rows) {
+        if (!properties.isEnabled() || fingerprint == null) {
+            return;
+        }
+        long minute = System.currentTimeMillis() / MINUTE_MILLIS;
+        Bucket bucket = buckets[(int) (minute % BUCKETS)];
+        synchronized (bucket) {
+            if (bucket.minute != minute) {
+                bucket.reset(minute);
+            }
+            bucket.time.add(fingerprint, executionTime);
+            bucket.count.add(fingerprint, 1);
+            bucket.rows.add(fingerprint, Math.max(rows, 0));
+        }
+    }
+
+    /**
+     * 查询指定窗口的 Top-K
+     * @param windowMinutes 窗口长度(分钟, 1~15)
+     * @return metric -> Top-K 列表
+     */
+    public Map<String, List<SpaceSavingSketch.Entry>> topK(int windowMinutes) {
+        int window = Math.max(1, Math.min(windowMinutes, BUCKETS));
+        long now = System.currentTimeMillis() / MINUTE_MILLIS;
+
+        Map<String, SpaceSavingSketch.Entry> time = new HashMap<>();
+        Map<String, SpaceSavingSketch.Entry> count = new HashMap<>();
+        Map<String, SpaceSavingSketch.Entry> rows = new HashMap<>();
+        for (long minute = now - window + 1; minute <= now; minute++) {
+            Bucket bucket = buckets[(int) (minute % BUCKETS)];
+            synchronized (bucket) {
+                if (bucket.minute != minute) {
+                    continue;
+                }
+                bucket.time.mergeInto(time);
+                bucket.count.mergeInto(count);
+                bucket.rows.mergeInto(rows);
+            }
+        }
+
+        int k = Math.max(1, properties.getTopK());
+        Map<String, List<SpaceSavingSketch.Entry>> result = new LinkedHashMap<>();
+        result.put("time", SpaceSavingSketch.top(time, k));
+        result.put("count", SpaceSavingSketch.top(count, k));
+        result.put("rows", SpaceSavingSketch.top(rows, k));
+        return result;
+    }
+
+    private static class Bucket {
+        private long minute = -1;
+        private final SpaceSavingSketch time;
+        private final SpaceSavingSketch count;
+        private final SpaceSavingSketch rows;
+
+        Bucket(int capacity) {
+            this.time = new SpaceSavingSketch(capacity);
+            this.count = new SpaceSavingSketch(capacity);
+            this.rows = new SpaceSavingSketch(capacity);
+        }
+
+        void reset(long minute) {
+            this.minute = minute;
+            time.clear();
+            count.clear();
+            rows.clear();
+        }
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.heavy-hitters")
+    public static class HeavyHitterProperties {
+        private boolean enabled = true;    //* 是否启用热点统计
+        private int capacity = 64;  //* 每个草图的计数器个数, 应明显大于 topK 以保证精度
+        private int topK = 10;  //* 返回的热点条数
+    }
+}
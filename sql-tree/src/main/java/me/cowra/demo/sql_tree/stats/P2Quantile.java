@@ -0,0 +1,127 @@
+package me.cowra.demo.sql_tree.stats;
+
+import java.util.Arrays;
+
+/**
+ * P² 分位数估计(Jain & Chlamtac)
+ * 只维护 5 个标记点, 不保存样本, 每次更新 O(1). 非线程安全, 由调用方加锁.
+ */
+public class P2Quantile {
+
+    private final double p;
+    private final double[] q = new double[5];  //* 标记点高度
+    private final long[] n = new long[5];       //* 标记点实际位置, 与 count 同为 long, 长期运行(快照跨重启累积)不会溢出
+    private final double[] np = new double[5];  //* 标记点期望位置
+    private final double[] dn;                  //* 期望位置的增量
+    private long count;
+
+    public P2Quantile(double p) {
+        this.p = p;
+        this.dn = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+    }
+
+    public void add(double x) {
+        if (count < 5) {
+            q[(int) count++] = x;
+            if (count == 5) {
+                Arrays.sort(q);
+                for (int i = 0; i < 5; i++) {
+                    n[i] = i;
+                }
+                np[0] = 0;
+                np[1] = 2 * p;
+                np[2] = 4 * p;
+                np[3] = 2 + 2 * p;
+                np[4] = 4;
+            }
+            return;
+        }
+
+        int k;
+        if (x < q[0]) {
+            q[0] = x;
+            k = 0;
+        } else if (x >= q[4]) {
+            q[4] = x;
+            k = 3;
+        } else {
+            k = 0;
+            while (x >= q[k + 1]) {
+                k++;
+            }
+        }
+        for (int i = k + 1; i < 5; i++) {
+            n[i]++;
+        }
+        for (int i = 0; i < 5; i++) {
+            np[i] += dn[i];
+        }
+
+        //* 调整中间三个标记点
+        for (int i = 1; i <= 3; i++) {
+            double d = np[i] - n[i];
+            if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                int s = d >= 0 ? 1 : -1;
+                double candidate = parabolic(i, s);
+                q[i] = q[i - 1] < candidate && candidate < q[i + 1] ? candidate : linear(i, s);
+                n[i] += s;
+            }
+        }
+        count++;
+    }
+
+    private double parabolic(int i, int d) {
+        return q[i] + (double) d / (n[i + 1] - n[i - 1])
+                * ((n[i] - n[i - 1] + d) * (q[i + 1] - q[i]) / (n[i + 1] - n[i])
+                + (n[i + 1] - n[i] - d) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+    }
+
+    private double linear(int i, int d) {
+        return q[i] + d * (q[i + d] - q[i]) / (n[i + d] - n[i]);
+    }
+
+    /**
+     * 当前估计值, 样本不足 5 个时取已有样本的对应分位
+     */
+    public double get() {
+        if (count == 0) {
+            return 0;
+        }
+        if (count < 5) {
+            double[] sorted = Arrays.copyOf(q, (int) count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+        }
+        return q[2];
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 导出状态, 用于快照: [count, q0..q4, n0..n4, np0..np4]; 计数和位置以 double 保存, 2^53 以内精确
+     */
+    double[] state() {
+        double[] state = new double[16];
+        state[0] = count;
+        for (int i = 0; i < 5; i++) {
+            state[1 + i] = q[i];
+            state[6 + i] = n[i];
+            state[11 + i] = np[i];
+        }
+        return state;
+    }
+
+    void restore(double[] state) {
+        if (state == null || state.length != 16) {
+            return;
+        }
+        count = (long) state[0];
+        for (int i = 0; i < 5; i++) {
+            q[i] = state[1 + i];
+            n[i] = (long) state[6 + i];
+            np[i] = state[11 + i];
+        }
+    }
+}
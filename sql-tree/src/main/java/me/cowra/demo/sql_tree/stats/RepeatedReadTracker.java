@@ -0,0 +1,368 @@
+package me.cowra.demo.sql_tree.stats;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 跨请求的重复读分析
+ * 对每个查询按 (SQL指纹, 参数哈希, 结果哈希) 记录, 为每个候选 TTL 模拟一个理想缓存:
+ * 同一参数在 TTL 内再次读取记为命中, 命中时结果哈希与缓存时不同则是一次脏读(缓存会返回过期数据).
+ * 计数按分钟分桶, 读取时合并最近 windowMinutes 个桶; 每个语句最多跟踪 maxKeys 个参数组合(LRU).
+ * 输出按可节省的时间排序的缓存候选, 以及每个 TTL 下的命中率、脏读率和建议.
+ *
+ * 默认关闭(sql-tree.repeated-reads.enabled). 开启后每个被追踪、返回不超过 max-result-rows 行的查询都会在请求线程上
+ * 递归哈希全部结果行和参数, 未记录参数时(record-parameters=false)还要再提取一次参数;
+ * 5 列的 Map 行约 1us/行(JDK 17), 1000 行的结果约 0.7ms. 需要找缓存候选时临时开启, 或调小 max-result-rows.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class RepeatedReadTracker {
+
+    private static final long MINUTE_MILLIS = 60_000L;
+
+    /**
+     * 建议
+     */
+    public enum Recommendation {
+        CACHE,                      //* 命中率足够且脏读率在容忍范围内, 使用 recommendedTtl
+        CACHE_WITH_INVALIDATION,    //* 重复读多, 但任何 TTL 下脏读率都过高, 需要在写入时主动失效
+        LOW_REUSE,                  //* 重复读少, 不值得缓存
+        INSUFFICIENT_DATA           //* 读取次数不足以判断
+    }
+
+    private final RepeatedReadProperties properties;
+
+    private final Map<String, StatementWindow> statements = new ConcurrentHashMap<>();
+
+    private long[] ttlMillis;
+
+    @PostConstruct
+    public void init() {
+        ttlMillis = properties.getTtls().stream().mapToLong(ttl -> ttl * 1_000L).sorted().toArray();
+        log.info("Repeated read tracker: enabled={}, window={}m, ttls={}s", properties.isEnabled(),
+                properties.getWindowMinutes(), properties.getTtls());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled() && ttlMillis.length > 0;
+    }
+
+    /**
+     * 记录一次查询
+     * @param fingerprint SQL指纹
+     * @param statementId 语句ID
+     * @param parameters 参数值
+     * @param rows 查询结果
+     * @param statementTime 语句耗时(微秒), 命中时即为节省的时间
+     */
+    public void record(String fingerprint, String statementId, List<Object> parameters, List<?> rows, long statementTime) {
+        if (!isEnabled() || fingerprint == null || rows.size() > properties.getMaxResultRows()) {
+            return;
+        }
+        StatementWindow window = statements.get(fingerprint);
+        if (window == null) {
+            if (statements.size() >= properties.getMaxStatements()) {
+                return;
+            }
+            window = statements.computeIfAbsent(fingerprint, f -> new StatementWindow(statementId));
+        }
+        long parameterHash = hash(parameters);
+        long resultHash = hash(rows);
+        window.record(parameterHash, resultHash, statementTime, System.currentTimeMillis());
+    }
+
+    /**
+     * 按可节省的时间排序的缓存候选, 不足以判断或重复读少的语句排在后面
+     */
+    public List<Candidate> candidates() {
+        long now = System.currentTimeMillis();
+        List<Candidate> candidates = new ArrayList<>();
+        statements.forEach((fingerprint, window) -> {
+            Candidate candidate = window.candidate(now);
+            if (candidate.getReads() > 0) {
+                candidate.setFingerprint(fingerprint);
+                candidates.add(candidate);
+            }
+        });
+        candidates.sort(Comparator.comparing((Candidate c) -> c.getRecommendation().ordinal())
+                .thenComparing(Comparator.comparingLong(Candidate::getSavedMicros).reversed()));
+        return candidates;
+    }
+
+    public int getWindowMinutes() {
+        return properties.getWindowMinutes();
+    }
+
+    public void clear() {
+        statements.clear();
+    }
+
+    /**
+     * 64位哈希, 集合按元素递归计算; 只依赖值的 hashCode, 因此结果对象需要实现 equals/hashCode(Map 与 @Data 类均满足)
+     */
+    static long hash(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof List) {
+            long h = 1125899906842597L;
+            for (Object element : (List<?>) value) {
+                h = 31 * h + hash(element);
+            }
+            return h;
+        }
+        if (value instanceof Map) {
+            //* 与 Map.hashCode 一样与顺序无关
+            long h = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                h += mix(hash(entry.getKey())) ^ hash(entry.getValue());
+            }
+            return h;
+        }
+        if (value instanceof byte[]) {
+            return Arrays.hashCode((byte[]) value);
+        }
+        return mix(value.hashCode());
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 单个语句的滑动窗口
+     */
+    private class StatementWindow {
+        private final String statementId;
+        private final Bucket[] buckets = new Bucket[properties.getWindowMinutes()];
+        private final LinkedHashMap<Long, KeyState> keys;
+
+        StatementWindow(String statementId) {
+            this.statementId = statementId;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new Bucket(ttlMillis.length);
+            }
+            int maxKeys = properties.getMaxKeys();
+            this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, KeyState> eldest) {
+                    return size() > maxKeys;
+                }
+            };
+        }
+
+        synchronized void record(long parameterHash, long resultHash, long statementTime, long now) {
+            long minute = now / MINUTE_MILLIS;
+            Bucket bucket = buckets[(int) (minute % buckets.length)];
+            if (bucket.minute != minute) {
+                bucket.reset(minute);
+            }
+            bucket.reads++;
+            bucket.totalMicros += statementTime;
+
+            KeyState key = keys.get(parameterHash);
+            if (key == null) {
+                key = new KeyState(ttlMillis.length);
+                keys.put(parameterHash, key);
+                bucket.distinctKeys++;
+            } else if (key.lastHash != resultHash) {
+                bucket.changes++;
+                long interval = now - key.lastChange;
+                if (bucket.minChangeInterval < 0 || interval < bucket.minChangeInterval) {
+                    bucket.minChangeInterval = interval;
+                }
+                key.lastChange = now;
+            }
+            key.lastHash = resultHash;
+
+            for (int i = 0; i < ttlMillis.length; i++) {
+                if (key.loadedAt[i] > 0 && now - key.loadedAt[i] <= ttlMillis[i]) {
+                    //* 缓存命中: 理想缓存返回的是加载时的结果
+                    if (key.cachedHash[i] == resultHash) {
+                        bucket.hits[i]++;
+                        bucket.savedMicros[i] += statementTime;
+                    } else {
+                        bucket.staleHits[i]++;
+                    }
+                } else {
+                    key.loadedAt[i] = now;
+                    key.cachedHash[i] = resultHash;
+                }
+            }
+        }
+
+        synchronized Candidate candidate(long now) {
+            long current = now / MINUTE_MILLIS;
+            Candidate candidate = new Candidate();
+            candidate.setStatementId(statementId);
+            long totalMicros = 0;
+            long minChangeInterval = -1;
+            long[] hits = new long[ttlMillis.length];
+            long[] staleHits = new long[ttlMillis.length];
+            long[] saved = new long[ttlMillis.length];
+            for (Bucket bucket : buckets) {
+                if (bucket.minute < 0 || current - bucket.minute >= buckets.length) {
+                    continue;
+                }
+                candidate.setReads(candidate.getReads() + bucket.reads);
+                candidate.setDistinctKeys(candidate.getDistinctKeys() + bucket.distinctKeys);
+                candidate.setResultChanges(candidate.getResultChanges() + bucket.changes);
+                totalMicros += bucket.totalMicros;
+                if (bucket.minChangeInterval >= 0 && (minChangeInterval < 0 || bucket.minChangeInterval < minChangeInterval)) {
+                    minChangeInterval = bucket.minChangeInterval;
+                }
+                for (int i = 0; i < ttlMillis.length; i++) {
+                    hits[i] += bucket.hits[i];
+                    staleHits[i] += bucket.staleHits[i];
+                    saved[i] += bucket.savedMicros[i];
+                }
+            }
+            long reads = candidate.getReads();
+            if (reads == 0) {
+                return candidate;
+            }
+            candidate.setAvgMicros(totalMicros / reads);
+            candidate.setMinChangeInterval(minChangeInterval >= 0 ? minChangeInterval / 1_000.0 : null);
+            candidate.setTrackedKeys(keys.size());
+
+            Option best = null;
+            int mostHits = 0;
+            for (int i = 0; i < ttlMillis.length; i++) {
+                Option option = new Option();
+                option.setTtl(ttlMillis[i] / 1_000);
+                option.setHitRate(ratio(hits[i], reads));
+                option.setStaleRate(ratio(staleHits[i], hits[i] + staleHits[i]));
+                option.setSavedMicros(saved[i]);
+                candidate.getOptions().add(option);
+                if (option.getStaleRate() <= properties.getMaxStaleRate()
+                        && (best == null || option.getSavedMicros() > best.getSavedMicros())) {
+                    best = option;
+                }
+                if (hits[i] + staleHits[i] > hits[mostHits] + staleHits[mostHits]) {
+                    mostHits = i;
+                }
+            }
+
+            if (reads < properties.getMinReads()) {
+                candidate.setRecommendation(Recommendation.INSUFFICIENT_DATA);
+            } else if (best != null && best.getHitRate() >= properties.getMinHitRate()) {
+                candidate.setRecommendation(Recommendation.CACHE);
+                candidate.setRecommendedTtl(best.getTtl());
+                candidate.setSavedMicros(best.getSavedMicros());
+            } else if (candidate.getResultChanges() > 0
+                    && ratio(hits[mostHits] + staleHits[mostHits], reads) >= properties.getMinHitRate()) {
+                //* 重复读足够多, 只是结果变化太频繁, TTL 缓存会返回过期数据
+                candidate.setRecommendation(Recommendation.CACHE_WITH_INVALIDATION);
+                candidate.setSavedMicros(saved[mostHits]);
+            } else {
+                candidate.setRecommendation(Recommendation.LOW_REUSE);
+                candidate.setSavedMicros(best != null ? best.getSavedMicros() : 0);
+            }
+            return candidate;
+        }
+    }
+
+    private static double ratio(long numerator, long denominator) {
+        return denominator == 0 ? 0 : (double) numerator / denominator;
+    }
+
+    /**
+     * 一个参数组合在各 TTL 下的模拟缓存状态
+     */
+    private static class KeyState {
+        private final long[] loadedAt;
+        private final long[] cachedHash;
+        private long lastHash;
+        private long lastChange = System.currentTimeMillis();
+
+        KeyState(int ttls) {
+            this.loadedAt = new long[ttls];
+            this.cachedHash = new long[ttls];
+        }
+    }
+
+    private static class Bucket {
+        private long minute = -1;
+        private long reads;
+        private long totalMicros;
+        private long distinctKeys;      //* 本分钟首次出现(或被 LRU 淘汰后重新出现)的参数组合
+        private long changes;           //* 同一参数的结果变化次数
+        private long minChangeInterval = -1;
+        private final long[] hits;
+        private final long[] staleHits;
+        private final long[] savedMicros;
+
+        Bucket(int ttls) {
+            this.hits = new long[ttls];
+            this.staleHits = new long[ttls];
+            this.savedMicros = new long[ttls];
+        }
+
+        void reset(long minute) {
+            this.minute = minute;
+            reads = 0;
+            totalMicros = 0;
+            distinctKeys = 0;
+            changes = 0;
+            minChangeInterval = -1;
+            Arrays.fill(hits, 0);
+            Arrays.fill(staleHits, 0);
+            Arrays.fill(savedMicros, 0);
+        }
+    }
+
+    @Data
+    public static class Candidate {
+        private String fingerprint;
+        private String statementId;
+        private Recommendation recommendation;
+        private Long recommendedTtl;        //* 建议的 TTL(秒), 仅 CACHE 时有值
+        private long savedMicros;           //* 按建议(或命中最多的 TTL)可节省的语句时间(微秒)
+        private long reads;
+        private long distinctKeys;
+        private int trackedKeys;
+        private long avgMicros;
+        private long resultChanges;         //* 同一参数结果发生变化的次数
+        private Double minChangeInterval;   //* 同一参数两次结果变化的最短间隔(秒)
+        private List<Option> options = new ArrayList<>();
+    }
+
+    @Data
+    public static class Option {
+        private long ttl;           //* 秒
+        private double hitRate;     //* 命中且结果未变的读取占比
+        private double staleRate;   //* 命中中结果已变化(返回过期数据)的占比
+        private long savedMicros;
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.repeated-reads")
+    public static class RepeatedReadProperties {
+        private boolean enabled = false;    //* 是否启用重复读分析, 开销见类注释
+        private int windowMinutes = 15;     //* 滑动窗口(分钟)
+        private List<Long> ttls = new ArrayList<>(List.of(10L, 60L, 300L));     //* 模拟的缓存 TTL(秒)
+        private int maxStatements = 256;    //* 跟踪的语句(指纹)上限
+        private int maxKeys = 1024;         //* 每个语句跟踪的参数组合上限(LRU)
+        private int maxResultRows = 1000;   //* 结果行数超过时不跟踪, 大结果不适合缓存且哈希代价高
+        private long minReads = 20;         //* 窗口内读取次数达到后才给出建议
+        private double minHitRate = 0.3;    //* 建议缓存的最低命中率
+        private double maxStaleRate = 0.01; //* 可接受的最高脏读率
+    }
+}
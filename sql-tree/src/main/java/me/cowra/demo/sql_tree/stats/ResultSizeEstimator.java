@@ -0,0 +1,93 @@
+package me.cowra.demo.sql_tree.stats;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.temporal.Temporal;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查询结果的内存占用估算
+ * 只对列表做等距抽样(最多 {@link #SAMPLE_ROWS} 行), 按 64 位 JVM + 压缩指针的常见对象大小粗略估算,
+ * 目的是发现量级问题(几 KB 还是几百 MB), 不追求精确.
+ * Map 行的 key 是 MyBatis 共享的列名字符串, 不计入.
+ */
+public final class ResultSizeEstimator {
+
+    private static final int SAMPLE_ROWS = 16;
+    private static final int MAX_NESTING = 3;
+
+    private ResultSizeEstimator() {
+    }
+
+    /**
+     * 估算结果集占用字节数
+     * @param result Executor 返回的结果
+     * @return 估算字节数
+     */
+    public static long estimate(Object result) {
+        if (!(result instanceof List)) {
+            return sizeOf(result, 0);
+        }
+        List<?> rows = (List<?>) result;
+        int size = rows.size();
+        long listOverhead = 40L + 4L * size;
+        if (size == 0) {
+            return listOverhead;
+        }
+        int samples = Math.min(size, SAMPLE_ROWS);
+        int step = size / samples;
+        long sampled = 0;
+        for (int i = 0; i < samples; i++) {
+            sampled += sizeOf(rows.get(i * step), 0);
+        }
+        return listOverhead + sampled * size / samples;
+    }
+
+    /**
+     * 估算单行结果占用字节数
+     */
+    public static long sizeOf(Object value, int nesting) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40L + ((String) value).length();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Double
+                || value instanceof Float || value instanceof Short || value instanceof Byte
+                || value instanceof Boolean || value instanceof Character) {
+            return 16L;
+        }
+        if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return 64L;
+        }
+        if (value instanceof Date || value instanceof Temporal) {
+            return 32L;
+        }
+        if (value instanceof byte[]) {
+            return 16L + ((byte[]) value).length;
+        }
+        if (nesting >= MAX_NESTING) {
+            return 16L;
+        }
+        if (value instanceof Map) {
+            long size = 64L;
+            for (Object entryValue : ((Map<?, ?>) value).values()) {
+                size += 32L + sizeOf(entryValue, nesting + 1);
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 40L;
+            for (Object element : (Collection<?>) value) {
+                size += 4L + sizeOf(element, nesting + 1);
+            }
+            return size;
+        }
+        //* 其他对象(实体类等): 按对象头 + 若干引用粗略估计
+        return 64L;
+    }
+}
@@ -0,0 +1,101 @@
+package me.cowra.demo.sql_tree.stats;
+
+import lombok.Data;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按SQL指纹统计查询结果行数分布
+ * 行数按 2 的幂分桶(0, 1, 2-3, 4-7, ...), 指纹数量有上限, 超出部分合并到 {@link #OTHER}.
+ */
+@Component
+public class ResultSizeStatistics {
+
+    public static final String OTHER = "<other>";
+    private static final int MAX_FINGERPRINTS = 512;
+    private static final int BUCKETS = 32;
+
+    private final Map<String, RowHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次查询结果
+     * @param fingerprint SQL指纹
+     * @param rows 行数
+     * @param bytes 估算字节数
+     */
+    public void record(String fingerprint, int rows, long bytes) {
+        if (fingerprint == null) {
+            return;
+        }
+        RowHistogram histogram = histograms.get(fingerprint);
+        if (histogram == null) {
+            String key = histograms.size() < MAX_FINGERPRINTS ? fingerprint : OTHER;
+            histogram = histograms.computeIfAbsent(key, k -> new RowHistogram());
+        }
+        histogram.record(rows, bytes);
+    }
+
+    /**
+     * 获取所有指纹的行数分布快照
+     */
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> result = new LinkedHashMap<>();
+        histograms.forEach((fingerprint, histogram) -> result.put(fingerprint, histogram.snapshot()));
+        return result;
+    }
+
+    static int bucketOf(int rows) {
+        return rows <= 0 ? 0 : Math.min(BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(rows));
+    }
+
+    private static class RowHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalRows = new AtomicLong();
+        private final AtomicLong totalBytes = new AtomicLong();
+        private final AtomicLong maxRows = new AtomicLong();
+        private final AtomicLong maxBytes = new AtomicLong();
+
+        void record(int rows, long bytes) {
+            buckets.incrementAndGet(bucketOf(rows));
+            count.incrementAndGet();
+            totalRows.addAndGet(rows);
+            totalBytes.addAndGet(bytes);
+            maxRows.accumulateAndGet(rows, Math::max);
+            maxBytes.accumulateAndGet(bytes, Math::max);
+        }
+
+        Snapshot snapshot() {
+            Snapshot snapshot = new Snapshot();
+            snapshot.setCount(count.get());
+            snapshot.setTotalRows(totalRows.get());
+            snapshot.setTotalBytes(totalBytes.get());
+            snapshot.setMaxRows(maxRows.get());
+            snapshot.setMaxBytes(maxBytes.get());
+            Map<String, Long> distribution = new LinkedHashMap<>();
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = buckets.get(i);
+                if (n > 0) {
+                    distribution.put(i == 0 ? "0" : i == 1 ? "1" : (1L << (i - 1)) + "-" + ((1L << i) - 1), n);
+                }
+            }
+            snapshot.setRowDistribution(distribution);
+            return snapshot;
+        }
+    }
+
+    @Data
+    public static class Snapshot {
+        private long count;
+        private long totalRows;
+        private long totalBytes;
+        private long maxRows;
+        private long maxBytes;
+        private Map<String, Long> rowDistribution;
+    }
+}
@@ -0,0 +1,149 @@
+package me.cowra.demo.sql_tree.stats;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 带权重的 Space-Saving 草图
+ * 固定容量 capacity 个计数器, 新 key 在计数器已满时替换当前最小计数器,
+ * 并继承其计数作为误差上界. 计数器用最小堆维护, 单次更新 O(log capacity).
+ * 非线程安全, 由调用方加锁.
+ */
+public class SpaceSavingSketch {
+
+    private final int capacity;
+    private final String[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<String, Integer> positions;
+    private int size;
+
+    SpaceSavingSketch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.positions = new HashMap<>(capacity * 2);
+    }
+
+    void add(String key, long weight) {
+        Integer pos = positions.get(key);
+        if (pos != null) {
+            counts[pos] += weight;
+            siftDown(pos);
+            return;
+        }
+        if (size < capacity) {
+            keys[size] = key;
+            counts[size] = weight;
+            errors[size] = 0;
+            positions.put(key, size);
+            siftUp(size++);
+            return;
+        }
+        //* 替换最小计数器(堆顶)
+        long min = counts[0];
+        positions.remove(keys[0]);
+        keys[0] = key;
+        counts[0] = min + weight;
+        errors[0] = min;
+        positions.put(key, 0);
+        siftDown(0);
+    }
+
+    /**
+     * 草图中未出现的 key 的计数上界
+     */
+    long minCount() {
+        return size < capacity ? 0 : counts[0];
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+        }
+        positions.clear();
+        size = 0;
+    }
+
+    /**
+     * 将当前计数累加到 merged 中, 用于多个时间桶的合并
+     */
+    void mergeInto(Map<String, Entry> merged) {
+        for (int i = 0; i < size; i++) {
+            Entry entry = merged.get(keys[i]);
+            if (entry == null) {
+                merged.put(keys[i], new Entry(keys[i], counts[i], errors[i]));
+            } else {
+                entry.count += counts[i];
+                entry.error += errors[i];
+            }
+        }
+    }
+
+    static List<Entry> top(Map<String, Entry> merged, int k) {
+        List<Entry> entries = new ArrayList<>(merged.values());
+        entries.sort(Comparator.comparingLong(Entry::getCount).reversed());
+        return entries.size() > k ? new ArrayList<>(entries.subList(0, k)) : entries;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left + 1 < size && counts[left + 1] < counts[left] ? left + 1 : left;
+            if (counts[i] <= counts[smallest]) {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+        long c = counts[a];
+        counts[a] = counts[b];
+        counts[b] = c;
+        long e = errors[a];
+        errors[a] = errors[b];
+        errors[b] = e;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+
+    /**
+     * 草图条目: count 为估计值(可能偏大), count - error 为真实值下界
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Entry {
+        private String fingerprint;
+        private long count;
+        private long error;
+    }
+}
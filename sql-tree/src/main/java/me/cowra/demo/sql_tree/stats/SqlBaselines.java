@@ -0,0 +1,217 @@
+package me.cowra.demo.sql_tree.stats;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按SQL指纹的自适应慢SQL基线
+ * 每个指纹维护语句耗时的 EWMA 均值和 P² 分位数估计, 慢SQL阈值 = max(固定阈值, multiplier * max(分位数, EWMA)):
+ * 分位数刻画正常波动的尾部, EWMA 跟随耗时的整体漂移(如表变大后整体变慢), 避免全历史分位数长期偏低.
+ * 样本数达到 min-samples 前只使用固定阈值. 基线定期并在关闭时写入快照文件, 启动时加载.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class SqlBaselines {
+
+    private final BaselineProperties properties;
+
+    private final Map<String, Baseline> baselines = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ScheduledExecutorService snapshotScheduler;
+
+    @PostConstruct
+    public void init() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        load();
+        if (snapshotPath() != null && properties.getSnapshotInterval() > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "sql-baseline-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::save, properties.getSnapshotInterval(),
+                    properties.getSnapshotInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        if (properties.isEnabled()) {
+            save();
+        }
+    }
+
+    /**
+     * 取得当前基线对应的慢SQL阈值, 并把本次耗时计入基线
+     * 先判定再更新, 使本次样本与历史比较
+     * @param fingerprint SQL指纹
+     * @param statementTime 语句耗时(微秒)
+     * @param floor 固定阈值(微秒), 作为下限
+     * @return 本次判定使用的阈值(微秒)
+     */
+    public long observe(String fingerprint, long statementTime, long floor) {
+        if (!properties.isEnabled() || fingerprint == null) {
+            return floor;
+        }
+        Baseline baseline = baselines.get(fingerprint);
+        if (baseline == null) {
+            if (baselines.size() >= properties.getMaxFingerprints()) {
+                return floor;
+            }
+            baseline = baselines.computeIfAbsent(fingerprint, fp -> new Baseline(properties.getQuantile()));
+        }
+        synchronized (baseline) {
+            long threshold = floor;
+            if (baseline.quantile.getCount() >= properties.getMinSamples()) {
+                double adaptive = properties.getMultiplier() * Math.max(baseline.quantile.get(), baseline.ewma);
+                threshold = Math.max(floor, (long) adaptive);
+            }
+            baseline.update(statementTime, properties.getAlpha());
+            return threshold;
+        }
+    }
+
+    /**
+     * 当前各指纹的基线, 单位微秒
+     */
+    public Map<String, BaselineSnapshot> snapshot() {
+        Map<String, BaselineSnapshot> result = new HashMap<>();
+        baselines.forEach((fingerprint, baseline) -> {
+            synchronized (baseline) {
+                result.put(fingerprint, baseline.toSnapshot());
+            }
+        });
+        return result;
+    }
+
+    private Path snapshotPath() {
+        String file = properties.getSnapshotFile();
+        return file == null || file.isBlank() ? null : Paths.get(file);
+    }
+
+    private void load() {
+        Path path = snapshotPath();
+        if (path == null || !Files.isRegularFile(path)) {
+            return;
+        }
+        try {
+            Map<String, BaselineSnapshot> snapshots = objectMapper.readValue(path.toFile(),
+                    new TypeReference<Map<String, BaselineSnapshot>>() {});
+            snapshots.forEach((fingerprint, snapshot) -> {
+                if (baselines.size() < properties.getMaxFingerprints()) {
+                    Baseline baseline = new Baseline(properties.getQuantile());
+                    baseline.restore(snapshot);
+                    baselines.put(fingerprint, baseline);
+                }
+            });
+            log.info("Loaded {} SQL baselines from {}", baselines.size(), path);
+        } catch (IOException e) {
+            log.warn("Failed to load SQL baselines from {}", path, e);
+        }
+    }
+
+    private void save() {
+        Path path = snapshotPath();
+        if (path == null || baselines.isEmpty()) {
+            return;
+        }
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            //* 先写临时文件再替换, 避免进程中途退出留下半个文件
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            objectMapper.writeValue(temp.toFile(), snapshot());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved {} SQL baselines to {}", baselines.size(), path);
+        } catch (IOException e) {
+            log.warn("Failed to save SQL baselines to {}", path, e);
+        }
+    }
+
+    private static final class Baseline {
+        private final P2Quantile quantile;
+        private double ewma;
+        private boolean initialized;
+
+        Baseline(double p) {
+            this.quantile = new P2Quantile(p);
+        }
+
+        void update(long value, double alpha) {
+            ewma = initialized ? ewma + alpha * (value - ewma) : value;
+            initialized = true;
+            quantile.add(value);
+        }
+
+        BaselineSnapshot toSnapshot() {
+            return new BaselineSnapshot(quantile.getCount(), ewma, quantile.get(), quantile.state());
+        }
+
+        void restore(BaselineSnapshot snapshot) {
+            ewma = snapshot.getEwma();
+            initialized = snapshot.getCount() > 0;
+            quantile.restore(snapshot.getState());
+        }
+    }
+
+    /**
+     * 基线快照
+     */
+    @Data
+    @NoArgsConstructor
+    public static class BaselineSnapshot {
+        private long count;
+        private double ewma;        //* 耗时 EWMA(微秒)
+        private double quantile;    //* 耗时分位数估计(微秒)
+        private double[] state;     //* P² 内部状态
+
+        BaselineSnapshot(long count, double ewma, double quantile, double[] state) {
+            this.count = count;
+            this.ewma = ewma;
+            this.quantile = quantile;
+            this.state = state;
+        }
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.baselines")
+    public static class BaselineProperties {
+        private boolean enabled = true;     //* 是否启用自适应基线, 关闭时只使用固定阈值
+        private double alpha = 0.05;        //* EWMA 平滑系数
+        private double quantile = 0.95;     //* 跟踪的分位数
+        private double multiplier = 1.5;    //* 超过基线的倍数视为慢SQL
+        private int minSamples = 30;        //* 样本数达到后才启用基线
+        private int maxFingerprints = 2048; //* 最多跟踪的指纹数
+        private String snapshotFile = "";   //* 快照文件, 为空时不持久化
+        private long snapshotInterval = 300;    //* 快照间隔(秒)
+    }
+}
@@ -0,0 +1,57 @@
+package me.cowra.demo.sql_tree.stats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * SQL 指纹
+ * 将语句归一化为与参数值无关的形式, 使同一类语句(包括动态SQL生成的 IN 列表)落到同一个 key 上.
+ */
+public final class SqlFingerprint {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    //* IN (?, ?, ?) 与 VALUES (?, ?), (?, ?) 的长度随参数个数变化, 需要折叠
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern VALUES_LIST = Pattern.compile("(\\(\\?\\+?\\))(?:\\s*,\\s*\\(\\?\\+?\\))+");
+
+    /**
+     * 归一化结果缓存的上限, 超过后不再缓存, 保证内存有界
+     */
+    private static final int MAX_CACHED = 2048;
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
+    private SqlFingerprint() {
+    }
+
+    /**
+     * 计算SQL指纹
+     * @param sql 原始SQL(通常为带 ? 占位符的 BoundSql)
+     * @return 归一化后的SQL
+     */
+    public static String of(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        String cached = CACHE.get(sql);
+        if (cached != null) {
+            return cached;
+        }
+        String fingerprint = normalize(sql);
+        if (CACHE.size() < MAX_CACHED) {
+            CACHE.putIfAbsent(sql, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    static String normalize(String sql) {
+        String s = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        s = STRING_LITERAL.matcher(s).replaceAll("?");
+        s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+        s = PLACEHOLDER_LIST.matcher(s).replaceAll("?+");
+        s = VALUES_LIST.matcher(s).replaceAll("$1+");
+        return s;
+    }
+}
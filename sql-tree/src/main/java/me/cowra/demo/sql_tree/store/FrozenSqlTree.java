@@ -0,0 +1,444 @@
+package me.cowra.demo.sql_tree.store;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import me.cowra.demo.sql_tree.model.ServiceCallInfo;
+import me.cowra.demo.sql_tree.model.SqlNode;
+import me.cowra.demo.sql_tree.model.SqlPhases;
+import me.cowra.demo.sql_tree.model.TransactionNode;
+import me.cowra.demo.sql_tree.trace.TraceParent;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 冻结后的SQL调用树(列式存储)
+ * 调用结束后对象图不再变化, 将其压平为按列存放的数组:
+ * 节点间关系用父节点下标表示, 时间、行数等用 long/int 数组, 字符串用本树字符串表的下标.
+ * 取值有限的字符串(指纹、语句ID、Service 名等)取自 {@link StringDictionary} 在多棵树间共享; SQL原文和错误信息
+ * 带有参数值, 取值无限, 只放在本树的字符串表中, 以免占满全局字典.
+ * 节点按先序遍历存放, 父节点下标总小于子节点下标, 序列化时顺序扫描一遍即可.
+ * 时间单位均为微秒, 以 int 保存(上限约 35 分钟), 节点开始时间为相对根 Service 开始时间的偏移.
+ */
+@JsonSerialize(using = FrozenSqlTreeSerializer.class)
+public final class FrozenSqlTree {
+
+    static final int NONE = -1;
+
+    static final byte FLAG_SLOW = 1;
+    static final byte FLAG_ERROR = 1 << 1;
+
+    static final byte TX_FLAG_LONG = 1;
+    static final byte TX_FLAG_IDLE_AFTER_WRITE = 1 << 1;
+    static final byte TX_FLAG_READ_ONLY = 1 << 2;
+
+    final long treeId;
+    final String threadName;
+    final long startEpochMillis;
+    final long executionTime;
+    final String traceParent;
+
+    /**
+     * 本树用到的字符串, 各列中的字符串字段保存的是这里的下标
+     */
+    final String[] strings;
+
+    //* Service 调用列
+    final int serviceCount;
+    final int[] serviceParent;
+    final int[] serviceName;
+    final int[] serviceMethod;
+    final int[] serviceStart;
+    final int[] serviceTime;
+    final int[] serviceSelfTime;
+    final int[] serviceSqlTime;
+    final int[] serviceWaitTime;
+
+    //* 事务列, 按事务中第一条SQL的先后排列; 开始时间相对根 Service, 事务在根调用之前开启时为负数
+    final int transactionCount;
+    final int[] txService;
+    final int[] txName;
+    final int[] txStatus;
+    final byte[] txFlags;
+    final int[] txStart;
+    final int[] txTime;
+    final int[] txSqlTime;
+    final int[] txGapTime;
+    final int[] txCompletionTime;
+    final int[] txMaxIdleAfterWrite;
+    final int[] txSqlCount;
+    final int[] txWriteCount;
+    final long[] txWrittenRows;
+
+    //* SQL 节点列
+    final int sqlCount;
+    final int[] sqlParent;
+    final int[] sqlService;
+    final int[] sqlDepth;
+    final int[] sqlType;
+    final int[] sqlText;
+    final int[] sqlFingerprint;
+    final int[] sqlStatement;
+    final int[] sqlDataSource;
+    final int[] sqlError;
+    final int[] sqlGuard;
+    final int[] sqlRejection;
+    final byte[] sqlFlags;
+    final int[] sqlStart;
+    final int[] sqlTime;
+    final int[] sqlSlowThreshold;
+    final int[] sqlRows;
+    final int[] sqlBatchSize;
+    final long[] sqlResultSize;
+    final int[] sqlWaitTime;
+    final int[] sqlSetupTime;
+    final int[] sqlPrepareTime;
+    final int[] sqlExecuteTime;
+    final int[] sqlFetchTime;
+    final int[] sqlMappingTime;
+    final int[] sqlTransaction;
+
+    //* 参数: 第 i 个节点的参数为 parameters[parameterOffset[i] .. parameterOffset[i + 1])
+    final int[] parameterOffset;
+    final String[] parameters;
+
+    private FrozenSqlTree(long treeId, ServiceCallInfo root, List<ServiceCallInfo> services,
+                          List<SqlNode> sqlNodes, int[] sqlParent) {
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> stringTable = new ArrayList<>();
+        long baseNanos = root.getStartNanos();
+
+        this.treeId = treeId;
+        //* 在顶层 Service 退出时于同一线程冻结
+        this.threadName = Thread.currentThread().getName();
+        this.startEpochMillis = root.getStartTime() != null
+                ? root.getStartTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+        this.executionTime = root.getExecutionTime();
+        this.traceParent = root.getTraceParent();
+
+        Map<ServiceCallInfo, Integer> serviceIndex = new IdentityHashMap<>();
+        Map<SqlNode, Integer> sqlOwner = new IdentityHashMap<>();
+        this.serviceCount = services.size();
+        this.serviceParent = new int[serviceCount];
+        this.serviceName = new int[serviceCount];
+        this.serviceMethod = new int[serviceCount];
+        this.serviceStart = new int[serviceCount];
+        this.serviceTime = new int[serviceCount];
+        this.serviceSelfTime = new int[serviceCount];
+        this.serviceSqlTime = new int[serviceCount];
+        this.serviceWaitTime = new int[serviceCount];
+        for (int i = 0; i < serviceCount; i++) {
+            ServiceCallInfo service = services.get(i);
+            serviceIndex.put(service, i);
+            Integer parent = service.getParent() != null ? serviceIndex.get(service.getParent()) : null;
+            serviceParent[i] = parent != null ? parent : NONE;
+            serviceName[i] = intern(service.getServiceName(), stringIndex, stringTable);
+            serviceMethod[i] = intern(service.getMethodName(), stringIndex, stringTable);
+            serviceStart[i] = clamp((service.getStartNanos() - baseNanos) / 1_000L);
+            serviceTime[i] = clamp(service.getExecutionTime());
+            serviceSelfTime[i] = clamp(service.getSelfTime());
+            serviceSqlTime[i] = clamp(service.getSqlTime());
+            serviceWaitTime[i] = clamp(service.getConnectionWaitTime());
+            for (SqlNode sqlNode : service.getSqlNodes()) {
+                sqlOwner.put(sqlNode, i);
+            }
+        }
+
+        this.sqlCount = sqlNodes.size();
+        this.sqlParent = sqlParent;
+        this.sqlService = new int[sqlCount];
+        this.sqlDepth = new int[sqlCount];
+        this.sqlType = new int[sqlCount];
+        this.sqlText = new int[sqlCount];
+        this.sqlFingerprint = new int[sqlCount];
+        this.sqlStatement = new int[sqlCount];
+        this.sqlDataSource = new int[sqlCount];
+        this.sqlError = new int[sqlCount];
+        this.sqlGuard = new int[sqlCount];
+        this.sqlRejection = new int[sqlCount];
+        this.sqlFlags = new byte[sqlCount];
+        this.sqlStart = new int[sqlCount];
+        this.sqlTime = new int[sqlCount];
+        this.sqlSlowThreshold = new int[sqlCount];
+        this.sqlRows = new int[sqlCount];
+        this.sqlBatchSize = new int[sqlCount];
+        this.sqlResultSize = new long[sqlCount];
+        this.sqlWaitTime = new int[sqlCount];
+        this.sqlSetupTime = new int[sqlCount];
+        this.sqlPrepareTime = new int[sqlCount];
+        this.sqlExecuteTime = new int[sqlCount];
+        this.sqlFetchTime = new int[sqlCount];
+        this.sqlMappingTime = new int[sqlCount];
+        this.sqlTransaction = new int[sqlCount];
+        Map<TransactionNode, Integer> transactionIndex = new IdentityHashMap<>();
+        List<TransactionNode> transactions = new ArrayList<>();
+        this.parameterOffset = new int[sqlCount + 1];
+        List<String> parameterValues = new ArrayList<>();
+        for (int i = 0; i < sqlCount; i++) {
+            SqlNode node = sqlNodes.get(i);
+            Integer owner = sqlOwner.get(node);
+            sqlService[i] = owner != null ? owner : NONE;
+            sqlDepth[i] = node.getDepth();
+            sqlType[i] = intern(node.getSqlType(), stringIndex, stringTable);
+            sqlText[i] = internLocal(node.getSql(), stringIndex, stringTable);
+            sqlFingerprint[i] = intern(node.getFingerprint(), stringIndex, stringTable);
+            sqlStatement[i] = intern(node.getStatementId(), stringIndex, stringTable);
+            sqlDataSource[i] = intern(node.getDataSourceKey(), stringIndex, stringTable);
+            sqlError[i] = internLocal(node.getErrorMessage(), stringIndex, stringTable);
+            sqlGuard[i] = intern(node.getResultGuard(), stringIndex, stringTable);
+            sqlRejection[i] = intern(node.getRejection(), stringIndex, stringTable);
+            byte flags = 0;
+            if (node.isSlowSql()) {
+                flags |= FLAG_SLOW;
+            }
+            if (node.getErrorMessage() != null) {
+                flags |= FLAG_ERROR;
+            }
+            sqlFlags[i] = flags;
+            sqlStart[i] = clamp((node.getStartNanos() - baseNanos) / 1_000L);
+            sqlTime[i] = clamp(node.getExecutionTime());
+            sqlSlowThreshold[i] = clamp(node.getSlowThreshold());
+            sqlRows[i] = node.getAffectedRows();
+            sqlBatchSize[i] = node.getBatchSize();
+            sqlResultSize[i] = node.getResultSize();
+            SqlPhases phases = node.getPhases();
+            if (phases != null) {
+                sqlWaitTime[i] = clamp(phases.getConnectionWaitTime());
+                sqlSetupTime[i] = clamp(phases.getSetupTime());
+                sqlPrepareTime[i] = clamp(phases.getPrepareTime());
+                sqlExecuteTime[i] = clamp(phases.getExecuteTime());
+                sqlFetchTime[i] = clamp(phases.getFetchTime());
+                sqlMappingTime[i] = clamp(phases.getMappingTime());
+            }
+            TransactionNode transaction = node.getTransaction();
+            if (transaction != null) {
+                sqlTransaction[i] = transactionIndex.computeIfAbsent(transaction, t -> {
+                    transactions.add(t);
+                    return transactions.size() - 1;
+                });
+            } else {
+                sqlTransaction[i] = NONE;
+            }
+            parameterOffset[i] = parameterValues.size();
+            if (node.getParameters() != null) {
+                for (Object value : node.getParameters()) {
+                    parameterValues.add(value != null ? String.valueOf(value) : null);
+                }
+            }
+        }
+        parameterOffset[sqlCount] = parameterValues.size();
+        this.parameters = parameterValues.toArray(new String[0]);
+
+        this.transactionCount = transactions.size();
+        this.txService = new int[transactionCount];
+        this.txName = new int[transactionCount];
+        this.txStatus = new int[transactionCount];
+        this.txFlags = new byte[transactionCount];
+        this.txStart = new int[transactionCount];
+        this.txTime = new int[transactionCount];
+        this.txSqlTime = new int[transactionCount];
+        this.txGapTime = new int[transactionCount];
+        this.txCompletionTime = new int[transactionCount];
+        this.txMaxIdleAfterWrite = new int[transactionCount];
+        this.txSqlCount = new int[transactionCount];
+        this.txWriteCount = new int[transactionCount];
+        this.txWrittenRows = new long[transactionCount];
+        for (int i = 0; i < transactionCount; i++) {
+            TransactionNode transaction = transactions.get(i);
+            Integer service = transaction.getService() != null ? serviceIndex.get(transaction.getService()) : null;
+            txService[i] = service != null ? service : NONE;
+            txName[i] = intern(transaction.getName(), stringIndex, stringTable);
+            txStatus[i] = intern(transaction.getStatus().name(), stringIndex, stringTable);
+            byte flags = 0;
+            if (transaction.getFlags().contains(TransactionNode.FLAG_LONG_TRANSACTION)) {
+                flags |= TX_FLAG_LONG;
+            }
+            if (transaction.getFlags().contains(TransactionNode.FLAG_IDLE_AFTER_WRITE)) {
+                flags |= TX_FLAG_IDLE_AFTER_WRITE;
+            }
+            if (transaction.isReadOnly()) {
+                flags |= TX_FLAG_READ_ONLY;
+            }
+            txFlags[i] = flags;
+            txStart[i] = clamp((transaction.getStartNanos() - baseNanos) / 1_000L);
+            txTime[i] = clamp(transaction.getExecutionTime());
+            txSqlTime[i] = clamp(transaction.getSqlTime());
+            txGapTime[i] = clamp(transaction.getGapTime());
+            txCompletionTime[i] = clamp(transaction.getCompletionTime());
+            txMaxIdleAfterWrite[i] = clamp(transaction.getMaxIdleAfterWrite());
+            txSqlCount[i] = transaction.getSqlCount();
+            txWriteCount[i] = transaction.getWriteCount();
+            txWrittenRows[i] = transaction.getWrittenRows();
+        }
+        this.strings = stringTable.toArray(new String[0]);
+    }
+
+    /**
+     * 冻结一棵调用树
+     * @param treeId 树ID
+     * @param root 顶层 Service 调用(已结束)
+     * @param rootSqlNodes 本线程收集到的根SQL节点
+     * @return 冻结后的树
+     */
+    public static FrozenSqlTree freeze(long treeId, ServiceCallInfo root, List<SqlNode> rootSqlNodes) {
+        List<ServiceCallInfo> services = new ArrayList<>();
+        collectServices(root, services);
+
+        List<SqlNode> sqlNodes = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        for (SqlNode node : rootSqlNodes) {
+            collectSqlNodes(node, NONE, sqlNodes, parents);
+        }
+        int[] sqlParent = new int[parents.size()];
+        for (int i = 0; i < sqlParent.length; i++) {
+            sqlParent[i] = parents.get(i);
+        }
+        return new FrozenSqlTree(treeId, root, services, sqlNodes, sqlParent);
+    }
+
+    private static void collectServices(ServiceCallInfo service, List<ServiceCallInfo> services) {
+        services.add(service);
+        for (ServiceCallInfo child : service.getChildren()) {
+            collectServices(child, services);
+        }
+    }
+
+    private static void collectSqlNodes(SqlNode node, int parent, List<SqlNode> sqlNodes, List<Integer> parents) {
+        int index = sqlNodes.size();
+        sqlNodes.add(node);
+        parents.add(parent);
+        for (SqlNode child : node.getChildren()) {
+            collectSqlNodes(child, index, sqlNodes, parents);
+        }
+    }
+
+    private static int clamp(long micros) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, micros));
+    }
+
+    /**
+     * 取值有限的字符串, 使用全局字典中的共享实例
+     */
+    private static int intern(String value, Map<String, Integer> index, List<String> table) {
+        return add(value != null ? StringDictionary.canonical(value) : null, index, table);
+    }
+
+    /**
+     * 取值无限的字符串(SQL原文、错误信息), 只在本树内去重
+     */
+    private static int internLocal(String value, Map<String, Integer> index, List<String> table) {
+        return add(value, index, table);
+    }
+
+    private static int add(String value, Map<String, Integer> index, List<String> table) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer existing = index.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        table.add(value);
+        index.put(value, table.size() - 1);
+        return table.size() - 1;
+    }
+
+    String string(int index) {
+        return index == NONE ? null : strings[index];
+    }
+
+    public long getTreeId() {
+        return treeId;
+    }
+
+    public String getRootService() {
+        return serviceCount > 0 ? string(serviceName[0]) + "." + string(serviceMethod[0]) : null;
+    }
+
+    public long getExecutionTime() {
+        return executionTime;
+    }
+
+    /**
+     * 顶层调用的 trace-id, 同一请求的多个顶层调用相同
+     */
+    public String getTraceId() {
+        return TraceParent.traceIdOf(traceParent);
+    }
+
+    public int getSqlCount() {
+        return sqlCount;
+    }
+
+    public int getSlowSqlCount() {
+        int count = 0;
+        for (byte flags : sqlFlags) {
+            if ((flags & FLAG_SLOW) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 带有风险标记(长事务、写后空闲)的事务数
+     */
+    public int getFlaggedTransactionCount() {
+        int count = 0;
+        for (byte flags : txFlags) {
+            if ((flags & (TX_FLAG_LONG | TX_FLAG_IDLE_AFTER_WRITE)) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 是否包含指定 Service(类名, 或 类名.方法名)的调用
+     */
+    public boolean involvesService(String service) {
+        for (int i = 0; i < serviceCount; i++) {
+            String name = string(serviceName[i]);
+            if (name.equals(service) || (name + "." + string(serviceMethod[i])).equals(service)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Summary summary() {
+        return new Summary(treeId, getRootService(), getTraceId(), threadName, startEpochMillis, executionTime,
+                serviceCount, sqlCount, getSlowSqlCount(), transactionCount, getFlaggedTransactionCount());
+    }
+
+    /**
+     * 列表展示用的概要
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Summary {
+        private long treeId;
+        private String rootService;
+        private String traceId;
+        private String threadName;
+        private long startTime;     //* epoch 毫秒
+        private long executionTimeMicros;
+        private int serviceCount;
+        private int sqlCount;
+        private int slowSqlCount;
+        private int transactionCount;
+        private int flaggedTransactionCount;
+
+        /**
+         * 毫秒(截断), 与改为微秒计时之前的 executionTime 字段单位一致
+         */
+        public long getExecutionTime() {
+            return executionTimeMicros / 1_000L;
+        }
+    }
+}
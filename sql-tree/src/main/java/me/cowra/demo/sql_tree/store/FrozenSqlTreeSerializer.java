@@ -0,0 +1,147 @@
+package me.cowra.demo.sql_tree.store;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import me.cowra.demo.sql_tree.model.TransactionNode;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 冻结调用树的 JSON 序列化
+ * 直接按列顺序写出, 每个节点一个扁平对象, 用 parent/service 下标表示层级, 不需要递归和反射.
+ * 时间字段均为微秒, 只有 executionTime 保持旧版的毫秒(截断)以兼容已有的使用方, 微秒值见 executionTimeMicros.
+ */
+public class FrozenSqlTreeSerializer extends StdSerializer<FrozenSqlTree> {
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    public FrozenSqlTreeSerializer() {
+        super(FrozenSqlTree.class);
+    }
+
+    @Override
+    public void serialize(FrozenSqlTree tree, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("treeId", tree.treeId);
+        gen.writeStringField("rootService", tree.getRootService());
+        gen.writeStringField("traceId", tree.getTraceId());
+        gen.writeStringField("traceParent", tree.traceParent);
+        gen.writeStringField("threadName", tree.threadName);
+        gen.writeStringField("startTime", TIME_FORMAT.format(Instant.ofEpochMilli(tree.startEpochMillis)));
+        writeExecutionTime(gen, tree.executionTime);
+        gen.writeNumberField("serviceCount", tree.serviceCount);
+        gen.writeNumberField("sqlCount", tree.sqlCount);
+        gen.writeNumberField("transactionCount", tree.transactionCount);
+
+        gen.writeArrayFieldStart("services");
+        for (int i = 0; i < tree.serviceCount; i++) {
+            gen.writeStartObject();
+            gen.writeNumberField("index", i);
+            gen.writeNumberField("parent", tree.serviceParent[i]);
+            gen.writeStringField("serviceName", tree.string(tree.serviceName[i]));
+            gen.writeStringField("methodName", tree.string(tree.serviceMethod[i]));
+            gen.writeNumberField("startOffset", tree.serviceStart[i]);
+            writeExecutionTime(gen, tree.serviceTime[i]);
+            gen.writeNumberField("selfTime", tree.serviceSelfTime[i]);
+            gen.writeNumberField("sqlTime", tree.serviceSqlTime[i]);
+            gen.writeNumberField("connectionWaitTime", tree.serviceWaitTime[i]);
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+
+        gen.writeArrayFieldStart("transactions");
+        for (int i = 0; i < tree.transactionCount; i++) {
+            gen.writeStartObject();
+            gen.writeNumberField("index", i);
+            gen.writeNumberField("service", tree.txService[i]);
+            writeString(gen, "name", tree.string(tree.txName[i]));
+            writeString(gen, "status", tree.string(tree.txStatus[i]));
+            gen.writeBooleanField("readOnly", (tree.txFlags[i] & FrozenSqlTree.TX_FLAG_READ_ONLY) != 0);
+            gen.writeNumberField("startOffset", tree.txStart[i]);
+            writeExecutionTime(gen, tree.txTime[i]);
+            gen.writeNumberField("sqlTime", tree.txSqlTime[i]);
+            gen.writeNumberField("gapTime", tree.txGapTime[i]);
+            gen.writeNumberField("completionTime", tree.txCompletionTime[i]);
+            gen.writeNumberField("maxIdleAfterWrite", tree.txMaxIdleAfterWrite[i]);
+            gen.writeNumberField("sqlCount", tree.txSqlCount[i]);
+            gen.writeNumberField("writeCount", tree.txWriteCount[i]);
+            gen.writeNumberField("writtenRows", tree.txWrittenRows[i]);
+            gen.writeArrayFieldStart("flags");
+            if ((tree.txFlags[i] & FrozenSqlTree.TX_FLAG_LONG) != 0) {
+                gen.writeString(TransactionNode.FLAG_LONG_TRANSACTION);
+            }
+            if ((tree.txFlags[i] & FrozenSqlTree.TX_FLAG_IDLE_AFTER_WRITE) != 0) {
+                gen.writeString(TransactionNode.FLAG_IDLE_AFTER_WRITE);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+
+        gen.writeArrayFieldStart("sqlNodes");
+        for (int i = 0; i < tree.sqlCount; i++) {
+            gen.writeStartObject();
+            gen.writeNumberField("index", i);
+            gen.writeNumberField("parent", tree.sqlParent[i]);
+            gen.writeNumberField("service", tree.sqlService[i]);
+            gen.writeNumberField("depth", tree.sqlDepth[i]);
+            if (tree.sqlTransaction[i] != FrozenSqlTree.NONE) {
+                gen.writeNumberField("transaction", tree.sqlTransaction[i]);
+            }
+            writeString(gen, "sqlType", tree.string(tree.sqlType[i]));
+            writeString(gen, "sql", tree.string(tree.sqlText[i]));
+            writeString(gen, "fingerprint", tree.string(tree.sqlFingerprint[i]));
+            writeString(gen, "statementId", tree.string(tree.sqlStatement[i]));
+            writeString(gen, "dataSourceKey", tree.string(tree.sqlDataSource[i]));
+            gen.writeNumberField("startOffset", tree.sqlStart[i]);
+            writeExecutionTime(gen, tree.sqlTime[i]);
+            gen.writeBooleanField("slowSql", (tree.sqlFlags[i] & FrozenSqlTree.FLAG_SLOW) != 0);
+            gen.writeNumberField("slowThreshold", tree.sqlSlowThreshold[i]);
+            gen.writeNumberField("affectedRows", tree.sqlRows[i]);
+            if (tree.sqlBatchSize[i] > 0) {
+                gen.writeNumberField("batchSize", tree.sqlBatchSize[i]);
+            }
+            gen.writeNumberField("resultSize", tree.sqlResultSize[i]);
+            writeString(gen, "resultGuard", tree.string(tree.sqlGuard[i]));
+            writeString(gen, "rejection", tree.string(tree.sqlRejection[i]));
+            writeString(gen, "errorMessage", tree.string(tree.sqlError[i]));
+
+            gen.writeObjectFieldStart("phases");
+            gen.writeNumberField("connectionWaitTime", tree.sqlWaitTime[i]);
+            gen.writeNumberField("setupTime", tree.sqlSetupTime[i]);
+            gen.writeNumberField("prepareTime", tree.sqlPrepareTime[i]);
+            gen.writeNumberField("executeTime", tree.sqlExecuteTime[i]);
+            gen.writeNumberField("fetchTime", tree.sqlFetchTime[i]);
+            gen.writeNumberField("mappingTime", tree.sqlMappingTime[i]);
+            gen.writeEndObject();
+
+            gen.writeArrayFieldStart("parameters");
+            for (int p = tree.parameterOffset[i]; p < tree.parameterOffset[i + 1]; p++) {
+                gen.writeString(tree.parameters[p]);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    /**
+     * executionTime 在改为微秒计时之前是毫秒, 保持该字段的单位不变, 另写出 executionTimeMicros
+     */
+    private static void writeExecutionTime(JsonGenerator gen, long micros) throws IOException {
+        gen.writeNumberField("executionTime", micros / 1_000L);
+        gen.writeNumberField("executionTimeMicros", micros);
+    }
+
+    private static void writeString(JsonGenerator gen, String field, String value) throws IOException {
+        if (value != null) {
+            gen.writeStringField(field, value);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package me.cowra.demo.sql_tree.store;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.SqlTreeProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 已完成调用树的存储
+ * 固定大小的环形数组, 只保留最近 max-sessions 棵冻结后的树; 写入与按ID读取均为 O(1) 且无锁.
+ * 运行期调整容量时换一个新数组, 并把仍能放下的最近的树搬过去.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class SqlTreeStore {
+
+    private final SqlTreeProperties properties;
+
+    private final AtomicLong sequence = new AtomicLong();
+    //* 保存后的通知, 在产生调用树的线程上同步执行, 监听者不能阻塞
+    private final List<Consumer<FrozenSqlTree>> listeners = new CopyOnWriteArrayList<>();
+    private volatile AtomicReferenceArray<FrozenSqlTree> slots;
+
+    @PostConstruct
+    public void init() {
+        slots = new AtomicReferenceArray<>(Math.max(1, properties.getMaxSessions()));
+        log.info("SQL tree store: maxSessions={}", slots.length());
+    }
+
+    /**
+     * 分配新的树ID
+     */
+    public long nextTreeId() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * 调整保留的树数量
+     * 与并发写入之间不加锁: 切换数组的瞬间写入旧数组的树可能丢失, 对诊断数据可以接受
+     */
+    public synchronized void resize(int maxSessions) {
+        AtomicReferenceArray<FrozenSqlTree> old = slots;
+        int capacity = Math.max(1, maxSessions);
+        if (capacity == old.length()) {
+            return;
+        }
+        AtomicReferenceArray<FrozenSqlTree> resized = new AtomicReferenceArray<>(capacity);
+        long last = sequence.get();
+        for (long id = last; id > Math.max(0, last - capacity); id--) {
+            FrozenSqlTree tree = old.get((int) (id % old.length()));
+            if (tree != null && tree.getTreeId() == id) {
+                resized.set((int) (id % capacity), tree);
+            }
+        }
+        slots = resized;
+        log.info("SQL tree store resized: maxSessions {} -> {}", old.length(), capacity);
+    }
+
+    public int getMaxSessions() {
+        return slots.length();
+    }
+
+    public void save(FrozenSqlTree tree) {
+        AtomicReferenceArray<FrozenSqlTree> slots = this.slots;
+        slots.set((int) (tree.getTreeId() % slots.length()), tree);
+        for (Consumer<FrozenSqlTree> listener : listeners) {
+            try {
+                listener.accept(tree);
+            } catch (Exception e) {
+                log.warn("SQL tree listener failed", e);
+            }
+        }
+    }
+
+    public void addListener(Consumer<FrozenSqlTree> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 按ID读取, 已被覆盖时返回 null
+     */
+    public FrozenSqlTree get(long treeId) {
+        if (treeId <= 0) {
+            return null;
+        }
+        AtomicReferenceArray<FrozenSqlTree> slots = this.slots;
+        FrozenSqlTree tree = slots.get((int) (treeId % slots.length()));
+        return tree != null && tree.getTreeId() == treeId ? tree : null;
+    }
+
+    /**
+     * 最近的树, 按ID倒序
+     * @param limit 最多返回条数
+     */
+    public List<FrozenSqlTree> recent(int limit) {
+        long last = sequence.get();
+        int count = (int) Math.min(Math.min(limit, slots.length()), last);
+        List<FrozenSqlTree> trees = new ArrayList<>(Math.max(count, 0));
+        for (long id = last; id > last - count; id--) {
+            FrozenSqlTree tree = get(id);
+            if (tree != null) {
+                trees.add(tree);
+            }
+        }
+        return trees;
+    }
+
+    /**
+     * 按 trace-id 查找仍保留在存储中的树, 用于从数据库慢日志中的注释反查调用树
+     */
+    public List<FrozenSqlTree> findByTraceId(String traceId) {
+        List<FrozenSqlTree> trees = new ArrayList<>();
+        for (FrozenSqlTree tree : recent(slots.length())) {
+            if (traceId.equalsIgnoreCase(tree.getTraceId())) {
+                trees.add(tree);
+            }
+        }
+        return trees;
+    }
+
+    public void clear() {
+        AtomicReferenceArray<FrozenSqlTree> slots = this.slots;
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+package me.cowra.demo.sql_tree.store;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 已完成调用树的实时推送(Server-Sent Events)
+ * 产生调用树的请求线程只做过滤和 offer, 不做任何 IO; 每个订阅者有自己的有界缓冲区,
+ * 由发送线程池异步写出. 缓冲区超过高水位时只接收含慢SQL的树(稀释), 满了就丢弃并计数,
+ * 自上次成功发送以来丢弃数超过缓冲区大小的订阅者视为跟不上, 直接断开.
+ *
+ * emitter.send 是阻塞写: 不再读取的客户端会让正在给它发送的线程一直阻塞, 直到 Tomcat 的写超时
+ * (server.tomcat.connection-timeout)抛出异常后断开. 为了不让它拖住其他订阅者, 同一订阅者的发送、心跳和断开
+ * 都串行在它自己的一个任务里, 同一时刻最多占用一个发送线程; 发送线程池可以扩展到 max-subscribers 个线程,
+ * 所以即使所有慢客户端都卡在写上, 每个正常的订阅者仍有线程可用. 代价是最坏情况下有 max-subscribers 个线程阻塞.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class SqlTreeStream {
+
+    private final SqlTreeStore sqlTreeStore;
+    private final SqlTreeStreamProperties properties;
+
+    private final Map<Long, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final AtomicLong subscriberIds = new AtomicLong();
+
+    private ThreadPoolExecutor senders;
+    private ScheduledExecutorService heartbeat;
+
+    @PostConstruct
+    public void init() {
+        //* bufferSize 小于 1 时无法建立缓冲区(ArrayBlockingQueue 要求容量至少为 1), 按 1 处理
+        if (properties.getBufferSize() < 1 || properties.getMaxSubscribers() < 1) {
+            log.warn("Invalid SQL tree stream settings bufferSize={}, maxSubscribers={}, using at least 1",
+                    properties.getBufferSize(), properties.getMaxSubscribers());
+        }
+        int maxThreads = Math.max(1, properties.getMaxSubscribers());
+        AtomicInteger threads = new AtomicInteger();
+        //* 每个订阅者最多一个任务在执行, 所以最多 max-subscribers 个线程; 超出常驻数的线程空闲一分钟后回收
+        senders = new ThreadPoolExecutor(Math.max(1, Math.min(properties.getSenderThreads(), maxThreads)), maxThreads,
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "sql-tree-sse-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sql-tree-sse-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::heartbeat, properties.getHeartbeatInterval(),
+                properties.getHeartbeatInterval(), TimeUnit.SECONDS);
+        sqlTreeStore.addListener(this::publish);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.values().forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+        heartbeat.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    /**
+     * 新增订阅
+     * @param slowOnly 只推送含慢SQL的树
+     * @param service 只推送包含该 Service(类名, 或 类名.方法名)调用的树, 为空时不过滤
+     */
+    public SseEmitter subscribe(boolean slowOnly, String service) {
+        SseEmitter emitter = new SseEmitter(properties.getTimeout());
+        if (subscribers.size() >= properties.getMaxSubscribers()) {
+            emitter.completeWithError(new IllegalStateException("Too many SQL tree subscribers"));
+            return emitter;
+        }
+
+        long id = subscriberIds.incrementAndGet();
+        Subscriber subscriber = new Subscriber(id, emitter, slowOnly,
+                service == null || service.isBlank() ? null : service, Math.max(1, properties.getBufferSize()));
+        subscribers.put(id, subscriber);
+        emitter.onCompletion(() -> remove(subscriber, "completed"));
+        emitter.onTimeout(() -> remove(subscriber, "timeout"));
+        emitter.onError(e -> remove(subscriber, "error"));
+        log.info("SQL tree subscriber #{} connected: slowOnly={}, service={}", id, slowOnly, subscriber.service);
+        return emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * 在产生调用树的线程上调用, 不能阻塞
+     */
+    private void publish(FrozenSqlTree tree) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers.values()) {
+            if (!subscriber.accepts(tree)) {
+                continue;
+            }
+            if (subscriber.offer(tree)) {
+                schedule(subscriber);
+            } else if (subscriber.droppedSinceSend.get() > subscriber.capacity) {
+                log.warn("SQL tree subscriber #{} is too slow, disconnecting ({} trees dropped)",
+                        subscriber.id, subscriber.dropped.get());
+                remove(subscriber, "too slow");
+                //! emitter.send 持有 emitter 的锁, 由该订阅者自己的发送任务关闭, 不让请求线程或其他订阅者等待慢连接
+                subscriber.closing = true;
+                schedule(subscriber);
+            }
+        }
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                senders.execute(() -> drain(subscriber));
+            } catch (Exception e) {
+                //* 线程池已关闭, 或订阅者数量在并发订阅时短暂超过上限
+                subscriber.scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 在发送线程上写出订阅者缓冲区中的树和待发的心跳, 或关闭被判定为跟不上的连接; 慢客户端只会占用它自己的一个发送线程
+     */
+    private void drain(Subscriber subscriber) {
+        if (subscriber.closed) {
+            subscriber.scheduled.set(false);
+            return;
+        }
+        try {
+            FrozenSqlTree tree;
+            while (!subscriber.closing && (tree = subscriber.queue.poll()) != null) {
+                long dropped = subscriber.droppedSinceSend.getAndSet(0);
+                if (dropped > 0) {
+                    subscriber.emitter.send(SseEmitter.event().name("dropped").data(dropped));
+                }
+                subscriber.emitter.send(SseEmitter.event()
+                        .name("tree")
+                        .id(String.valueOf(tree.getTreeId()))
+                        .data(tree, MediaType.APPLICATION_JSON));
+            }
+            if (subscriber.closing) {
+                subscriber.closed = true;
+                subscriber.queue.clear();
+                subscriber.emitter.complete();
+                return;
+            }
+            if (subscriber.heartbeatDue.getAndSet(false)) {
+                subscriber.emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("SQL tree subscriber #{} send failed: {}", subscriber.id, e.getMessage());
+            subscriber.closed = true;
+            remove(subscriber, "send failed");
+            subscriber.emitter.completeWithError(e);
+        } finally {
+            subscriber.scheduled.set(false);
+        }
+        //* 发送期间新到达的树、心跳或断开请求(它们的 schedule 可能因本任务尚未结束而落空)
+        if (!subscriber.closed && (subscriber.closing || subscriber.heartbeatDue.get()
+                || !subscriber.queue.isEmpty() && subscribers.containsKey(subscriber.id))) {
+            schedule(subscriber);
+        }
+    }
+
+    /**
+     * 心跳也走订阅者自己的发送任务, 不会与正在进行的发送并发占用第二个线程
+     */
+    private void heartbeat() {
+        for (Subscriber subscriber : subscribers.values()) {
+            if (subscriber.queue.isEmpty() && !subscriber.scheduled.get()) {
+                subscriber.heartbeatDue.set(true);
+                schedule(subscriber);
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber, String reason) {
+        if (subscribers.remove(subscriber.id) != null) {
+            log.info("SQL tree subscriber #{} disconnected: {}, dropped={}", subscriber.id, reason, subscriber.dropped.get());
+        }
+    }
+
+    private static final class Subscriber {
+        private final long id;
+        private final SseEmitter emitter;
+        private final boolean slowOnly;
+        private final String service;
+        private final int capacity;
+        private final int highWatermark;
+        private final BlockingQueue<FrozenSqlTree> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean heartbeatDue = new AtomicBoolean();
+        private volatile boolean closing;   //* 已判定为跟不上, 由发送任务关闭连接
+        private volatile boolean closed;    //* 连接已关闭或发送失败, 不再发送
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong droppedSinceSend = new AtomicLong();
+
+        Subscriber(long id, SseEmitter emitter, boolean slowOnly, String service, int capacity) {
+            this.id = id;
+            this.emitter = emitter;
+            this.slowOnly = slowOnly;
+            this.service = service;
+            this.capacity = capacity;
+            this.highWatermark = Math.max(1, capacity * 3 / 4);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        boolean accepts(FrozenSqlTree tree) {
+            return (!slowOnly || tree.getSlowSqlCount() > 0)
+                    && (service == null || tree.involvesService(service));
+        }
+
+        /**
+         * 高水位以上只接收含慢SQL的树, 满了直接丢弃
+         */
+        boolean offer(FrozenSqlTree tree) {
+            boolean thinned = queue.size() >= highWatermark && tree.getSlowSqlCount() == 0;
+            if (!thinned && queue.offer(tree)) {
+                return true;
+            }
+            dropped.incrementAndGet();
+            droppedSinceSend.incrementAndGet();
+            return false;
+        }
+    }
+
+    @Data
+    @Component
+    @ConfigurationProperties(prefix = "sql-tree.stream")
+    public static class SqlTreeStreamProperties {
+        private int maxSubscribers = 16;    //* 最大订阅者数量
+        private int bufferSize = 256;   //* 每个订阅者缓冲的树数量, 至少为 1
+        private int senderThreads = 4;  //* 常驻发送线程数, 卡住的慢连接各占一个线程时最多扩展到 maxSubscribers 个
+        private long heartbeatInterval = 15;    //* 心跳间隔(秒), 用于及时发现已断开的连接
+        private long timeout = 30 * 60 * 1000L; //* 单个连接的最长时间(毫秒)
+    }
+}
@@ -0,0 +1,41 @@
+package me.cowra.demo.sql_tree.store;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 全局字符串字典
+ * 冻结的调用树中指纹、语句ID、Service 名等取值有限、高度重复的字符串都替换为字典中的同一个实例,
+ * 多棵树之间共享, 每棵树只保存引用. 字典不淘汰, 条目数有上限, 超出后直接使用原字符串;
+ * 因此只应放入取值有限的字符串, 带参数值的SQL原文、错误信息等不放入.
+ */
+public final class StringDictionary {
+
+    static final int MAX_ENTRIES = 8192;
+    private static final Map<String, String> ENTRIES = new ConcurrentHashMap<>();
+
+    private StringDictionary() {
+    }
+
+    /**
+     * 取得字符串的共享实例
+     */
+    public static String canonical(String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = ENTRIES.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (ENTRIES.size() >= MAX_ENTRIES) {
+            return value;
+        }
+        existing = ENTRIES.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    public static int size() {
+        return ENTRIES.size();
+    }
+}
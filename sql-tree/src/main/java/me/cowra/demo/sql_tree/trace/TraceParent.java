@@ -0,0 +1,160 @@
+package me.cowra.demo.sql_tree.trace;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * W3C Trace Context 的 traceparent: 00-{trace-id 32位hex}-{parent-id 16位hex}-{flags 2位hex}
+ * 请求带 traceparent 头时沿用其 trace-id, 否则生成新的; 每个顶层 Service 调用是其中的一个 span.
+ * 当前请求的 traceparent 由 {@link TraceParentFilter} 绑定到线程上.
+ */
+public final class TraceParent {
+
+    public static final String HEADER = "traceparent";
+
+    private static final String VERSION = "00";
+    private static final String SAMPLED = "01";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<TraceParent> CURRENT = new ThreadLocal<>();
+
+    private final String traceId;
+    private final String spanId;
+    private final String flags;
+
+    private TraceParent(String traceId, String spanId, String flags) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.flags = flags;
+    }
+
+    /**
+     * 解析 traceparent 头
+     * @return 格式不合法(含全零ID、版本 ff)时返回 null
+     */
+    public static TraceParent parse(String header) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        //* 未来版本可能在后面追加字段, 只要求前 55 个字符符合 00 版本的格式; 00 版本本身必须恰好 55 个字符
+        if (value.length() < 55 || (value.length() > 55 && value.charAt(55) != '-')) {
+            return null;
+        }
+        String version = value.substring(0, 2);
+        if (VERSION.equals(version) && value.length() > 55) {
+            return null;
+        }
+        String traceId = value.substring(3, 35);
+        String spanId = value.substring(36, 52);
+        String flags = value.substring(53, 55);
+        if (value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-'
+                || !isHex(version) || "ff".equals(version) || !isHex(traceId) || !isHex(spanId) || !isHex(flags)
+                || isZero(traceId) || isZero(spanId)) {
+            return null;
+        }
+        return new TraceParent(traceId, spanId, flags);
+    }
+
+    /**
+     * 生成新的 trace
+     */
+    public static TraceParent generate() {
+        return new TraceParent(randomHex(32), randomHex(16), SAMPLED);
+    }
+
+    /**
+     * 同一 trace 下的新 span
+     */
+    public TraceParent child() {
+        return new TraceParent(traceId, randomHex(16), flags);
+    }
+
+    /**
+     * 当前线程所处请求的 traceparent, 不在请求中时为 null
+     */
+    public static TraceParent current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 为一个新的 span 取 traceparent: 当前请求有 trace 时作为其子 span, 否则新建 trace
+     */
+    public static TraceParent next() {
+        TraceParent current = CURRENT.get();
+        return current != null ? current.child() : generate();
+    }
+
+    /**
+     * 让任务在另一个线程中沿用当前线程的 traceparent: 执行期间绑定提交时的值, 结束后恢复该线程原来的值
+     */
+    public static Runnable propagate(Runnable task) {
+        TraceParent captured = CURRENT.get();
+        return () -> {
+            TraceParent previous = CURRENT.get();
+            bind(captured);
+            try {
+                task.run();
+            } finally {
+                bind(previous);
+            }
+        };
+    }
+
+    static void bind(TraceParent traceParent) {
+        if (traceParent == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(traceParent);
+        }
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * 从 traceparent 字符串中取出 trace-id
+     */
+    public static String traceIdOf(String traceParent) {
+        return traceParent != null && traceParent.length() >= 35 ? traceParent.substring(3, 35) : null;
+    }
+
+    @Override
+    public String toString() {
+        return VERSION + "-" + traceId + "-" + spanId + "-" + flags;
+    }
+
+    private static String randomHex(int length) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] chars = new char[length];
+        do {
+            for (int i = 0; i < length; i++) {
+                chars[i] = HEX[random.nextInt(16)];
+            }
+        } while (isZero(new String(chars)));
+        return new String(chars);
+    }
+
+    private static boolean isHex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
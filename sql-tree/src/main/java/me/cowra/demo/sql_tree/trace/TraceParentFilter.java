@@ -0,0 +1,35 @@
+package me.cowra.demo.sql_tree.trace;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 读取请求的 traceparent 头(没有或不合法时生成), 绑定到处理请求的线程, 并在响应头中返回,
+ * 调用方据此可以到数据库慢日志或调用树中查找本次请求的SQL
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TraceParentFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        TraceParent incoming = TraceParent.parse(request.getHeader(TraceParent.HEADER));
+        TraceParent traceParent = incoming != null ? incoming.child() : TraceParent.generate();
+        response.setHeader(TraceParent.HEADER, traceParent.toString());
+        TraceParent.bind(traceParent);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            TraceParent.bind(null);
+        }
+    }
+}
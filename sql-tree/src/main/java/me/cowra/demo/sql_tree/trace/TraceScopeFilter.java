@@ -0,0 +1,41 @@
+package me.cowra.demo.sql_tree.trace;
+
+import lombok.RequiredArgsConstructor;
+import me.cowra.demo.sql_tree.datasource.ReadWriteRouting;
+import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 每个 HTTP 请求一个追踪范围
+ * Tomcat 的工作线程是复用的, 请求结束时由 {@link SqlCallTreeContext#closeScope(String)} 保存尚未保存的树,
+ * 并移除调用栈、根节点列表等所有 ThreadLocal, 异常导致的不平衡栈帧计入统计, 不会带入下一个请求.
+ * 排在 {@link TraceParentFilter} 之后, 关闭范围时请求的 traceparent 仍然可用.
+ */
+@RequiredArgsConstructor
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class TraceScopeFilter extends OncePerRequestFilter {
+
+    private final SqlCallTreeContext sqlCallTreeContext;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        sqlCallTreeContext.openScope();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            sqlCallTreeContext.closeScope(request.getMethod() + " " + request.getRequestURI());
+            ReadWriteRouting.reset();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package me.cowra.demo.sql_tree.aop;
+
+import lombok.extern.slf4j.Slf4j;
+import me.cowra.demo.sql_tree.SqlTreeApp;
+import me.cowra.demo.sql_tree.mapper.SqlCallTreeContext;
+import me.cowra.demo.sql_tree.model.ServiceCallInfo;
+import org.aspectj.lang.Aspects;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link ServiceCallTraceAspect} 单次调用开销的基准
+ * 对空方法调用 2e6 次为一轮, 取最好的一轮折算为每次调用的纳秒数, 分别在追踪关闭/开启下测量:
+ * direct 直接调用; proxy (legacy) 改造前的切面(每次调用解析名称、INFO 日志); proxy (cached) 当前切面经 Spring AOP 代理;
+ * ajc 当前切面编译期织入. ajc 织入后测试类本身也带上了切面, 所以两种构建分别测量:
+ *
+ *   mvn -Pbenchmark verify          direct / proxy (legacy) / proxy (cached)
+ *   mvn -Pajc,benchmark verify      direct / ajc
+ *
+ * 系统属性: benchmark.calls=2000000, benchmark.rounds=10.
+ * 追踪开启时被测方法都是顶层调用, 每次调用都会生成并保存一棵只有一个节点的树.
+ */
+public class AspectOverheadBenchmark {
+
+    private static final int CALLS = Integer.getInteger("benchmark.calls", 2_000_000);
+    private static final int ROUNDS = Math.max(1, Integer.getInteger("benchmark.rounds", 10));
+
+    public static void main(String[] args) {
+        boolean woven = Aspects.hasAspect(ServiceCallTraceAspect.class);
+        try (ConfigurableApplicationContext context = start(woven)) {
+            SqlCallTreeContext sqlCallTreeContext = context.getBean(SqlCallTreeContext.class);
+
+            Map<String, Runnable> modes = new LinkedHashMap<>();
+            PlainTarget plain = new PlainTarget();
+            modes.put("direct", plain::work);
+            if (woven) {
+                TracedTarget target = new TracedTarget();
+                modes.put("ajc", target::work);
+            } else {
+                LegacyTraceAspect legacyAspect = new LegacyTraceAspect();
+                legacyAspect.setSqlCallTreeContext(sqlCallTreeContext);
+                LegacyTarget legacy = proxy(new LegacyTarget(), legacyAspect);
+                modes.put("proxy (legacy)", legacy::work);
+                ServiceCallTraceAspect aspect = new ServiceCallTraceAspect();
+                aspect.setSqlCallTreeContext(sqlCallTreeContext);
+                TracedTarget cached = proxy(new TracedTarget(), aspect);
+                modes.put("proxy (cached)", cached::work);
+            }
+
+            System.out.printf("%nAspect overhead, JDK %s, %,d calls x %d rounds, best round%n",
+                    Runtime.version(), CALLS, ROUNDS);
+            for (boolean traceEnabled : new boolean[]{false, true}) {
+                sqlCallTreeContext.setTraceEnabled(traceEnabled);
+                System.out.printf("trace %s%n", traceEnabled ? "on" : "off");
+                modes.forEach((name, call) -> System.out.printf("  %-16s %10.1f ns/call%n", name, measure(call)));
+            }
+        }
+    }
+
+    /**
+     * 以 H2 内存库启动应用(不启动 Web 服务), 只为取得完整装配的 SqlCallTreeContext
+     */
+    private static ConfigurableApplicationContext start(boolean woven) {
+        //* 命令行参数优先级最高, 覆盖 application.yml 中的数据源、日志级别等
+        return new SpringApplicationBuilder(SqlTreeApp.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.driver-class-name=org.h2.Driver",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.sql.init.mode=always",
+                        "--logging.level.root=WARN",
+                        "--logging.level.me.cowra.demo.sql_tree=WARN",
+                        "--logging.file.name=target/benchmark.log",
+                        "--sql-tree.trace-sample-rate=1.0",
+                        "--sql-tree.baselines.snapshot-file=",
+                        "--sql-tree.weaving=" + (woven ? "ajc" : "proxy"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(T target, Object aspect) {
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        return (T) factory.getProxy();
+    }
+
+    /**
+     * 先跑一轮预热, 再取 ROUNDS 轮中最快的一轮
+     */
+    private static double measure(Runnable call) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                call.run();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return (double) best / CALLS;
+    }
+
+    public static class PlainTarget {
+        public void work() {
+        }
+    }
+
+    @Traced("Benchmark")
+    public static class TracedTarget {
+        public void work() {
+        }
+    }
+
+    public static class LegacyTarget {
+        public void work() {
+        }
+    }
+
+    /**
+     * 改造前的 ServiceCallTraceAspect: 每次调用反射取名称, 不判断追踪开关, INFO 日志
+     */
+    @Slf4j
+    @Aspect
+    static class LegacyTraceAspect {
+
+        //* 与 ServiceCallTraceAspect 相同, -Pajc 构建时 ajc 也会处理这个切面, 须保留无参构造
+        private SqlCallTreeContext sqlCallTreeContext;
+
+        void setSqlCallTreeContext(SqlCallTreeContext sqlCallTreeContext) {
+            this.sqlCallTreeContext = sqlCallTreeContext;
+        }
+
+        @Around("execution(public * me.cowra.demo.sql_tree.aop.AspectOverheadBenchmark.LegacyTarget.*(..))")
+        public Object traceServiceCall(ProceedingJoinPoint joinPoint) throws Throwable {
+            String serviceName = joinPoint.getTarget().getClass().getSimpleName();
+            String methodName = joinPoint.getSignature().getName();
+
+            log.info("Service Aspect: {}.{}", serviceName, methodName);
+
+            ServiceCallInfo serviceCallInfo = sqlCallTreeContext.enterService(serviceName, methodName);
+            log.info("Entering service invocation: {}.{}, depth: {}",
+                    serviceName, methodName,
+                    serviceCallInfo != null ? serviceCallInfo.getDepth() : "null");
+
+            try {
+                Object result = joinPoint.proceed();
+                log.debug("Success Service Invocation: {}.{}", serviceName, methodName);
+                return result;
+            } catch (Throwable t) {
+                log.error("Failed to execute service: {}.{}, error: {}",
+                        serviceName, methodName, t.getMessage());
+                throw t;
+            } finally {
+                sqlCallTreeContext.exitService(serviceCallInfo);
+            }
+        }
+    }
+}
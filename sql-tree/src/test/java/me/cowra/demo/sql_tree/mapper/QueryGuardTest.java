@@ -0,0 +1,214 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryGuardTest {
+
+    private static final String MAPPER = "me.cowra.demo.sql_tree.mapper.OrderMapper";
+    private static final String STATEMENT = MAPPER + ".findById";
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Configuration configuration = new Configuration();
+    private QueryGuard.QueryGuardProperties properties;
+    private QueryGuard.BreakerProperties breaker;
+
+    @BeforeEach
+    void setUp() {
+        properties = new QueryGuard.QueryGuardProperties();
+        breaker = properties.getBreaker();
+        breaker.setWindowSize(10);
+        breaker.setMinCalls(4);
+        breaker.setFailureRateThreshold(0.5);
+        breaker.setSlowCallRateThreshold(0.8);
+        breaker.setHalfOpenCalls(2);
+        //* 熔断按 Mapper 规则开启, 同时验证 语句ID > Mapper 的规则匹配
+        QueryGuard.Rule rule = new QueryGuard.Rule();
+        rule.setBreaker(true);
+        properties.getStatements().put(MAPPER, rule);
+    }
+
+    private MappedStatement statement(String id) {
+        return new MappedStatement.Builder(configuration, id,
+                new StaticSqlSource(configuration, "select 1"), SqlCommandType.SELECT).build();
+    }
+
+    private static void call(QueryGuard guard, MappedStatement statement, long elapsedNanos, boolean failed) {
+        guard.acquire(statement).release(elapsedNanos, failed);
+    }
+
+    private static Object state(QueryGuard guard, String statementId) {
+        return guard.snapshot().get(statementId).get("state");
+    }
+
+    private static QueryGuard.Rejection rejection(QueryGuard guard, MappedStatement statement) {
+        return assertThrows(QueryRejectedException.class, () -> guard.acquire(statement)).getRejection();
+    }
+
+    @Test
+    void opensOnFailureRate() {
+        QueryGuard guard = new QueryGuard(properties);
+        MappedStatement statement = statement(STATEMENT);
+
+        call(guard, statement, FAST, false);
+        call(guard, statement, FAST, true);
+        call(guard, statement, FAST, false);
+        //* 窗口内不足 min-calls 次, 不判断
+        assertEquals(QueryGuard.State.CLOSED, state(guard, STATEMENT));
+        call(guard, statement, FAST, true);
+        assertEquals(QueryGuard.State.OPEN, state(guard, STATEMENT));
+
+        assertEquals(QueryGuard.Rejection.CIRCUIT_OPEN, rejection(guard, statement));
+        assertEquals(1L, guard.snapshot().get(STATEMENT).get("rejectedOpen"));
+    }
+
+    @Test
+    void opensOnSlowCallRate() {
+        properties.getStatements().get(MAPPER).setSlowCallThreshold(10L);
+        QueryGuard guard = new QueryGuard(properties);
+        MappedStatement statement = statement(STATEMENT);
+
+        call(guard, statement, FAST, false);
+        for (int i = 0; i < 3; i++) {
+            call(guard, statement, SLOW, false);
+        }
+        //* 3/4 低于 80%
+        assertEquals(QueryGuard.State.CLOSED, state(guard, STATEMENT));
+        call(guard, statement, SLOW, false);
+        assertEquals(QueryGuard.State.OPEN, state(guard, STATEMENT));
+    }
+
+    @Test
+    void ignoresSlowCallsWithoutThreshold() {
+        QueryGuard guard = new QueryGuard(properties);
+        MappedStatement statement = statement(STATEMENT);
+
+        for (int i = 0; i < 10; i++) {
+            call(guard, statement, SLOW, false);
+        }
+        assertEquals(QueryGuard.State.CLOSED, state(guard, STATEMENT));
+    }
+
+    @Test
+    void breakerIsOffForStatementsWithoutRule() {
+        QueryGuard guard = new QueryGuard(properties);
+        String other = "me.cowra.demo.sql_tree.mapper.UserMapper.findById";
+        MappedStatement statement = statement(other);
+
+        for (int i = 0; i < 10; i++) {
+            call(guard, statement, FAST, true);
+        }
+        assertEquals(QueryGuard.State.CLOSED, state(guard, other));
+        assertEquals(10L, guard.snapshot().get(other).get("failures"));
+    }
+
+    @Test
+    void halfOpensAfterOpenDurationAndClosesOnSuccessfulTrials() throws InterruptedException {
+        breaker.setOpenDuration(1);
+        QueryGuard guard = new QueryGuard(properties);
+        MappedStatement statement = statement(STATEMENT);
+        for (int i = 0; i < 4; i++) {
+            call(guard, statement, FAST, true);
+        }
+        assertEquals(QueryGuard.Rejection.CIRCUIT_OPEN, rejection(guard, statement));
+
+        Thread.sleep(1_100);
+        QueryGuard.Permit first = guard.acquire(statement);
+        assertEquals(QueryGuard.State.HALF_OPEN, state(guard, STATEMENT));
+        QueryGuard.Permit second = guard.acquire(statement);
+        //* 试探名额(half-open-calls)用完
+        assertEquals(QueryGuard.Rejection.CIRCUIT_OPEN, rejection(guard, statement));
+        second.release(FAST, false);
+        first.release(FAST, false);
+        assertEquals(QueryGuard.State.CLOSED, state(guard, STATEMENT));
+        assertEquals(0, guard.snapshot().get(STATEMENT).get("windowCalls"));
+    }
+
+    @Test
+    void reopensWhenTrialFails() {
+        breaker.setOpenDuration(0);
+        QueryGuard guard = new QueryGuard(properties);
+        MappedStatement statement = statement(STATEMENT);
+        for (int i = 0; i < 4; i++) {
+            call(guard, statement, FAST, true);
+        }
+
+        call(guard, statement, FAST, true);
+        assertEquals(QueryGuard.State.OPEN, state(guard, STATEMENT));
+        assertEquals(2L, guard.snapshot().get(STATEMENT).get("opened"));
+    }
+
+    @Test
+    void bulkheadRejectionReturnsTrialSlot() {
+        breaker.setOpenDuration(0);
+        properties.getStatements().get(MAPPER).setMaxConcurrent(1);
+        QueryGuard guard = new QueryGuard(properties);
+        MappedStatement statement = statement(STATEMENT);
+        for (int i = 0; i < 4; i++) {
+            call(guard, statement, FAST, true);
+        }
+
+        QueryGuard.Permit trial = guard.acquire(statement);
+        assertEquals(QueryGuard.State.HALF_OPEN, state(guard, STATEMENT));
+        //* 第二个试探名额被取走后隔离舱拒绝, 名额须归还, 否则半开状态永远凑不够成功次数
+        assertEquals(QueryGuard.Rejection.BULKHEAD_FULL, rejection(guard, statement));
+        trial.release(FAST, false);
+        call(guard, statement, FAST, false);
+        assertEquals(QueryGuard.State.CLOSED, state(guard, STATEMENT));
+        assertEquals(1L, guard.snapshot().get(STATEMENT).get("rejectedBulkhead"));
+    }
+
+    @Test
+    void nestedPermitsRestoreOuterTimeout() {
+        properties.setTimeout(5);
+        properties.getStatements().get(MAPPER).setTimeout(2);
+        QueryGuard guard = new QueryGuard(properties);
+
+        QueryGuard.Permit outer = guard.acquire(statement("me.cowra.demo.sql_tree.mapper.UserMapper.findById"));
+        assertEquals(5, guard.currentTimeout());
+        QueryGuard.Permit inner = guard.acquire(statement(STATEMENT));
+        assertEquals(2, guard.currentTimeout());
+        inner.release(FAST, false);
+        assertEquals(5, guard.currentTimeout());
+        outer.release(FAST, false);
+        assertEquals(0, guard.currentTimeout());
+    }
+
+    @Test
+    void countsOnlyTimeoutsTransientAndConnectionErrorsAsFailures() {
+        assertTrue(QueryGuard.isBreakerFailure(new SQLTimeoutException("Query timed out")));
+        assertTrue(QueryGuard.isBreakerFailure(new SQLTransientConnectionException("Connection is not available")));
+        assertTrue(QueryGuard.isBreakerFailure(new SQLRecoverableException("Communications link failure")));
+        assertTrue(QueryGuard.isBreakerFailure(
+                new PersistenceException(new RuntimeException(new SQLTimeoutException("Query timed out")))));
+
+        assertFalse(QueryGuard.isBreakerFailure(new SQLTransactionRollbackException("Deadlock found")));
+        assertFalse(QueryGuard.isBreakerFailure(
+                new PersistenceException(new SQLTransactionRollbackException("Deadlock found"))));
+        assertFalse(QueryGuard.isBreakerFailure(new SQLIntegrityConstraintViolationException("Duplicate entry")));
+        assertFalse(QueryGuard.isBreakerFailure(new SQLSyntaxErrorException("You have an error in your SQL syntax")));
+        assertFalse(QueryGuard.isBreakerFailure(new SQLException("Unknown")));
+        assertFalse(QueryGuard.isBreakerFailure(new IllegalStateException()));
+        assertFalse(QueryGuard.isBreakerFailure(null));
+    }
+}
@@ -0,0 +1,119 @@
+package me.cowra.demo.sql_tree.mapper;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlCommentTest {
+
+    private static final String MAPPER = "me.cowra.demo.sql_tree.mapper.OrderMapper";
+    private static final String SQL = "select * from orders where id = ?";
+    private static final String TRACE_PARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+    private final Configuration configuration = new Configuration();
+    private SqlComment.SqlCommentProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new SqlComment.SqlCommentProperties();
+        properties.setEnabled(true);
+        properties.setCallPath(true);
+    }
+
+    private MappedStatement statement(String id) {
+        return new MappedStatement.Builder(configuration, id,
+                new StaticSqlSource(configuration, SQL), SqlCommandType.SELECT).build();
+    }
+
+    private static SqlComment.Rule rule(Boolean traceId, Boolean callPath) {
+        SqlComment.Rule rule = new SqlComment.Rule();
+        rule.setTraceId(traceId);
+        rule.setCallPath(callPath);
+        return rule;
+    }
+
+    /**
+     * 注释必须在第一个结束符处结束, 其后原样是原始SQL
+     */
+    private static void assertCommentClosesBeforeSql(String decorated) {
+        assertTrue(decorated.startsWith("/* "), decorated);
+        int end = decorated.indexOf("*/");
+        assertEquals(" " + SQL, decorated.substring(end + 2), decorated);
+    }
+
+    @Test
+    void addsCallPathByDefault() {
+        SqlComment comment = new SqlComment(properties);
+
+        String decorated = comment.decorate(SQL, statement(MAPPER + ".findById"), TRACE_PARENT,
+                "OrderService.placeOrder -> InventoryService.reserve");
+        assertEquals("/* path=OrderService.placeOrder -> InventoryService.reserve */ " + SQL, decorated);
+        assertSame(SQL, comment.decorate(SQL, statement(MAPPER + ".findById"), TRACE_PARENT, null));
+    }
+
+    @Test
+    void addsTraceParentOnlyWhereRuleEnablesIt() {
+        properties.getStatements().put(MAPPER, rule(true, null));
+        properties.getStatements().put(MAPPER + ".findAll", rule(false, false));
+        SqlComment comment = new SqlComment(properties);
+
+        assertEquals("/* traceparent=" + TRACE_PARENT + ", path=OrderService.placeOrder */ " + SQL,
+                comment.decorate(SQL, statement(MAPPER + ".findById"), TRACE_PARENT, "OrderService.placeOrder"));
+        //* 语句ID的规则优先于 Mapper 的规则
+        assertSame(SQL, comment.decorate(SQL, statement(MAPPER + ".findAll"), TRACE_PARENT, "OrderService.placeOrder"));
+        assertEquals("/* path=UserService.find */ " + SQL, comment.decorate(SQL,
+                statement("me.cowra.demo.sql_tree.mapper.UserMapper.findById"), TRACE_PARENT, "UserService.find"));
+        //* 没有 traceparent(不在请求中)时只带调用路径
+        assertEquals("/* path=OrderService.placeOrder */ " + SQL,
+                comment.decorate(SQL, statement(MAPPER + ".findById"), null, "OrderService.placeOrder"));
+    }
+
+    @Test
+    void neutralizesCommentTerminatorsInCallPath() {
+        SqlComment comment = new SqlComment(properties);
+        MappedStatement statement = statement(MAPPER + ".findById");
+
+        for (String path : new String[]{
+                "Evil*/ drop table orders; /*Service.call",
+                "A.b -> C*/.d",
+                "A.b/*/ -> C.d",
+                "A.b**/ -> C.d*/*/",
+                "*/"}) {
+            String decorated = comment.decorate(SQL, statement, null, path);
+            assertCommentClosesBeforeSql(decorated);
+            assertEquals(-1, decorated.substring(0, decorated.indexOf("*/")).indexOf("/*", 1), decorated);
+        }
+    }
+
+    @Test
+    void statementIdIsNotWrittenIntoComment() {
+        properties.getStatements().put(MAPPER, rule(true, null));
+        SqlComment comment = new SqlComment(properties);
+
+        String decorated = comment.decorate(SQL, statement(MAPPER + "*/ drop table orders; /*.findById"),
+                TRACE_PARENT, "OrderService.placeOrder");
+        assertCommentClosesBeforeSql(decorated);
+        assertFalse(decorated.contains("drop table"), decorated);
+    }
+
+    @Test
+    void leavesAlreadyCommentedOrMissingSqlAlone() {
+        SqlComment comment = new SqlComment(properties);
+        MappedStatement statement = statement(MAPPER + ".findById");
+
+        String decorated = comment.decorate(SQL, statement, null, "OrderService.placeOrder");
+        //* 同一语句重试或嵌套拦截时不重复加注释
+        assertSame(decorated, comment.decorate(decorated, statement, null, "OrderService.placeOrder"));
+        assertNull(comment.decorate(null, statement, null, "OrderService.placeOrder"));
+        assertSame(SQL, comment.decorate(SQL, null, null, "OrderService.placeOrder"));
+    }
+}
@@ -0,0 +1,351 @@
+package me.cowra.demo.sql_tree.regression;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.Data;
+import me.cowra.demo.sql_tree.store.FrozenSqlTree;
+import me.cowra.demo.sql_tree.store.SqlTreeStore;
+import me.cowra.demo.sql_tree.trace.TraceParent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * SQL 性能回归门禁
+ * 以 H2 内存库启动应用, 按脚本逐个请求接口, 从每个请求的调用树(按 traceparent 关联)中统计
+ * 语句总数与每个SQL指纹的执行次数、平均耗时, 与检入的基线比较:
+ * 语句变多(如新的 N+1)、出现新指纹、或某指纹耗时超出容差时打印调用树差异, 测试失败.
+ *
+ * 由 regression profile 中的 failsafe 运行:
+ *       mvn -Pregression verify                         比较
+ *       mvn -Pregression verify -Dregression.update=true  重新生成基线(确认变化是预期的之后)
+ * 系统属性: regression.scenarios, regression.baseline, regression.update=false,
+ *       regression.warmup=10, regression.runs=10, regression.tolerance=1.0, regression.slack-ms=10
+ * 耗时在不同机器上差异很大, 容差按 "超出基线 (1 + tolerance) 倍且绝对值超出 slack-ms" 判定, 语句数则必须严格不增加.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:regression;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.sql.init.mode=always",
+        "logging.level.root=WARN",
+        "logging.level.me.cowra.demo.sql_tree=WARN",
+        "logging.level.org.apache.ibatis=WARN",
+        "logging.file.name=target/regression.log",
+        "sql-tree.trace-enabled=true",
+        "sql-tree.trace-sample-rate=1.0",
+        "sql-tree.max-sessions=1000",
+        "sql-tree.baselines.snapshot-file="
+})
+class SqlRegressionGateIT {
+
+    private static final Duration TREE_WAIT = Duration.ofSeconds(2);
+
+    private final Path scenarioFile = Paths.get(System.getProperty("regression.scenarios", "regression/scenarios.txt"));
+    private final Path baselineFile = Paths.get(System.getProperty("regression.baseline", "regression/baseline.json"));
+    private final boolean update = Boolean.getBoolean("regression.update");
+    private final int warmup = Integer.getInteger("regression.warmup", 10);
+    private final int runs = Math.max(1, Integer.getInteger("regression.runs", 10));
+    private final double tolerance = Double.parseDouble(System.getProperty("regression.tolerance", "1.0"));
+    private final long slackMicros = Math.round(Double.parseDouble(System.getProperty("regression.slack-ms", "10")) * 1_000);
+
+    private final ObjectMapper json = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    @Autowired
+    private SqlTreeStore sqlTreeStore;
+    @Autowired
+    private ObjectMapper treeMapper;
+    @LocalServerPort
+    private int port;
+
+    private String baseUrl;
+
+    @Test
+    void sqlStatementsDoNotRegress() throws Exception {
+        List<Scenario> scenarios = Scenario.load(scenarioFile);
+        baseUrl = "http://localhost:" + port;
+
+        Baseline current = new Baseline();
+        Map<String, List<JsonNode>> lastTrees = new HashMap<>();
+        for (Scenario scenario : scenarios) {
+            lastTrees.put(scenario.getName(), measure(scenario, current));
+        }
+
+        if (update || !Files.exists(baselineFile)) {
+            if (baselineFile.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(baselineFile.toAbsolutePath().getParent());
+            }
+            json.writeValue(baselineFile.toFile(), current);
+            System.out.printf("Baseline written: %s (%d scenarios)%n", baselineFile, current.getScenarios().size());
+            return;
+        }
+
+        Baseline baseline = json.readValue(baselineFile.toFile(), Baseline.class);
+        int failures = 0;
+        for (Scenario scenario : scenarios) {
+            if (!compare(scenario, baseline.getScenarios().get(scenario.getName()),
+                    current.getScenarios().get(scenario.getName()), lastTrees.get(scenario.getName()))) {
+                failures++;
+            }
+        }
+        System.out.printf("%nSQL regression gate: %d scenario(s), %d failed%n", scenarios.size(), failures);
+        assertEquals(0, failures, "SQL regression: " + failures + " scenario(s) exceed the baseline, see the output above");
+    }
+
+    /**
+     * 预热后执行 runs 次, 每个指纹取各次平均耗时的中位数; 执行次数取各次的最大值
+     * @return 最后一次执行的调用树, 用于打印差异
+     */
+    private List<JsonNode> measure(Scenario scenario, Baseline current) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            execute(scenario);
+        }
+        Map<String, List<Long>> averages = new TreeMap<>();
+        ScenarioResult result = new ScenarioResult();
+        result.setRequest(scenario.describe());
+        List<JsonNode> trees = Collections.emptyList();
+        for (int i = 0; i < runs; i++) {
+            trees = execute(scenario);
+            Map<String, FingerprintStat> stats = new TreeMap<>();
+            int statements = 0;
+            for (JsonNode tree : trees) {
+                for (JsonNode sql : tree.get("sqlNodes")) {
+                    statements++;
+                    String fingerprint = sql.path("fingerprint").asText();
+                    FingerprintStat stat = stats.computeIfAbsent(fingerprint, f -> new FingerprintStat());
+                    stat.setStatementId(sql.path("statementId").asText(null));
+                    stat.setCount(stat.getCount() + 1);
+                    stat.setAvgMicros(stat.getAvgMicros() + sql.path("executionTimeMicros").asLong());
+                }
+            }
+            result.setStatements(Math.max(result.getStatements(), statements));
+            stats.forEach((fingerprint, stat) -> {
+                FingerprintStat merged = result.getFingerprints().computeIfAbsent(fingerprint, f -> new FingerprintStat());
+                merged.setStatementId(stat.getStatementId());
+                merged.setCount(Math.max(merged.getCount(), stat.getCount()));
+                averages.computeIfAbsent(fingerprint, f -> new ArrayList<>()).add(stat.getAvgMicros() / stat.getCount());
+            });
+        }
+        averages.forEach((fingerprint, values) -> {
+            Collections.sort(values);
+            result.getFingerprints().get(fingerprint).setAvgMicros(values.get(values.size() / 2));
+        });
+        current.getScenarios().put(scenario.getName(), result);
+        System.out.printf("%-24s %-28s statements=%d, fingerprints=%d%n", scenario.getName(), scenario.describe(),
+                result.getStatements(), result.getFingerprints().size());
+        return trees;
+    }
+
+    /**
+     * 发出一次请求, 返回该请求(同一 trace-id)产生的所有调用树
+     */
+    private List<JsonNode> execute(Scenario scenario) throws Exception {
+        TraceParent traceParent = TraceParent.generate();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + scenario.getPath()))
+                .header(TraceParent.HEADER, traceParent.toString())
+                .timeout(Duration.ofSeconds(30));
+        if (scenario.getBody() != null) {
+            request.header("Content-Type", scenario.getContentType())
+                    .method(scenario.getMethod(), HttpRequest.BodyPublishers.ofFile(scenario.getBody()));
+        } else {
+            request.method(scenario.getMethod(), HttpRequest.BodyPublishers.noBody());
+        }
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw new IllegalStateException(scenario.describe() + " returned " + response.statusCode() + ": " + response.body());
+        }
+
+        //* 响应可能先于请求范围关闭到达, 等到树的数量稳定
+        long deadline = System.nanoTime() + TREE_WAIT.toNanos();
+        List<FrozenSqlTree> trees = sqlTreeStore.findByTraceId(traceParent.getTraceId());
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            List<FrozenSqlTree> again = sqlTreeStore.findByTraceId(traceParent.getTraceId());
+            if (!again.isEmpty() && again.size() == trees.size()) {
+                break;
+            }
+            trees = again;
+        }
+        List<JsonNode> nodes = new ArrayList<>();
+        //* 按树ID升序, 与执行顺序一致
+        for (int i = trees.size() - 1; i >= 0; i--) {
+            nodes.add(treeMapper.valueToTree(trees.get(i)));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return 是否通过
+     */
+    private boolean compare(Scenario scenario, ScenarioResult base, ScenarioResult current, List<JsonNode> trees) {
+        List<String> problems = new ArrayList<>();
+        List<String> notes = new ArrayList<>();
+        if (base == null) {
+            problems.add("no baseline for this scenario, run with -Dregression.update=true");
+        } else {
+            if (current.getStatements() > base.getStatements()) {
+                problems.add(String.format("statements: %d -> %d", base.getStatements(), current.getStatements()));
+            } else if (current.getStatements() < base.getStatements()) {
+                notes.add(String.format("statements: %d -> %d (fewer, consider updating the baseline)",
+                        base.getStatements(), current.getStatements()));
+            }
+            current.getFingerprints().forEach((fingerprint, stat) -> {
+                FingerprintStat before = base.getFingerprints().get(fingerprint);
+                if (before == null) {
+                    problems.add(String.format("+ new    %dx %s", stat.getCount(), describe(fingerprint, stat)));
+                    return;
+                }
+                if (stat.getCount() > before.getCount()) {
+                    problems.add(String.format("+ count  %d -> %d  %s", before.getCount(), stat.getCount(), describe(fingerprint, stat)));
+                }
+                long limit = Math.max(Math.round(before.getAvgMicros() * (1 + tolerance)), before.getAvgMicros() + slackMicros);
+                if (stat.getAvgMicros() > limit) {
+                    problems.add(String.format("! time   %dus -> %dus (limit %dus)  %s",
+                            before.getAvgMicros(), stat.getAvgMicros(), limit, describe(fingerprint, stat)));
+                }
+            });
+            base.getFingerprints().forEach((fingerprint, stat) -> {
+                if (!current.getFingerprints().containsKey(fingerprint)) {
+                    notes.add(String.format("- gone   %dx %s", stat.getCount(), describe(fingerprint, stat)));
+                }
+            });
+        }
+
+        if (problems.isEmpty()) {
+            System.out.printf("[PASS] %s %s%n", scenario.getName(), scenario.describe());
+            notes.forEach(note -> System.out.println("    " + note));
+            return true;
+        }
+        System.out.printf("[FAIL] %s %s%n", scenario.getName(), scenario.describe());
+        problems.forEach(problem -> System.out.println("    " + problem));
+        notes.forEach(note -> System.out.println("    " + note));
+        System.out.println("    tree (+ marks statements beyond the baseline count):");
+        Map<String, Integer> seen = new HashMap<>();
+        for (JsonNode tree : trees) {
+            printTree(tree, base, seen);
+        }
+        return false;
+    }
+
+    /**
+     * 按 Service 层次打印树, 每个 Service 下列出它直接发出的SQL
+     */
+    private static void printTree(JsonNode tree, ScenarioResult base, Map<String, Integer> seen) {
+        JsonNode services = tree.get("services");
+        JsonNode sqlNodes = tree.get("sqlNodes");
+        int[] depth = new int[services.size()];
+        for (JsonNode service : services) {
+            int index = service.get("index").asInt();
+            int parent = service.get("parent").asInt();
+            depth[index] = parent < 0 ? 0 : depth[parent] + 1;
+            System.out.printf("      %s%s.%s  %.3fms%n", "  ".repeat(depth[index]),
+                    service.get("serviceName").asText(), service.get("methodName").asText(),
+                    service.get("executionTimeMicros").asLong() / 1000.0);
+            for (JsonNode sql : sqlNodes) {
+                if (sql.get("service").asInt() != index) {
+                    continue;
+                }
+                String fingerprint = sql.path("fingerprint").asText();
+                int occurrence = seen.merge(fingerprint, 1, Integer::sum);
+                FingerprintStat before = base != null ? base.getFingerprints().get(fingerprint) : null;
+                boolean extra = base != null && (before == null || occurrence > before.getCount());
+                System.out.printf("    %s %s  %s  %.3fms%n", extra ? "+" : " ", "  ".repeat(depth[index] + 1),
+                        abbreviate(sql.path("sql").asText()), sql.path("executionTimeMicros").asLong() / 1000.0);
+            }
+        }
+    }
+
+    private static String describe(String fingerprint, FingerprintStat stat) {
+        return (stat.getStatementId() != null ? stat.getStatementId() + ": " : "") + abbreviate(fingerprint);
+    }
+
+    private static String abbreviate(String sql) {
+        String oneLine = sql.replaceAll("\\s+", " ").trim();
+        return oneLine.length() > 120 ? oneLine.substring(0, 117) + "..." : oneLine;
+    }
+
+    /**
+     * 场景脚本中的一行: 名称 方法 路径 [请求体文件], 请求体文件相对于脚本所在目录, Content-Type 由扩展名决定
+     */
+    @Data
+    static class Scenario {
+        private String name;
+        private String method;
+        private String path;
+        private Path body;
+        private String contentType;
+
+        static List<Scenario> load(Path file) throws IOException {
+            List<Scenario> scenarios = new ArrayList<>();
+            for (String line : Files.readAllLines(file)) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = trimmed.split("\\s+");
+                if (parts.length < 3) {
+                    throw new IllegalArgumentException("Invalid scenario (name METHOD path [body]): " + line);
+                }
+                Scenario scenario = new Scenario();
+                scenario.setName(parts[0]);
+                scenario.setMethod(parts[1].toUpperCase());
+                scenario.setPath(parts[2]);
+                if (parts.length > 3) {
+                    Path body = file.toAbsolutePath().getParent().resolve(parts[3]);
+                    scenario.setBody(body);
+                    scenario.setContentType(body.toString().endsWith(".csv") ? "text/csv"
+                            : body.toString().endsWith(".ndjson") ? "application/x-ndjson" : "application/json");
+                }
+                scenarios.add(scenario);
+            }
+            return scenarios;
+        }
+
+        String describe() {
+            return method + " " + path;
+        }
+    }
+
+    @Data
+    static class Baseline {
+        private Map<String, ScenarioResult> scenarios = new TreeMap<>();
+    }
+
+    @Data
+    static class ScenarioResult {
+        private String request;
+        private int statements;     //* 一次请求执行的语句总数
+        private Map<String, FingerprintStat> fingerprints = new TreeMap<>();
+    }
+
+    @Data
+    static class FingerprintStat {
+        private String statementId;
+        private int count;          //* 一次请求中的执行次数
+        private long avgMicros;     //* 平均耗时(微秒)
+    }
+}
@@ -0,0 +1,143 @@
+package me.cowra.demo.sql_tree.stats;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class P2QuantileTest {
+
+    private static final int SAMPLES = 100_000;
+
+    /**
+     * 估计值在样本中的秩与 p 的差, 与分布的量纲无关
+     */
+    private static double rankError(double[] sorted, double p, double estimate) {
+        int below = 0;
+        while (below < sorted.length && sorted[below] <= estimate) {
+            below++;
+        }
+        return Math.abs((double) below / sorted.length - p);
+    }
+
+    private static void assertTracksExactQuantile(String name, DoubleSupplier distribution) {
+        double[] samples = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = distribution.getAsDouble();
+        }
+        for (double p : new double[]{0.5, 0.9, 0.95, 0.99}) {
+            P2Quantile quantile = new P2Quantile(p);
+            for (double sample : samples) {
+                quantile.add(sample);
+            }
+            double[] sorted = samples.clone();
+            Arrays.sort(sorted);
+            double exact = sorted[(int) Math.ceil(p * SAMPLES) - 1];
+            double estimate = quantile.get();
+            assertEquals(SAMPLES, quantile.getCount());
+            assertTrue(rankError(sorted, p, estimate) < 0.005,
+                    String.format("%s p=%.2f: estimate %.3f, exact %.3f", name, p, estimate, exact));
+        }
+    }
+
+    @Test
+    void tracksExactQuantileOfSeededDistributions() {
+        Random uniform = new Random(1);
+        assertTracksExactQuantile("uniform", () -> uniform.nextDouble() * 1000);
+        Random normal = new Random(2);
+        assertTracksExactQuantile("normal", () -> 500 + 50 * normal.nextGaussian());
+        //* 接近SQL耗时的长尾分布
+        Random logNormal = new Random(3);
+        assertTracksExactQuantile("log-normal", () -> Math.exp(6 + logNormal.nextGaussian()));
+    }
+
+    @Test
+    void usesExactSamplesBeforeFiveObservations() {
+        P2Quantile median = new P2Quantile(0.5);
+        assertEquals(0, median.get());
+        median.add(30);
+        assertEquals(30, median.get());
+        median.add(10);
+        median.add(20);
+        assertEquals(20, median.get());
+        median.add(40);
+        assertEquals(4, median.getCount());
+        //* 4 个样本的中位取 round(0.5 * 3) = 2, 即排序后的第三个
+        assertEquals(30, median.get());
+
+        P2Quantile p90 = new P2Quantile(0.9);
+        p90.add(5);
+        p90.add(1);
+        p90.add(3);
+        assertEquals(5, p90.get());
+
+        median.add(50);
+        assertEquals(5, median.getCount());
+        assertEquals(30, median.get());
+    }
+
+    @Test
+    void continuesIdenticallyAfterStateRestore() {
+        Random random = new Random(4);
+        P2Quantile original = new P2Quantile(0.95);
+        for (int i = 0; i < 10_000; i++) {
+            original.add(random.nextDouble() * 100);
+        }
+        P2Quantile restored = new P2Quantile(0.95);
+        restored.restore(original.state());
+        for (int i = 0; i < 10_000; i++) {
+            double x = random.nextDouble() * 100;
+            original.add(x);
+            restored.add(x);
+        }
+        assertEquals(original.getCount(), restored.getCount());
+        assertEquals(original.get(), restored.get());
+    }
+
+    @Test
+    void baselineUsesFloorUntilMinSamplesThenAdapts() {
+        SqlBaselines.BaselineProperties properties = new SqlBaselines.BaselineProperties();
+        properties.setMinSamples(30);
+        properties.setMultiplier(1.5);
+        SqlBaselines baselines = new SqlBaselines(properties);
+        baselines.init();
+
+        for (int i = 0; i < 30; i++) {
+            assertEquals(1_000, baselines.observe("select", 10_000, 1_000));
+        }
+        //* 稳定在 10ms 的语句, 阈值 = 1.5 * 10ms
+        assertEquals(15_000, baselines.observe("select", 10_000, 1_000));
+        //* 固定阈值仍是下限
+        assertEquals(20_000, baselines.observe("select", 10_000, 20_000));
+        assertEquals(1_000, baselines.observe("other", 10_000, 1_000));
+    }
+
+    @Test
+    void baselineSurvivesSnapshotRoundTrip(@TempDir Path directory) {
+        SqlBaselines.BaselineProperties properties = new SqlBaselines.BaselineProperties();
+        properties.setSnapshotFile(directory.resolve("baselines.json").toString());
+        properties.setSnapshotInterval(0);
+        SqlBaselines before = new SqlBaselines(properties);
+        before.init();
+        Random random = new Random(5);
+        for (int i = 0; i < 1_000; i++) {
+            before.observe("select", 1_000 + random.nextInt(1_000), 1);
+        }
+        before.destroy();
+
+        SqlBaselines after = new SqlBaselines(properties);
+        after.init();
+        SqlBaselines.BaselineSnapshot expected = before.snapshot().get("select");
+        SqlBaselines.BaselineSnapshot actual = after.snapshot().get("select");
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getEwma(), actual.getEwma());
+        assertEquals(expected.getQuantile(), actual.getQuantile());
+        assertEquals(before.observe("select", 1_500, 1), after.observe("select", 1_500, 1));
+    }
+}
@@ -0,0 +1,119 @@
+package me.cowra.demo.sql_tree.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingSketchTest {
+
+    private static final int CAPACITY = 32;
+
+    /**
+     * 偏斜分布(少数 key 占大部分流量), 固定种子
+     */
+    private static Map<String, Long> feed(SpaceSavingSketch sketch, int keys, int events, long seed) {
+        Random random = new Random(seed);
+        Map<String, Long> exact = new HashMap<>();
+        for (int i = 0; i < events; i++) {
+            String key = "q" + (int) Math.floor(Math.pow(random.nextDouble(), 3) * keys);
+            long weight = 1 + random.nextInt(5);
+            sketch.add(key, weight);
+            exact.merge(key, weight, Long::sum);
+        }
+        return exact;
+    }
+
+    private static Map<String, SpaceSavingSketch.Entry> entries(SpaceSavingSketch sketch) {
+        Map<String, SpaceSavingSketch.Entry> merged = new HashMap<>();
+        sketch.mergeInto(merged);
+        return merged;
+    }
+
+    @Test
+    void countsNeverUnderestimateAndErrorIsBoundedByMinCounter() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(CAPACITY);
+        Map<String, Long> exact = feed(sketch, 500, 50_000, 42);
+        Map<String, SpaceSavingSketch.Entry> entries = entries(sketch);
+        long min = sketch.minCount();
+
+        assertEquals(CAPACITY, entries.size());
+        assertTrue(min > 0, "sketch should be full");
+        for (SpaceSavingSketch.Entry entry : entries.values()) {
+            long actual = exact.get(entry.getFingerprint());
+            assertTrue(entry.getCount() >= actual, entry + " underestimates " + actual);
+            assertTrue(entry.getCount() - entry.getError() <= actual, entry + " lower bound exceeds " + actual);
+            assertTrue(entry.getError() <= min, entry + " error exceeds min counter " + min);
+        }
+        //* 被挤出草图的 key, 真实计数不超过最小计数器
+        exact.forEach((key, actual) -> {
+            if (!entries.containsKey(key)) {
+                assertTrue(actual <= min, key + "=" + actual + " evicted above min counter " + min);
+            }
+        });
+    }
+
+    @Test
+    void heavyHittersAreKeptAndTopIsOrdered() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(CAPACITY);
+        Map<String, Long> exact = feed(sketch, 500, 50_000, 7);
+        long total = exact.values().stream().mapToLong(Long::longValue).sum();
+        Map<String, SpaceSavingSketch.Entry> entries = entries(sketch);
+
+        //* 真实计数超过 total / capacity 的 key 一定留在草图中
+        exact.forEach((key, actual) -> {
+            if (actual > total / CAPACITY) {
+                assertTrue(entries.containsKey(key), key + "=" + actual + " is a heavy hitter but was evicted");
+            }
+        });
+
+        List<SpaceSavingSketch.Entry> top = SpaceSavingSketch.top(entries, 10);
+        assertEquals(10, top.size());
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).getCount() >= top.get(i).getCount(), "top-K not in descending order: " + top);
+        }
+        String heaviest = exact.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+        assertEquals(heaviest, top.get(0).getFingerprint());
+    }
+
+    @Test
+    void topReturnsEverythingWhenFewerThanK() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(CAPACITY);
+        sketch.add("a", 3);
+        sketch.add("b", 5);
+        List<SpaceSavingSketch.Entry> top = SpaceSavingSketch.top(entries(sketch), 10);
+        assertEquals(2, top.size());
+        assertEquals("b", top.get(0).getFingerprint());
+        assertEquals(0, sketch.minCount());
+    }
+
+    @Test
+    void rejectsCapacityBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> new SpaceSavingSketch(0));
+    }
+
+    @Test
+    void trackerClampsCapacityAndTopKToOne() {
+        HeavyHitterTracker.HeavyHitterProperties properties = new HeavyHitterTracker.HeavyHitterProperties();
+        properties.setCapacity(0);
+        properties.setTopK(0);
+        HeavyHitterTracker tracker = new HeavyHitterTracker(properties);
+        tracker.init();
+
+        tracker.record("select 1", 100, 1);
+        tracker.record("select 2", 300, 1);
+        tracker.record("select 2", 300, 1);
+
+        Map<String, List<SpaceSavingSketch.Entry>> top = tracker.topK(1);
+        assertEquals(1, top.get("time").size());
+        assertEquals("select 2", top.get("time").get(0).getFingerprint());
+        assertEquals(1, top.get("count").size());
+        assertEquals(1, top.get("rows").size());
+    }
+}
@@ -0,0 +1,248 @@
+package me.cowra.demo.sql_tree.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.cowra.demo.sql_tree.model.ServiceCallInfo;
+import me.cowra.demo.sql_tree.model.SqlNode;
+import me.cowra.demo.sql_tree.model.TransactionNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrozenSqlTreeTest {
+
+    private static final long BASE_NANOS = 1_000_000_000L;
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String TRACE_PARENT = "00-" + TRACE_ID + "-00f067aa0ba902b7-01";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static ServiceCallInfo service(String name, String method, int depth, long startNanos, long micros) {
+        ServiceCallInfo service = new ServiceCallInfo(name, method, depth);
+        service.setStartNanos(startNanos);
+        service.setExecutionTime(micros);
+        return service;
+    }
+
+    private static SqlNode sql(String sql, String type, int depth, long startNanos, long micros, Object... parameters) {
+        SqlNode node = new SqlNode(sql, type, depth);
+        node.setStartNanos(startNanos);
+        node.setExecutionTime(micros);
+        node.setParameters(new ArrayList<>(Arrays.asList(parameters)));
+        return node;
+    }
+
+    /**
+     * OrderService.placeOrder
+     *   select ... (参数 7, null)          根SQL, 慢SQL
+     *     select ... (无参数)              嵌套SQL
+     *   InventoryService.reserve
+     *     update ... (参数为 null)         事务内, 写后空闲
+     */
+    private static FrozenSqlTree freezeSampleTree() {
+        ServiceCallInfo root = service("OrderService", "placeOrder", 0, BASE_NANOS, 12_345);
+        root.setTraceParent(TRACE_PARENT);
+        ServiceCallInfo inventory = service("InventoryService", "reserve", 1, BASE_NANOS + 500_000, 4_000);
+        root.addChild(inventory);
+
+        SqlNode select = sql("select * from orders where id = ? and note = ?", "SELECT", 0,
+                BASE_NANOS + 100_000, 2_500, 7, null);
+        select.setSlowThreshold(2_000);
+        select.setSlowSql(true);
+        select.setAffectedRows(1);
+        select.setResultSize(256);
+        select.getPhases().addConnectionWaitTime(100);
+        select.getPhases().addExecuteTime(2_000);
+        SqlNode nested = sql("select count(*) from order_items", "SELECT", 1, BASE_NANOS + 150_000, 300);
+        select.addChild(nested);
+        root.addSqlNode(select);
+        root.addSqlNode(nested);
+
+        SqlNode update = sql("update inventory set stock = stock - 1", "UPDATE", 0, BASE_NANOS + 600_000, 1_000);
+        update.setParameters(null);
+        update.setAffectedRows(3);
+        update.setErrorMessage("Deadlock found");
+        TransactionNode transaction = new TransactionNode("InventoryService.reserve", false, BASE_NANOS + 550_000);
+        transaction.setService(inventory);
+        transaction.onSqlEnd(update);
+        transaction.complete(TransactionNode.Status.COMMITTED, BASE_NANOS + 4_550_000, 0, 1_000);
+        update.setTransaction(transaction);
+        inventory.addSqlNode(update);
+
+        return FrozenSqlTree.freeze(42, root, List.of(select, update));
+    }
+
+    @Test
+    void freezesLiveTreeIntoColumnsInPreOrder() {
+        FrozenSqlTree tree = freezeSampleTree();
+
+        assertEquals(2, tree.serviceCount);
+        assertArrayEquals(new int[]{FrozenSqlTree.NONE, 0}, tree.serviceParent);
+        assertArrayEquals(new int[]{0, 500}, tree.serviceStart);
+        assertEquals(3, tree.getSqlCount());
+        assertArrayEquals(new int[]{FrozenSqlTree.NONE, 0, FrozenSqlTree.NONE}, tree.sqlParent);
+        assertArrayEquals(new int[]{0, 0, 1}, tree.sqlService);
+        assertArrayEquals(new int[]{100, 150, 600}, tree.sqlStart);
+        assertArrayEquals(new int[]{FrozenSqlTree.NONE, FrozenSqlTree.NONE, 0}, tree.sqlTransaction);
+        assertEquals("OrderService.placeOrder", tree.getRootService());
+        assertEquals(TRACE_ID, tree.getTraceId());
+        assertEquals(1, tree.getSlowSqlCount());
+        assertEquals(1, tree.getFlaggedTransactionCount());
+        assertTrue(tree.involvesService("InventoryService"));
+        assertTrue(tree.involvesService("InventoryService.reserve"));
+        assertFalse(tree.involvesService("InventoryService.release"));
+
+        //* 第 i 个节点的参数为 parameters[parameterOffset[i] .. parameterOffset[i + 1]), 空列表和 null 都不占位
+        assertArrayEquals(new int[]{0, 2, 2, 2}, tree.parameterOffset);
+        assertArrayEquals(new String[]{"7", null}, tree.parameters);
+
+        FrozenSqlTree.Summary summary = tree.summary();
+        assertEquals(12_345, summary.getExecutionTimeMicros());
+        assertEquals(12, summary.getExecutionTime());
+        assertEquals(3, summary.getSqlCount());
+        assertEquals(1, summary.getTransactionCount());
+    }
+
+    @Test
+    void serializesStructureAndValues() throws Exception {
+        JsonNode json = objectMapper.readTree(objectMapper.writeValueAsString(freezeSampleTree()));
+
+        assertEquals(42, json.get("treeId").asLong());
+        assertEquals("OrderService.placeOrder", json.get("rootService").asText());
+        assertEquals(TRACE_ID, json.get("traceId").asText());
+        assertEquals(TRACE_PARENT, json.get("traceParent").asText());
+        assertEquals(Thread.currentThread().getName(), json.get("threadName").asText());
+        assertEquals(12, json.get("executionTime").asLong());
+        assertEquals(12_345, json.get("executionTimeMicros").asLong());
+        assertEquals(2, json.get("serviceCount").asInt());
+        assertEquals(3, json.get("sqlCount").asInt());
+        assertEquals(1, json.get("transactionCount").asInt());
+
+        JsonNode inventory = json.get("services").get(1);
+        assertEquals(0, inventory.get("parent").asInt());
+        assertEquals("InventoryService", inventory.get("serviceName").asText());
+        assertEquals("reserve", inventory.get("methodName").asText());
+        assertEquals(500, inventory.get("startOffset").asInt());
+        assertEquals(4, inventory.get("executionTime").asInt());
+        assertEquals(4_000, inventory.get("executionTimeMicros").asInt());
+
+        JsonNode transaction = json.get("transactions").get(0);
+        assertEquals(1, transaction.get("service").asInt());
+        assertEquals("InventoryService.reserve", transaction.get("name").asText());
+        assertEquals("COMMITTED", transaction.get("status").asText());
+        assertFalse(transaction.get("readOnly").asBoolean());
+        assertEquals(550, transaction.get("startOffset").asInt());
+        assertEquals(4_000, transaction.get("executionTimeMicros").asInt());
+        assertEquals(1, transaction.get("writeCount").asInt());
+        assertEquals(3, transaction.get("writtenRows").asLong());
+        assertEquals(TransactionNode.FLAG_IDLE_AFTER_WRITE, transaction.get("flags").get(0).asText());
+
+        JsonNode select = json.get("sqlNodes").get(0);
+        assertEquals(-1, select.get("parent").asInt());
+        assertFalse(select.has("transaction"));
+        assertEquals("select * from orders where id = ? and note = ?", select.get("sql").asText());
+        assertEquals(2, select.get("executionTime").asInt());
+        assertEquals(2_500, select.get("executionTimeMicros").asInt());
+        assertTrue(select.get("slowSql").asBoolean());
+        assertEquals(2_000, select.get("slowThreshold").asInt());
+        assertEquals(256, select.get("resultSize").asLong());
+        assertEquals(100, select.get("phases").get("connectionWaitTime").asInt());
+        assertEquals(2_000, select.get("phases").get("executeTime").asInt());
+        assertEquals(2, select.get("parameters").size());
+        assertEquals("7", select.get("parameters").get(0).asText());
+        assertTrue(select.get("parameters").get(1).isNull());
+        assertFalse(select.has("errorMessage"));
+
+        JsonNode nested = json.get("sqlNodes").get(1);
+        assertEquals(0, nested.get("parent").asInt());
+        assertEquals(1, nested.get("depth").asInt());
+        assertEquals(0, nested.get("parameters").size());
+
+        JsonNode update = json.get("sqlNodes").get(2);
+        assertEquals(1, update.get("service").asInt());
+        assertEquals(0, update.get("transaction").asInt());
+        assertEquals("UPDATE", update.get("sqlType").asText());
+        assertEquals("Deadlock found", update.get("errorMessage").asText());
+        assertEquals(0, update.get("parameters").size());
+    }
+
+    @Test
+    void clampsMicrosecondsToInt() throws Exception {
+        long fiftyMinutes = 3_000_000_000L;
+        ServiceCallInfo root = service("BatchService", "rebuild", 0, BASE_NANOS, fiftyMinutes);
+        SqlNode early = sql("select 1", "SELECT", 0, BASE_NANOS - 2_000_000, fiftyMinutes);
+        early.getPhases().addFetchTime(Long.MAX_VALUE);
+        SqlNode late = sql("select 2", "SELECT", 0, BASE_NANOS + fiftyMinutes * 1_000L, 10);
+        root.addSqlNode(early);
+        root.addSqlNode(late);
+        FrozenSqlTree tree = FrozenSqlTree.freeze(1, root, List.of(early, late));
+
+        //* 根调用的总耗时以 long 保存, 不截断
+        assertEquals(fiftyMinutes, tree.getExecutionTime());
+        assertEquals(Integer.MAX_VALUE, tree.serviceTime[0]);
+        assertEquals(Integer.MAX_VALUE, tree.sqlTime[0]);
+        assertEquals(Integer.MAX_VALUE, tree.sqlFetchTime[0]);
+        //* 早于根调用开始的节点偏移为负数
+        assertEquals(-2_000, tree.sqlStart[0]);
+        assertEquals(Integer.MAX_VALUE, tree.sqlStart[1]);
+
+        JsonNode json = objectMapper.readTree(objectMapper.writeValueAsString(tree));
+        assertEquals(fiftyMinutes / 1_000L, json.get("executionTime").asLong());
+        assertEquals(fiftyMinutes, json.get("executionTimeMicros").asLong());
+        JsonNode node = json.get("sqlNodes").get(0);
+        assertEquals(Integer.MAX_VALUE / 1_000, node.get("executionTime").asInt());
+        assertEquals(Integer.MAX_VALUE, node.get("executionTimeMicros").asInt());
+    }
+
+    @Test
+    void freezesTreeWithoutSql() {
+        ServiceCallInfo root = service("HealthService", "ping", 0, BASE_NANOS, 5);
+        FrozenSqlTree tree = FrozenSqlTree.freeze(2, root, Collections.emptyList());
+
+        assertEquals(0, tree.getSqlCount());
+        assertArrayEquals(new int[]{0}, tree.parameterOffset);
+        assertEquals(0, tree.parameters.length);
+        assertNull(tree.getTraceId());
+    }
+
+    /**
+     * 会把全局字典填满, 同一 JVM 中之后冻结的新字符串都不再共享; 本模块其他测试不依赖字符串共享
+     */
+    @Test
+    void sharesDictionaryStringsAcrossTreesUntilFull() {
+        FrozenSqlTree first = FrozenSqlTree.freeze(3, service(new String("SharedService"), "call", 0, BASE_NANOS, 1),
+                Collections.emptyList());
+        FrozenSqlTree second = FrozenSqlTree.freeze(4, service(new String("SharedService"), "call", 0, BASE_NANOS, 1),
+                Collections.emptyList());
+        assertSame(first.string(first.serviceName[0]), second.string(second.serviceName[0]));
+
+        for (int i = 0; StringDictionary.size() < StringDictionary.MAX_ENTRIES; i++) {
+            StringDictionary.canonical("overflow-" + i);
+        }
+        String beyond = new String("BeyondService");
+        assertSame(beyond, StringDictionary.canonical(beyond));
+        String again = new String("BeyondService");
+        assertSame(again, StringDictionary.canonical(again));
+        assertEquals(StringDictionary.MAX_ENTRIES, StringDictionary.size());
+
+        //* 字典满后仍能正常冻结, 新字符串按原值保存, 已有条目继续共享
+        FrozenSqlTree third = FrozenSqlTree.freeze(5, service(new String("BeyondService"), "call", 0, BASE_NANOS, 1),
+                Collections.emptyList());
+        FrozenSqlTree fourth = FrozenSqlTree.freeze(6, service(new String("BeyondService"), "call", 0, BASE_NANOS, 1),
+                Collections.emptyList());
+        assertEquals("BeyondService.call", third.getRootService());
+        assertNotSame(third.string(third.serviceName[0]), fourth.string(fourth.serviceName[0]));
+        assertSame(first.string(first.serviceName[0]), StringDictionary.canonical(new String("SharedService")));
+    }
+}
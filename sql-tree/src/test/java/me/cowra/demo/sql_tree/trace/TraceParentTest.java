@@ -0,0 +1,119 @@
+package me.cowra.demo.sql_tree.trace;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TraceParentTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String SPAN_ID = "00f067aa0ba902b7";
+    private static final String VALID = "00-" + TRACE_ID + "-" + SPAN_ID + "-01";
+
+    @Test
+    void parsesValidHeader() {
+        TraceParent parsed = TraceParent.parse("  " + VALID + " ");
+        assertNotNull(parsed);
+        assertEquals(TRACE_ID, parsed.getTraceId());
+        assertEquals(SPAN_ID, parsed.getSpanId());
+        assertEquals(VALID, parsed.toString());
+        assertEquals("00-" + TRACE_ID + "-" + SPAN_ID + "-00", TraceParent.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-00").toString());
+    }
+
+    @Test
+    void rejectsInvalidVersions() {
+        assertNull(TraceParent.parse("ff-" + TRACE_ID + "-" + SPAN_ID + "-01"));
+        assertNull(TraceParent.parse("0g-" + TRACE_ID + "-" + SPAN_ID + "-01"));
+        assertNull(TraceParent.parse("0A-" + TRACE_ID + "-" + SPAN_ID + "-01"));
+        //* 00 版本必须恰好 55 个字符
+        assertNull(TraceParent.parse(VALID + "-extra"));
+        assertNull(TraceParent.parse(VALID + "0"));
+    }
+
+    @Test
+    void acceptsFutureVersionWithExtraFields() {
+        TraceParent parsed = TraceParent.parse("01-" + TRACE_ID + "-" + SPAN_ID + "-01-extra");
+        assertNotNull(parsed);
+        assertEquals(TRACE_ID, parsed.getTraceId());
+        //* 按本实现支持的 00 版本继续传播
+        assertEquals(VALID, parsed.toString());
+        assertNull(TraceParent.parse("01-" + TRACE_ID + "-" + SPAN_ID + "-01extra"));
+    }
+
+    @Test
+    void rejectsAllZeroIds() {
+        assertNull(TraceParent.parse("00-00000000000000000000000000000000-" + SPAN_ID + "-01"));
+        assertNull(TraceParent.parse("00-" + TRACE_ID + "-0000000000000000-01"));
+    }
+
+    @Test
+    void rejectsUppercaseHex() {
+        assertNull(TraceParent.parse("00-" + TRACE_ID.toUpperCase() + "-" + SPAN_ID + "-01"));
+        assertNull(TraceParent.parse("00-" + TRACE_ID + "-" + SPAN_ID.toUpperCase() + "-01"));
+        assertNull(TraceParent.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-0A"));
+    }
+
+    @Test
+    void rejectsMalformedLayout() {
+        assertNull(TraceParent.parse(null));
+        assertNull(TraceParent.parse(""));
+        assertNull(TraceParent.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-1"));
+        assertNull(TraceParent.parse("00_" + TRACE_ID + "-" + SPAN_ID + "-01"));
+        assertNull(TraceParent.parse("00-" + TRACE_ID + "_" + SPAN_ID + "-01"));
+        assertNull(TraceParent.parse("00-" + TRACE_ID + "-" + SPAN_ID + "_01"));
+        assertNull(TraceParent.parse("00-" + TRACE_ID.substring(1) + "x-" + SPAN_ID + "-01"));
+        //* 注释注入: 头里的内容不会原样进入SQL注释
+        assertNull(TraceParent.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-*/"));
+    }
+
+    @Test
+    void generatedValuesParseBack() {
+        for (int i = 0; i < 100; i++) {
+            TraceParent generated = TraceParent.generate();
+            TraceParent parsed = TraceParent.parse(generated.toString());
+            assertNotNull(parsed, generated.toString());
+            assertEquals(generated.toString(), parsed.toString());
+
+            TraceParent child = generated.child();
+            assertEquals(generated.getTraceId(), child.getTraceId());
+            assertNotEquals(generated.getSpanId(), child.getSpanId());
+        }
+        assertEquals(TRACE_ID, TraceParent.traceIdOf(VALID));
+        assertNull(TraceParent.traceIdOf("00-abc"));
+        assertNull(TraceParent.traceIdOf(null));
+    }
+
+    @Test
+    void propagatesToAnotherThreadAndRestores() throws InterruptedException {
+        TraceParent request = TraceParent.parse(VALID);
+        TraceParent.bind(request);
+        try {
+            assertEquals(TRACE_ID, TraceParent.next().getTraceId());
+            AtomicReference<TraceParent> seen = new AtomicReference<>();
+            Thread worker = new Thread(TraceParent.propagate(() -> seen.set(TraceParent.current())));
+            worker.start();
+            worker.join();
+            assertSame(request, seen.get());
+        } finally {
+            TraceParent.bind(null);
+        }
+
+        //* 在没有 trace 的线程上提交, 在另一个请求的线程上执行: 执行期间不带 trace, 结束后恢复该线程原来的值
+        Runnable captured = TraceParent.propagate(() -> assertNull(TraceParent.current()));
+        TraceParent other = TraceParent.generate();
+        TraceParent.bind(other);
+        try {
+            captured.run();
+            assertSame(other, TraceParent.current());
+        } finally {
+            TraceParent.bind(null);
+        }
+        assertNull(TraceParent.current());
+    }
+}